@@ -0,0 +1,240 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.models.Facade;
+import br.ufal.ic.p2.jackut.persistence.Armazenamento;
+import br.ufal.ic.p2.jackut.persistence.ConfiguracaoArmazenamento;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Executa os testes de aceitação em paralelo.
+ *
+ * Cada user story (usN_1.txt, usN_2.txt, ...) roda em uma thread, com um armazenamento só dela
+ * (em memória por padrão, ou em um diretório temporário); os scripts da mesma story rodam em
+ * sequência, cada um com uma Facade nova, porque os scripts seguintes verificam o que os anteriores deixaram salvo. Ao final, os resultados são
+ * impressos na ordem das stories, com o tempo de cada script.
+ *
+ * O EasyAccept guarda seus comandos internos em um campo estático que todo Script recria ao ser
+ * construído, então dois scripts não podem rodar ao mesmo tempo com as mesmas classes. Por isso cada
+ * thread carrega a sua própria cópia das classes do EasyAccept e usa o Script por reflexão.
+ *
+ * Uso: {@code java br.ufal.ic.p2.jackut.ExecutorAceitacao [diretorioTestes] [threads] [memoria|tmpfs|diretorio]}
+ */
+public class ExecutorAceitacao {
+    private static final Pattern ARQUIVO_TESTE = Pattern.compile("us(\\d+)_(\\d+)\\.txt");
+    private static final String CLASSE_SCRIPT = "easyaccept.script.Script";
+    private static final ThreadLocal<ClassLoader> CARREGADOR = ThreadLocal.withInitial(ExecutorAceitacao::novoCarregador);
+
+    public static void main(String[] args) throws Exception {
+        configurarSaida();
+        String diretorio = args.length > 0 ? args[0] : "P2-2023.1-JACKUT/tests/";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String modo = args.length > 2 ? args[2] : "memoria";
+
+        Map<Integer, List<File>> stories = agruparPorStory(new File(diretorio));
+        long inicio = System.nanoTime();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<List<Resultado>>> futuros = new ArrayList<>();
+        for (List<File> scripts : stories.values()) {
+            futuros.add(executor.submit(() -> executarStory(scripts, modo)));
+        }
+
+        int testes = 0;
+        int erros = 0;
+        long somaMillis = 0;
+        for (Future<List<Resultado>> futuro : futuros) {
+            for (Resultado resultado : aguardar(futuro)) {
+                System.out.println(resultado);
+                testes += resultado.testes;
+                erros += resultado.erros;
+                somaMillis += resultado.millis;
+            }
+        }
+        executor.shutdown();
+
+        long totalMillis = (System.nanoTime() - inicio) / 1_000_000;
+        System.out.println(testes + " testes, " + erros + " erros, " + totalMillis + " ms ("
+                + somaMillis + " ms somando os scripts, " + threads + " threads, armazenamento " + modo + ")");
+        System.exit(erros == 0 ? 0 : 1);
+    }
+
+    private static void configurarSaida() throws UnsupportedEncodingException {
+        // Mesmo encoding do Main, para compatibilidade com os testes
+        System.setOut(new PrintStream(System.out, true, "ISO-8859-1"));
+        System.setErr(new PrintStream(System.err, true, "ISO-8859-1"));
+    }
+
+    private static Map<Integer, List<File>> agruparPorStory(File diretorio) {
+        Map<Integer, List<File>> stories = new TreeMap<>();
+        File[] arquivos = diretorio.listFiles();
+        if (arquivos == null) {
+            throw new IllegalArgumentException("Diretório de testes não encontrado: " + diretorio);
+        }
+        for (File arquivo : arquivos) {
+            Matcher m = ARQUIVO_TESTE.matcher(arquivo.getName());
+            if (m.matches()) {
+                stories.computeIfAbsent(Integer.parseInt(m.group(1)), n -> new ArrayList<>()).add(arquivo);
+            }
+        }
+        for (List<File> scripts : stories.values()) {
+            scripts.sort(Comparator.comparingInt(ExecutorAceitacao::parte));
+        }
+        return stories;
+    }
+
+    private static int parte(File arquivo) {
+        Matcher m = ARQUIVO_TESTE.matcher(arquivo.getName());
+        return m.matches() ? Integer.parseInt(m.group(2)) : 0;
+    }
+
+    private static List<Resultado> executarStory(List<File> scripts, String modo) throws IOException {
+        ConfiguracaoArmazenamento configuracao;
+        switch (modo) {
+            case "memoria": configuracao = ConfiguracaoArmazenamento.emMemoria(); break;
+            case "tmpfs": configuracao = ConfiguracaoArmazenamento.tmpfs(); break;
+            default: configuracao = ConfiguracaoArmazenamento.diretorio(Files.createTempDirectory("jackut-aceitacao"));
+        }
+
+        List<Resultado> resultados = new ArrayList<>();
+        Armazenamento armazenamento = configuracao.criar();
+        try {
+            for (File arquivo : scripts) {
+                resultados.add(executarScript(arquivo, armazenamento));
+            }
+        } finally {
+            if (configuracao.getDiretorio() != null) {
+                // A gravação é assíncrona: espera o último salvamento antes de apagar o diretório
+                armazenamento.sincronizar();
+                apagar(configuracao.getDiretorio());
+            }
+        }
+        return resultados;
+    }
+
+    private static Resultado executarScript(File arquivo, Armazenamento armazenamento) {
+        long inicio = System.nanoTime();
+        try {
+            Facade facade = new Facade(armazenamento);
+            Class<?> classeScript = Class.forName(CLASSE_SCRIPT, true, CARREGADOR.get());
+            Object script = classeScript.getConstructor(String.class, Object.class).newInstance(arquivo.getPath(), facade);
+            try {
+                try {
+                    classeScript.getMethod("executeAndCheck").invoke(script);
+                } catch (InvocationTargetException e) {
+                    // "quit" no fim do script: os resultados até ali já estão no script
+                    if (!e.getCause().getClass().getName().equals("easyaccept.QuitSignalException")) {
+                        throw e;
+                    }
+                }
+                // Os resultados precisam ser lidos antes de fechar o script
+                return new Resultado(arquivo.getPath(),
+                        (Integer) classeScript.getMethod("numberOfTests").invoke(script),
+                        (Integer) classeScript.getMethod("numberOfErrors").invoke(script),
+                        (String) classeScript.getMethod("allErrorMessages").invoke(script),
+                        (System.nanoTime() - inicio) / 1_000_000);
+            } finally {
+                classeScript.getMethod("close").invoke(script);
+            }
+        } catch (InvocationTargetException e) {
+            return new Resultado(arquivo.getPath(), 0, 1, e.getCause().toString(), (System.nanoTime() - inicio) / 1_000_000);
+        } catch (Exception e) {
+            return new Resultado(arquivo.getPath(), 0, 1, e.toString(), (System.nanoTime() - inicio) / 1_000_000);
+        }
+    }
+
+    private static ClassLoader novoCarregador() {
+        try {
+            URL jar = Class.forName(CLASSE_SCRIPT).getProtectionDomain().getCodeSource().getLocation();
+            return new CarregadorIsolado(jar, ExecutorAceitacao.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("EasyAccept não está no classpath", e);
+        }
+    }
+
+    /**
+     * Carrega as classes do EasyAccept (pacotes easyaccept e util) do próprio jar, sem delegar ao pai;
+     * o resto (Facade, JDK) continua vindo do carregador da aplicação.
+     */
+    private static final class CarregadorIsolado extends URLClassLoader {
+        private CarregadorIsolado(URL jar, ClassLoader pai) {
+            super(new URL[]{jar}, pai);
+        }
+
+        @Override
+        protected Class<?> loadClass(String nome, boolean resolver) throws ClassNotFoundException {
+            if (!nome.startsWith("easyaccept.") && !nome.startsWith("util.")) {
+                return super.loadClass(nome, resolver);
+            }
+            synchronized (getClassLoadingLock(nome)) {
+                Class<?> classe = findLoadedClass(nome);
+                if (classe == null) {
+                    classe = findClass(nome);
+                }
+                if (resolver) {
+                    resolveClass(classe);
+                }
+                return classe;
+            }
+        }
+    }
+
+    private static List<Resultado> aguardar(Future<List<Resultado>> futuro) throws InterruptedException {
+        try {
+            return futuro.get();
+        } catch (ExecutionException e) {
+            List<Resultado> falha = new ArrayList<>();
+            falha.add(new Resultado("?", 0, 1, e.getCause().toString(), 0));
+            return falha;
+        }
+    }
+
+    private static void apagar(Path diretorio) throws IOException {
+        try (Stream<Path> caminhos = Files.walk(diretorio)) {
+            caminhos.sorted(Comparator.reverseOrder()).forEach(caminho -> caminho.toFile().delete());
+        }
+    }
+
+    private static final class Resultado {
+        private final String arquivo;
+        private final int testes;
+        private final int erros;
+        private final String mensagens;
+        private final long millis;
+
+        private Resultado(String arquivo, int testes, int erros, String mensagens, long millis) {
+            this.arquivo = arquivo;
+            this.testes = testes;
+            this.erros = erros;
+            this.mensagens = mensagens;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            if (erros == 0) {
+                return "Test file " + arquivo + ": " + testes + " tests OK (" + millis + " ms)";
+            }
+            return "Test file " + arquivo + ": " + erros + " errors (" + millis + " ms):\n" + mensagens;
+        }
+    }
+}
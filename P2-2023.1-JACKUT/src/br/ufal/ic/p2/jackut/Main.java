@@ -13,8 +13,8 @@ public class Main {
 
             String basePath = "P2-2023.1-JACKUT/tests/";
 
-            // Testes das user stories 1 a 9
-            for (int i = 1; i <= 9; i++) {
+            // Testes das user stories 1 a 10
+            for (int i = 1; i <= 10; i++) {
                 // Verifica se existe o primeiro arquivo de teste (usX_1.txt)
                 String testFile1 = basePath + "us" + i + "_1.txt";
                 if (new java.io.File(testFile1).exists()) {
@@ -0,0 +1,287 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import br.ufal.ic.p2.jackut.models.Facade;
+import br.ufal.ic.p2.jackut.persistence.ConfiguracaoArmazenamento;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Análises sobre um {@link GrafoCSR}: componentes conexos, distribuição de graus, triângulos de amizade
+ * e usuários mais seguidos. Os cálculos são paralelos (fork-join) e trabalham apenas sobre a cópia
+ * do grafo, portanto podem rodar enquanto a Facade continua em uso.
+ *
+ * Também pode ser executada como programa:
+ * {@code java br.ufal.ic.p2.jackut.analytics.AnaliseGrafo [diretorio] [texto|binario|chave-valor] [quantidadeMaisSeguidos]}
+ */
+public class AnaliseGrafo {
+    private final GrafoCSR grafo;
+    private final ForkJoinPool pool;
+
+    public AnaliseGrafo(GrafoCSR grafo) {
+        this(grafo, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param grafo Grafo a ser analisado
+     * @param pool Pool onde os cálculos paralelos são executados
+     */
+    public AnaliseGrafo(GrafoCSR grafo, ForkJoinPool pool) {
+        this.grafo = grafo;
+        this.pool = pool;
+    }
+
+    /**
+     * Executa todas as análises e monta o relatório.
+     * @param quantidadeMaisSeguidos Quantos usuários incluir no ranking de fãs
+     */
+    public RelatorioGrafo executar(int quantidadeMaisSeguidos) {
+        long inicio = System.nanoTime();
+
+        Map<Relacao, Integer> arestas = new EnumMap<>(Relacao.class);
+        for (Relacao relacao : Relacao.values()) {
+            arestas.put(relacao, grafo.getQuantidadeArestas(relacao));
+        }
+
+        int[] rotulosAmizade = componentesConexos(Relacao.AMIZADE);
+        int[] tamanhos = tamanhosComponentes(rotulosAmizade);
+        int componentesAmizade = 0;
+        int maiorComponente = 0;
+        for (int tamanho : tamanhos) {
+            if (tamanho > 0) componentesAmizade++;
+            maiorComponente = Math.max(maiorComponente, tamanho);
+        }
+        int componentesRede = contarComponentes(componentesConexos(Relacao.values()));
+
+        Map<String, long[]> distribuicoes = new LinkedHashMap<>();
+        distribuicoes.put("amigos", histograma(grausSaida(Relacao.AMIZADE)));
+        distribuicoes.put("idolos", histograma(grausSaida(Relacao.IDOLO)));
+        distribuicoes.put("fas", histograma(grausEntrada(Relacao.IDOLO)));
+        distribuicoes.put("inimigos", histograma(grausSaida(Relacao.INIMIZADE)));
+
+        long triangulos = contarTriangulos();
+        Map<String, Integer> maisSeguidos = maisSeguidos(quantidadeMaisSeguidos);
+
+        return new RelatorioGrafo(grafo.getQuantidadeUsuarios(), arestas, componentesAmizade, maiorComponente,
+                componentesRede, triangulos, distribuicoes, maisSeguidos, (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    /**
+     * Executa as análises em uma thread do pool e devolve o relatório quando terminar.
+     */
+    public CompletableFuture<RelatorioGrafo> executarEmSegundoPlano(int quantidadeMaisSeguidos) {
+        return CompletableFuture.supplyAsync(() -> executar(quantidadeMaisSeguidos), pool);
+    }
+
+    /**
+     * Componentes conexos tratando as relações como não dirigidas (union-find sem travas, arestas em paralelo).
+     * @param relacoes Relações consideradas
+     * @return para cada usuário, o menor id do seu componente
+     */
+    public int[] componentesConexos(Relacao... relacoes) {
+        int n = grafo.getQuantidadeUsuarios();
+        AtomicIntegerArray pai = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            pai.set(i, i);
+        }
+
+        for (Relacao relacao : relacoes) {
+            int[] inicios = grafo.inicios(relacao);
+            int[] destinos = grafo.destinos(relacao);
+            paralelo(() -> IntStream.range(0, n).parallel().forEach(u -> {
+                for (int k = inicios[u]; k < inicios[u + 1]; k++) {
+                    unir(pai, u, destinos[k]);
+                }
+            }));
+        }
+
+        int[] rotulos = new int[n];
+        paralelo(() -> IntStream.range(0, n).parallel().forEach(u -> rotulos[u] = raiz(pai, u)));
+        return rotulos;
+    }
+
+    private static int raiz(AtomicIntegerArray pai, int u) {
+        while (true) {
+            int p = pai.get(u);
+            if (p == u) return u;
+            int avo = pai.get(p);
+            if (p != avo) {
+                // Encurta o caminho pela metade; se outra thread mudou antes, tudo bem
+                pai.compareAndSet(u, p, avo);
+            }
+            u = p;
+        }
+    }
+
+    private static void unir(AtomicIntegerArray pai, int u, int v) {
+        while (true) {
+            int ru = raiz(pai, u);
+            int rv = raiz(pai, v);
+            if (ru == rv) return;
+            // A raiz de maior id passa a apontar para a de menor id, assim não se formam ciclos
+            if (ru > rv) {
+                if (pai.compareAndSet(ru, ru, rv)) return;
+            } else {
+                if (pai.compareAndSet(rv, rv, ru)) return;
+            }
+        }
+    }
+
+    private static int contarComponentes(int[] rotulos) {
+        int componentes = 0;
+        for (int u = 0; u < rotulos.length; u++) {
+            if (rotulos[u] == u) componentes++;
+        }
+        return componentes;
+    }
+
+    private static int[] tamanhosComponentes(int[] rotulos) {
+        int[] tamanhos = new int[rotulos.length];
+        for (int rotulo : rotulos) {
+            tamanhos[rotulo]++;
+        }
+        return tamanhos;
+    }
+
+    public int[] grausSaida(Relacao relacao) {
+        int n = grafo.getQuantidadeUsuarios();
+        int[] graus = new int[n];
+        paralelo(() -> IntStream.range(0, n).parallel().forEach(u -> graus[u] = grafo.grau(relacao, u)));
+        return graus;
+    }
+
+    public int[] grausEntrada(Relacao relacao) {
+        int n = grafo.getQuantidadeUsuarios();
+        int[] destinos = grafo.destinos(relacao);
+        AtomicIntegerArray contagem = new AtomicIntegerArray(n);
+        paralelo(() -> IntStream.range(0, destinos.length).parallel().forEach(k -> contagem.incrementAndGet(destinos[k])));
+        int[] graus = new int[n];
+        for (int u = 0; u < n; u++) {
+            graus[u] = contagem.get(u);
+        }
+        return graus;
+    }
+
+    /**
+     * @return posição i = quantidade de usuários com grau i
+     */
+    public long[] histograma(int[] graus) {
+        int maximo = 0;
+        for (int grau : graus) {
+            maximo = Math.max(maximo, grau);
+        }
+        int tamanho = maximo + 1;
+        return paralelo(() -> IntStream.of(graus).parallel().collect(
+                () -> new long[tamanho],
+                (h, grau) -> h[grau]++,
+                (a, b) -> {
+                    for (int i = 0; i < a.length; i++) a[i] += b[i];
+                }));
+    }
+
+    /**
+     * Conta os trios de usuários em que todos são amigos entre si. Cada triângulo u < v < w é contado uma vez,
+     * pela interseção das listas ordenadas de amigos de u e v.
+     */
+    public long contarTriangulos() {
+        int n = grafo.getQuantidadeUsuarios();
+        int[] inicios = grafo.inicios(Relacao.AMIZADE);
+        int[] destinos = grafo.destinos(Relacao.AMIZADE);
+        return paralelo(() -> IntStream.range(0, n).parallel().mapToLong(u -> {
+            long total = 0;
+            for (int k = inicios[u]; k < inicios[u + 1]; k++) {
+                int v = destinos[k];
+                if (v <= u) continue;
+                // Interseção de N(u) e N(v) restrita a w > v
+                int i = k + 1;
+                int j = inicios[v];
+                int fimU = inicios[u + 1];
+                int fimV = inicios[v + 1];
+                while (i < fimU && j < fimV) {
+                    int a = destinos[i];
+                    int b = destinos[j];
+                    if (a < b) {
+                        i++;
+                    } else if (a > b) {
+                        j++;
+                    } else {
+                        if (a > v) total++;
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return total;
+        }).sum());
+    }
+
+    /**
+     * @param quantidade Tamanho do ranking
+     * @return logins com mais fãs e a quantidade de fãs de cada um, em ordem decrescente
+     */
+    public Map<String, Integer> maisSeguidos(int quantidade) {
+        int[] fas = grausEntrada(Relacao.IDOLO);
+        PriorityQueue<Integer> menores = new PriorityQueue<>((a, b) ->
+                fas[a] != fas[b] ? Integer.compare(fas[a], fas[b]) : Integer.compare(b, a));
+        for (int u = 0; u < fas.length && quantidade > 0; u++) {
+            if (fas[u] == 0) continue;
+            menores.add(u);
+            if (menores.size() > quantidade) {
+                menores.poll();
+            }
+        }
+
+        Integer[] ordem = menores.toArray(new Integer[0]);
+        Arrays.sort(ordem, menores.comparator().reversed());
+        Map<String, Integer> ranking = new LinkedHashMap<>();
+        for (int u : ordem) {
+            ranking.put(grafo.getLogin(u), fas[u]);
+        }
+        return ranking;
+    }
+
+    private void paralelo(Runnable tarefa) {
+        paralelo(() -> {
+            tarefa.run();
+            return null;
+        });
+    }
+
+    // Roda no pool configurado: streams paralelos usam o pool em que foram iniciados
+    private <T> T paralelo(Supplier<T> tarefa) {
+        if (ForkJoinTask.getPool() == pool) {
+            return tarefa.get();
+        }
+        try {
+            return pool.submit(tarefa::get).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Análise interrompida", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Erro na análise do grafo", e.getCause());
+        }
+    }
+
+    public static void main(String[] args) {
+        Path diretorio = Paths.get(args.length > 0 ? args[0] : "database");
+        String formato = args.length > 1 ? args[1] : "texto";
+        int quantidade = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        ConfiguracaoArmazenamento configuracao = ConfiguracaoArmazenamento.diretorio(diretorio)
+                .comFormato(ConfiguracaoArmazenamento.Formato.porNome(formato));
+        GrafoCSR grafo = new Facade(configuracao).capturarGrafo();
+        System.out.println(new AnaliseGrafo(grafo).executar(quantidade));
+    }
+}
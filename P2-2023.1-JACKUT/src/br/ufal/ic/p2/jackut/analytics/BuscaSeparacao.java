@@ -0,0 +1,150 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distância de amizade ("graus de separação") entre dois usuários, por busca em largura bidirecional
+ * sobre os conjuntos de amigos atuais.
+ *
+ * A cada passo expande-se a menor das duas fronteiras; os visitados de cada lado ficam em um BitSet
+ * indexado pelo id do {@link IndiceLogins}. O caminho evita inimizades: não passa por uma amizade em
+ * que um dos lados marcou o outro como inimigo, nem por usuários que sejam inimigos da origem ou do destino.
+ */
+public class BuscaSeparacao {
+    public static final int PROFUNDIDADE_MAXIMA_PADRAO = 6;
+
+    private final Map<String, Usuario> usuarios;
+    private final IndiceLogins indice;
+
+    public BuscaSeparacao(Map<String, Usuario> usuarios, IndiceLogins indice) {
+        this.usuarios = usuarios;
+        this.indice = indice;
+    }
+
+    /**
+     * @param origem Login de partida (deve existir)
+     * @param destino Login de chegada (deve existir)
+     * @param profundidadeMaxima Maior distância considerada
+     * @return quantidade de amizades entre os dois, ou -1 se não houver caminho dentro do limite
+     */
+    public int distancia(String origem, String destino, int profundidadeMaxima) {
+        List<String> caminho = buscar(origem, destino, profundidadeMaxima, false);
+        return caminho == null ? -1 : caminho.size() - 1;
+    }
+
+    /**
+     * @return logins do caminho mais curto, da origem ao destino, ou lista vazia se não houver caminho dentro do limite
+     */
+    public List<String> caminho(String origem, String destino, int profundidadeMaxima) {
+        List<String> caminho = buscar(origem, destino, profundidadeMaxima, true);
+        return caminho == null ? new ArrayList<>() : caminho;
+    }
+
+    // Com guardarCaminho = false devolve apenas uma lista com o tamanho certo (distância + 1)
+    private List<String> buscar(String origem, String destino, int profundidadeMaxima, boolean guardarCaminho) {
+        if (origem.equals(destino)) {
+            return new ArrayList<>(Collections.singletonList(origem));
+        }
+        Usuario usuarioOrigem = usuarios.get(origem);
+        Usuario usuarioDestino = usuarios.get(destino);
+        if (usuarioOrigem == null || usuarioDestino == null) {
+            return null;
+        }
+        int idOrigem = indice.registrar(origem);
+        int idDestino = indice.registrar(destino);
+        if (usuarioOrigem.ehInimigo(destino) || usuarioDestino.ehInimigo(origem)) {
+            return null;
+        }
+
+        Lado ladoOrigem = new Lado(idOrigem, guardarCaminho);
+        Lado ladoDestino = new Lado(idDestino, guardarCaminho);
+
+        for (int profundidade = 0; profundidade < profundidadeMaxima; profundidade++) {
+            if (ladoOrigem.fronteira.isEmpty() || ladoDestino.fronteira.isEmpty()) {
+                return null;
+            }
+            boolean expandirOrigem = ladoOrigem.fronteira.size() <= ladoDestino.fronteira.size();
+            Lado atual = expandirOrigem ? ladoOrigem : ladoDestino;
+            Lado outro = expandirOrigem ? ladoDestino : ladoOrigem;
+
+            int[] encontro = expandir(atual, outro, usuarioOrigem, usuarioDestino);
+            if (encontro != null) {
+                int distancia = profundidade + 1;
+                if (!guardarCaminho) {
+                    return Collections.nCopies(distancia + 1, null);
+                }
+                int idOrigemEncontro = expandirOrigem ? encontro[0] : encontro[1];
+                int idDestinoEncontro = expandirOrigem ? encontro[1] : encontro[0];
+                return montarCaminho(ladoOrigem, idOrigemEncontro, ladoDestino, idDestinoEncontro);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Expande um nível do lado atual.
+     * @return {u, v} se a aresta u (lado atual) - v (outro lado) ligou as duas buscas, ou null
+     */
+    private int[] expandir(Lado atual, Lado outro, Usuario usuarioOrigem, Usuario usuarioDestino) {
+        List<Integer> proxima = new ArrayList<>();
+        for (int id : atual.fronteira) {
+            Usuario usuario = usuarios.get(indice.getLogin(id));
+            if (usuario == null) continue;
+
+            for (String loginAmigo : usuario.getAmigos()) {
+                int idAmigo = indice.getId(loginAmigo);
+                if (idAmigo >= 0 && atual.visitados.get(idAmigo)) continue;
+                if (usuario.ehInimigo(loginAmigo)) continue;
+                if (usuarioOrigem.ehInimigo(loginAmigo) || usuarioDestino.ehInimigo(loginAmigo)) continue;
+
+                Usuario amigo = usuarios.get(loginAmigo);
+                if (amigo == null || amigo.ehInimigo(usuario.getLogin())) continue;
+                if (idAmigo < 0) {
+                    idAmigo = indice.registrar(loginAmigo);
+                }
+
+                if (outro.visitados.get(idAmigo)) {
+                    return new int[]{id, idAmigo};
+                }
+                atual.visitados.set(idAmigo);
+                if (atual.pais != null) {
+                    atual.pais.put(idAmigo, id);
+                }
+                proxima.add(idAmigo);
+            }
+        }
+        atual.fronteira = proxima;
+        return null;
+    }
+
+    private List<String> montarCaminho(Lado ladoOrigem, int idOrigemEncontro, Lado ladoDestino, int idDestinoEncontro) {
+        List<String> caminho = new ArrayList<>();
+        for (Integer id = idOrigemEncontro; id != null; id = ladoOrigem.pais.get(id)) {
+            caminho.add(indice.getLogin(id));
+        }
+        Collections.reverse(caminho);
+        for (Integer id = idDestinoEncontro; id != null; id = ladoDestino.pais.get(id)) {
+            caminho.add(indice.getLogin(id));
+        }
+        return caminho;
+    }
+
+    private static final class Lado {
+        private final BitSet visitados = new BitSet();
+        private final Map<Integer, Integer> pais;
+        private List<Integer> fronteira = new ArrayList<>();
+
+        private Lado(int inicio, boolean guardarCaminho) {
+            visitados.set(inicio);
+            fronteira.add(inicio);
+            pais = guardarCaminho ? new HashMap<>() : null;
+        }
+    }
+}
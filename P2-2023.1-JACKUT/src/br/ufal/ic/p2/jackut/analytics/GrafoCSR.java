@@ -0,0 +1,132 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cópia imutável do grafo de relacionamentos em formato CSR (compressed sparse row).
+ *
+ * Cada usuário recebe um id (a posição do login em ordem alfabética). Para cada relação, os vizinhos
+ * do usuário i ficam em {@code destinos[inicio[i] .. inicio[i + 1])}, ordenados por id.
+ * Depois de capturado, o grafo não depende mais dos objetos Usuario e pode ser analisado em
+ * outra thread enquanto a Facade continua sendo alterada.
+ */
+public final class GrafoCSR {
+    private final String[] logins;
+    private final Map<Relacao, int[]> inicios = new EnumMap<>(Relacao.class);
+    private final Map<Relacao, int[]> destinos = new EnumMap<>(Relacao.class);
+
+    private GrafoCSR(String[] logins) {
+        this.logins = logins;
+    }
+
+    /**
+     * Captura o grafo a partir dos usuários. Deve ser chamado sem alterações concorrentes nos usuários;
+     * o custo é proporcional a usuários + arestas. Relações com logins inexistentes são ignoradas.
+     * @param usuarios Usuários do sistema
+     * @return o grafo capturado
+     */
+    public static GrafoCSR capturar(Collection<Usuario> usuarios) {
+        Usuario[] ordenados = usuarios.toArray(new Usuario[0]);
+        Arrays.sort(ordenados, (a, b) -> a.getLogin().compareTo(b.getLogin()));
+
+        String[] logins = new String[ordenados.length];
+        Map<String, Integer> ids = new HashMap<>(ordenados.length * 2);
+        for (int i = 0; i < ordenados.length; i++) {
+            logins[i] = ordenados[i].getLogin();
+            ids.put(logins[i], i);
+        }
+
+        GrafoCSR grafo = new GrafoCSR(logins);
+        for (Relacao relacao : Relacao.values()) {
+            grafo.montar(relacao, ordenados, ids);
+        }
+        return grafo;
+    }
+
+    private void montar(Relacao relacao, Usuario[] ordenados, Map<String, Integer> ids) {
+        int n = ordenados.length;
+        int[] inicio = new int[n + 1];
+        int[] linha = new int[16];
+        int[] saida = new int[Math.max(16, n)];
+        int total = 0;
+
+        for (int i = 0; i < n; i++) {
+            Set<String> vizinhos = vizinhos(ordenados[i], relacao);
+            if (linha.length < vizinhos.size()) {
+                linha = new int[Math.max(vizinhos.size(), linha.length * 2)];
+            }
+            int grau = 0;
+            for (String login : vizinhos) {
+                Integer id = ids.get(login);
+                if (id != null) {
+                    linha[grau++] = id;
+                }
+            }
+            Arrays.sort(linha, 0, grau);
+
+            if (saida.length < total + grau) {
+                saida = Arrays.copyOf(saida, Math.max(total + grau, saida.length * 2));
+            }
+            System.arraycopy(linha, 0, saida, total, grau);
+            total += grau;
+            inicio[i + 1] = total;
+        }
+
+        inicios.put(relacao, inicio);
+        destinos.put(relacao, Arrays.copyOf(saida, total));
+    }
+
+    private static Set<String> vizinhos(Usuario usuario, Relacao relacao) {
+        switch (relacao) {
+            case AMIZADE: return usuario.getAmigos();
+            case IDOLO: return usuario.getIdolos();
+            default: return usuario.getInimigos();
+        }
+    }
+
+    public int getQuantidadeUsuarios() {
+        return logins.length;
+    }
+
+    public String getLogin(int id) {
+        return logins[id];
+    }
+
+    /**
+     * @return id do login, ou um valor negativo se ele não estiver no grafo
+     */
+    public int getId(String login) {
+        return Arrays.binarySearch(logins, login);
+    }
+
+    public int getQuantidadeArestas(Relacao relacao) {
+        return destinos.get(relacao).length;
+    }
+
+    public int grau(Relacao relacao, int id) {
+        int[] inicio = inicios.get(relacao);
+        return inicio[id + 1] - inicio[id];
+    }
+
+    /**
+     * Vetor de offsets da relação; os vizinhos de i estão em {@link #destinos(Relacao)} de inicio[i] a inicio[i + 1].
+     * O vetor é compartilhado e não deve ser alterado.
+     */
+    public int[] inicios(Relacao relacao) {
+        return inicios.get(relacao);
+    }
+
+    /**
+     * Vetor de vizinhos da relação, concatenados por usuário. O vetor é compartilhado e não deve ser alterado.
+     */
+    public int[] destinos(Relacao relacao) {
+        return destinos.get(relacao);
+    }
+}
@@ -0,0 +1,159 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import java.util.Arrays;
+
+/**
+ * Contagem aproximada de elementos distintos (HyperLogLog).
+ *
+ * Usa 2^precisao registradores de um byte: com a precisão padrão (14), 16 KB e erro padrão de cerca
+ * de 0,8%, qualquer que seja o número de elementos. Dois esboços com a mesma precisão podem ser
+ * mesclados, e o resultado é o esboço da união; isso permite contar distintos entre várias fontes
+ * (ex.: fãs únicos de vários ídolos, ou de várias Facades) sem juntar os conjuntos.
+ */
+public class HyperLogLog {
+    public static final int PRECISAO_PADRAO = 14;
+    private static final int PRECISAO_MINIMA = 4;
+    private static final int PRECISAO_MAXIMA = 18;
+
+    private final int precisao;
+    private final byte[] registradores;
+
+    public HyperLogLog() {
+        this(PRECISAO_PADRAO);
+    }
+
+    /**
+     * @param precisao Entre 4 e 18; cada unidade a mais dobra a memória e divide o erro por √2
+     */
+    public HyperLogLog(int precisao) {
+        if (precisao < PRECISAO_MINIMA || precisao > PRECISAO_MAXIMA) {
+            throw new IllegalArgumentException("Precisão deve estar entre " + PRECISAO_MINIMA + " e " + PRECISAO_MAXIMA + ".");
+        }
+        this.precisao = precisao;
+        this.registradores = new byte[1 << precisao];
+    }
+
+    public void adicionar(String elemento) {
+        long hash = hash(elemento);
+        int indice = (int) (hash >>> (64 - precisao));
+        // Bit sentinela para o posto nunca passar de 64 - precisao + 1
+        long resto = (hash << precisao) | (1L << (precisao - 1));
+        byte posto = (byte) (Long.numberOfLeadingZeros(resto) + 1);
+        if (posto > registradores[indice]) {
+            registradores[indice] = posto;
+        }
+    }
+
+    public void adicionarTodos(Iterable<String> elementos) {
+        for (String elemento : elementos) {
+            adicionar(elemento);
+        }
+    }
+
+    /**
+     * Incorpora outro esboço: depois disso, este conta a união dos dois.
+     * @throws IllegalArgumentException se as precisões forem diferentes
+     */
+    public void mesclar(HyperLogLog outro) {
+        if (outro.precisao != precisao) {
+            throw new IllegalArgumentException("Esboços com precisões diferentes não podem ser mesclados.");
+        }
+        for (int i = 0; i < registradores.length; i++) {
+            if (outro.registradores[i] > registradores[i]) {
+                registradores[i] = outro.registradores[i];
+            }
+        }
+    }
+
+    /**
+     * @return estimativa do número de elementos distintos adicionados
+     */
+    public long estimar() {
+        int m = registradores.length;
+        double soma = 0;
+        int zerados = 0;
+        for (byte registrador : registradores) {
+            soma += 1.0 / (1L << registrador);
+            if (registrador == 0) zerados++;
+        }
+        double estimativa = alfa(m) * m * m / soma;
+        // Poucos elementos: a contagem linear pelos registradores vazios é mais precisa
+        if (estimativa <= 2.5 * m && zerados > 0) {
+            estimativa = m * Math.log((double) m / zerados);
+        }
+        return Math.round(estimativa);
+    }
+
+    /**
+     * @return erro relativo padrão esperado para esta precisão
+     */
+    public double getErroPadrao() {
+        return 1.04 / Math.sqrt(registradores.length);
+    }
+
+    public int getPrecisao() {
+        return precisao;
+    }
+
+    /**
+     * @return o esboço serializado (precisão seguida dos registradores), para envio entre processos
+     */
+    public byte[] paraBytes() {
+        byte[] bytes = new byte[registradores.length + 1];
+        bytes[0] = (byte) precisao;
+        System.arraycopy(registradores, 0, bytes, 1, registradores.length);
+        return bytes;
+    }
+
+    /**
+     * @throws IllegalArgumentException se os bytes não vierem de {@link #paraBytes()}
+     */
+    public static HyperLogLog deBytes(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Esboço vazio.");
+        }
+        HyperLogLog esboco = new HyperLogLog(bytes[0]);
+        if (bytes.length != esboco.registradores.length + 1) {
+            throw new IllegalArgumentException("Tamanho de esboço inválido para a precisão " + bytes[0] + ".");
+        }
+        System.arraycopy(bytes, 1, esboco.registradores, 0, esboco.registradores.length);
+        return esboco;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HyperLogLog)) return false;
+        HyperLogLog outro = (HyperLogLog) o;
+        return precisao == outro.precisao && Arrays.equals(registradores, outro.registradores);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(registradores);
+    }
+
+    private static double alfa(int m) {
+        switch (m) {
+            case 16: return 0.673;
+            case 32: return 0.697;
+            case 64: return 0.709;
+            default: return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    // FNV-1a de 64 bits seguido da mistura final do MurmurHash3, para espalhar bem logins parecidos
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e85a3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,65 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numeração estável dos logins (login -> id inteiro), para que buscas possam marcar usuários em bitmaps.
+ * Os logins são numerados quando aparecem pela primeira vez, então carregar o índice não exige
+ * percorrer (e materializar) todos os usuários. Ids não são reaproveitados: a remoção de um usuário
+ * deixa um buraco, que só some com {@link #limpar()}.
+ */
+public class IndiceLogins {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> logins = new ArrayList<>();
+
+    /**
+     * @return o id do login, criando um novo se ele ainda não estiver no índice
+     */
+    public int registrar(String login) {
+        Integer id = ids.get(login);
+        if (id != null) {
+            return id;
+        }
+        int novo = logins.size();
+        logins.add(login);
+        ids.put(login, novo);
+        return novo;
+    }
+
+    public void remover(String login) {
+        Integer id = ids.remove(login);
+        if (id != null) {
+            logins.set(id, null);
+        }
+    }
+
+    /**
+     * @return o id do login, ou -1 se ele não estiver no índice
+     */
+    public int getId(String login) {
+        Integer id = ids.get(login);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return o login do id, ou null se o usuário foi removido
+     */
+    public String getLogin(int id) {
+        return logins.get(id);
+    }
+
+    /**
+     * @return maior id já atribuído + 1 (tamanho necessário para um bitmap de usuários)
+     */
+    public int getCapacidade() {
+        return logins.size();
+    }
+
+    public void limpar() {
+        ids.clear();
+        logins.clear();
+    }
+}
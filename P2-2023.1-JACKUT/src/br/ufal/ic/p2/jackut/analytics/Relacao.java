@@ -0,0 +1,10 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+/**
+ * Relações entre usuários capturadas no grafo. Todas são dirigidas a partir do usuário dono do conjunto.
+ */
+public enum Relacao {
+    AMIZADE,  // usuário -> amigo (a amizade aceita aparece nos dois sentidos)
+    IDOLO,    // fã -> ídolo; o grau de entrada é a quantidade de fãs
+    INIMIZADE // usuário -> inimigo
+}
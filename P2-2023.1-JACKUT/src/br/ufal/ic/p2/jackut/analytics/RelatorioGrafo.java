@@ -0,0 +1,93 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resultado de uma {@link AnaliseGrafo}. Imutável.
+ */
+public final class RelatorioGrafo {
+    private final int usuarios;
+    private final Map<Relacao, Integer> arestas;
+    private final int componentesAmizade;
+    private final int maiorComponenteAmizade;
+    private final int componentesRede;
+    private final long triangulosAmizade;
+    private final Map<String, long[]> distribuicoesGrau;
+    private final Map<String, Integer> maisSeguidos;
+    private final long duracaoMillis;
+
+    RelatorioGrafo(int usuarios, Map<Relacao, Integer> arestas, int componentesAmizade, int maiorComponenteAmizade,
+                   int componentesRede, long triangulosAmizade, Map<String, long[]> distribuicoesGrau,
+                   Map<String, Integer> maisSeguidos, long duracaoMillis) {
+        this.usuarios = usuarios;
+        this.arestas = Collections.unmodifiableMap(new EnumMap<>(arestas));
+        this.componentesAmizade = componentesAmizade;
+        this.maiorComponenteAmizade = maiorComponenteAmizade;
+        this.componentesRede = componentesRede;
+        this.triangulosAmizade = triangulosAmizade;
+        this.distribuicoesGrau = Collections.unmodifiableMap(new LinkedHashMap<>(distribuicoesGrau));
+        this.maisSeguidos = Collections.unmodifiableMap(new LinkedHashMap<>(maisSeguidos));
+        this.duracaoMillis = duracaoMillis;
+    }
+
+    public int getUsuarios() { return usuarios; }
+    public int getArestas(Relacao relacao) { return arestas.get(relacao); }
+
+    /**
+     * @return quantidade de componentes conexos considerando só as amizades (usuários isolados contam como componente)
+     */
+    public int getComponentesAmizade() { return componentesAmizade; }
+    public int getMaiorComponenteAmizade() { return maiorComponenteAmizade; }
+
+    /**
+     * @return quantidade de componentes fracamente conexos considerando todas as relações
+     */
+    public int getComponentesRede() { return componentesRede; }
+
+    /**
+     * @return quantidade de triângulos de amigos mútuos (cada trio contado uma vez)
+     */
+    public long getTriangulosAmizade() { return triangulosAmizade; }
+
+    /**
+     * @return histogramas de grau por nome ("amigos", "idolos", "fas", "inimigos"); posição i = usuários com grau i
+     */
+    public Map<String, long[]> getDistribuicoesGrau() { return distribuicoesGrau; }
+
+    /**
+     * @return logins com mais fãs, do mais seguido para o menos, com a quantidade de fãs
+     */
+    public Map<String, Integer> getMaisSeguidos() { return maisSeguidos; }
+    public long getDuracaoMillis() { return duracaoMillis; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("usuarios: ").append(usuarios).append('\n');
+        for (Map.Entry<Relacao, Integer> entrada : arestas.entrySet()) {
+            sb.append("arestas ").append(entrada.getKey().name().toLowerCase()).append(": ").append(entrada.getValue()).append('\n');
+        }
+        sb.append("componentes (amizade): ").append(componentesAmizade)
+                .append(", maior: ").append(maiorComponenteAmizade).append('\n');
+        sb.append("componentes (todas as relacoes): ").append(componentesRede).append('\n');
+        sb.append("triangulos de amizade: ").append(triangulosAmizade).append('\n');
+        for (Map.Entry<String, long[]> entrada : distribuicoesGrau.entrySet()) {
+            sb.append("grau ").append(entrada.getKey()).append(": ");
+            long[] histograma = entrada.getValue();
+            boolean primeiro = true;
+            for (int grau = 0; grau < histograma.length; grau++) {
+                if (histograma[grau] == 0) continue;
+                if (!primeiro) sb.append(", ");
+                sb.append(grau).append('=').append(histograma[grau]);
+                primeiro = false;
+            }
+            sb.append('\n');
+        }
+        sb.append("mais seguidos: ").append(maisSeguidos).append('\n');
+        sb.append("duracao: ").append(duracaoMillis).append(" ms");
+        return sb.toString();
+    }
+}
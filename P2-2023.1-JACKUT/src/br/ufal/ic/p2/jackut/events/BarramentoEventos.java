@@ -0,0 +1,308 @@
+package br.ufal.ic.p2.jackut.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Barramento de eventos em memória sobre um buffer circular limitado e sem travas.
+ *
+ * Cada posição do buffer tem um número de sequência: o produtor reserva a próxima posição com um CAS
+ * na cauda e publica o evento atualizando a sequência da posição; a thread consumidora lê as posições
+ * em ordem, entrega os eventos em lotes aos consumidores e libera as posições para a próxima volta.
+ * Com o buffer cheio, quem publica espera (contrapressão) em vez de descartar eventos.
+ * Enquanto não houver consumidores, publicar não custa nada.
+ * Um consumidor que lança exceção perde o lote, mas não impede a entrega aos demais; as falhas são
+ * contadas por consumidor e repassadas ao tratador informado em {@link #assinar(ConsumidorEventos, Consumer)}.
+ * O dado privado dos eventos (ver {@link Evento#getPrivado()}) só é entregue a quem assina com
+ * {@link #assinarComDadosPrivados}; os demais recebem cópias sem ele.
+ */
+public class BarramentoEventos {
+    public static final int CAPACIDADE_PADRAO = 8192;
+    public static final int TAMANHO_LOTE_PADRAO = 256;
+
+    private final int mascara;
+    private final int tamanhoLote;
+    private final AtomicReferenceArray<Evento> eventos;
+    private final AtomicLongArray sequencias;
+    private final AtomicLong cauda = new AtomicLong();
+    private final AtomicLong publicadosComEspera = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final List<Assinatura> consumidores = new CopyOnWriteArrayList<>();
+
+    private volatile long cabeca = 0;
+    private volatile boolean consumidorDormindo = false;
+    private volatile boolean ativo = true;
+    private Thread consumidora;
+
+    public BarramentoEventos() {
+        this(CAPACIDADE_PADRAO, TAMANHO_LOTE_PADRAO);
+    }
+
+    /**
+     * @param capacidade Quantidade de posições do buffer (arredondada para potência de 2)
+     * @param tamanhoLote Quantidade máxima de eventos entregues por chamada aos consumidores
+     */
+    public BarramentoEventos(int capacidade, int tamanhoLote) {
+        int tamanho = Integer.highestOneBit(Math.max(2, capacidade - 1)) << 1;
+        this.mascara = tamanho - 1;
+        this.tamanhoLote = Math.max(1, tamanhoLote);
+        this.eventos = new AtomicReferenceArray<>(tamanho);
+        this.sequencias = new AtomicLongArray(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            sequencias.set(i, i);
+        }
+    }
+
+    /**
+     * Registra um consumidor cujas falhas são apenas contadas (ver {@link #getFalhas(ConsumidorEventos)}).
+     * @param consumidor Quem vai receber os próximos eventos
+     */
+    public void assinar(ConsumidorEventos consumidor) {
+        assinar(consumidor, erro -> { });
+    }
+
+    /**
+     * Registra um consumidor. A thread consumidora é criada no primeiro registro.
+     * @param consumidor Quem vai receber os próximos eventos
+     * @param aoFalhar Chamado, na thread consumidora, com a exceção de cada lote que o consumidor não processou
+     */
+    public void assinar(ConsumidorEventos consumidor, Consumer<RuntimeException> aoFalhar) {
+        registrar(new Assinatura(consumidor, aoFalhar, false));
+    }
+
+    /**
+     * Registra um consumidor que recebe também o dado privado dos eventos, como a senha de um usuário
+     * criado. Serve para quem precisa reaplicar os eventos (a replicação), não para registros e auditoria.
+     * @see #assinar(ConsumidorEventos, Consumer)
+     */
+    public void assinarComDadosPrivados(ConsumidorEventos consumidor, Consumer<RuntimeException> aoFalhar) {
+        registrar(new Assinatura(consumidor, aoFalhar, true));
+    }
+
+    private synchronized void registrar(Assinatura assinatura) {
+        consumidores.add(assinatura);
+        if (consumidora == null && ativo) {
+            consumidora = new Thread(this::consumir, "jackut-eventos");
+            consumidora.setDaemon(true);
+            consumidora.start();
+        }
+    }
+
+    public void cancelarAssinatura(ConsumidorEventos consumidor) {
+        consumidores.removeIf(assinatura -> assinatura.consumidor == consumidor);
+    }
+
+    /**
+     * @return true se há alguém interessado nos eventos
+     */
+    public boolean temAssinantes() {
+        return !consumidores.isEmpty();
+    }
+
+    /**
+     * Publica um evento. Bloqueia (girando e depois dormindo) enquanto o buffer estiver cheio.
+     * @return número de sequência do evento, ou -1 se não havia consumidores
+     */
+    public long publicar(TipoEvento tipo, String login, String alvo, String conteudo) {
+        return publicar(tipo, login, alvo, conteudo, null);
+    }
+
+    /**
+     * @param privado Dado sensível que só os consumidores de {@link #assinarComDadosPrivados} recebem
+     * @see #publicar(TipoEvento, String, String, String)
+     */
+    public long publicar(TipoEvento tipo, String login, String alvo, String conteudo, String privado) {
+        if (consumidores.isEmpty() || !ativo) return -1;
+        return publicarEm(System.currentTimeMillis(), tipo, login, alvo, conteudo, privado);
+    }
+
+    /**
+     * Publica com o instante que a Facade gravou na mutação (chegada de um recado, envio de um convite),
+     * para quem reaplica o evento gravar o mesmo instante.
+     * @param instante Milissegundos desde a época
+     * @see #publicar(TipoEvento, String, String, String)
+     */
+    public long publicarEm(long instante, TipoEvento tipo, String login, String alvo, String conteudo) {
+        return publicarEm(instante, tipo, login, alvo, conteudo, null);
+    }
+
+    private long publicarEm(long instante, TipoEvento tipo, String login, String alvo, String conteudo, String privado) {
+        if (consumidores.isEmpty() || !ativo) return -1;
+
+        int tentativas = 0;
+        while (true) {
+            long posicao = cauda.get();
+            int indice = (int) (posicao & mascara);
+            long diferenca = sequencias.get(indice) - posicao;
+            if (diferenca == 0) {
+                if (cauda.compareAndSet(posicao, posicao + 1)) {
+                    eventos.set(indice, new Evento(posicao + 1, instante, tipo, login, alvo, conteudo, privado));
+                    sequencias.set(indice, posicao + 1);
+                    if (consumidorDormindo) {
+                        LockSupport.unpark(consumidora);
+                    }
+                    return posicao + 1;
+                }
+            } else if (diferenca < 0) {
+                // Buffer cheio: o consumidor ainda não liberou esta posição
+                if (tentativas++ == 0) publicadosComEspera.incrementAndGet();
+                esperar(tentativas);
+            }
+        }
+    }
+
+    /**
+     * @return quantidade de publicações que precisaram esperar por espaço no buffer
+     */
+    public long getPublicacoesComEspera() {
+        return publicadosComEspera.get();
+    }
+
+    /**
+     * @return quantidade de lotes que algum consumidor não conseguiu processar, desde a criação do barramento
+     */
+    public long getFalhas() {
+        return falhas.get();
+    }
+
+    /**
+     * @param consumidor Consumidor assinado
+     * @return quantidade de lotes que o consumidor não conseguiu processar, ou 0 se ele não estiver assinado
+     */
+    public long getFalhas(ConsumidorEventos consumidor) {
+        long total = 0;
+        for (Assinatura assinatura : consumidores) {
+            if (assinatura.consumidor == consumidor) total += assinatura.falhas.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return quantidade de eventos publicados e ainda não entregues
+     */
+    public long getPendentes() {
+        return cauda.get() - cabeca;
+    }
+
+    /**
+     * Espera até que todos os eventos já publicados tenham sido entregues.
+     */
+    public void aguardarEntrega() {
+        long alvo = cauda.get();
+        int tentativas = 0;
+        while (cabeca < alvo && consumidora != null && consumidora.isAlive()) {
+            LockSupport.unpark(consumidora);
+            esperar(++tentativas);
+        }
+    }
+
+    /**
+     * Entrega o que falta e encerra a thread consumidora.
+     */
+    public void fechar() {
+        aguardarEntrega();
+        ativo = false;
+        Thread thread;
+        synchronized (this) {
+            thread = consumidora;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void consumir() {
+        List<Evento> lote = new ArrayList<>(tamanhoLote);
+        long posicao = cabeca;
+        while (ativo || posicao < cauda.get()) {
+            while (lote.size() < tamanhoLote) {
+                int indice = (int) (posicao & mascara);
+                if (sequencias.get(indice) != posicao + 1) break;
+                lote.add(eventos.get(indice));
+                eventos.set(indice, null);
+                sequencias.set(indice, posicao + mascara + 1);
+                posicao++;
+            }
+
+            if (lote.isEmpty()) {
+                consumidorDormindo = true;
+                if (sequencias.get((int) (posicao & mascara)) != posicao + 1 && ativo) {
+                    LockSupport.parkNanos(this, 1_000_000L);
+                }
+                consumidorDormindo = false;
+                continue;
+            }
+
+            List<Evento> lotePublico = null;
+            for (Assinatura assinatura : consumidores) {
+                try {
+                    if (assinatura.recebePrivados) {
+                        assinatura.consumidor.consumir(lote);
+                    } else {
+                        if (lotePublico == null) lotePublico = semPrivados(lote);
+                        assinatura.consumidor.consumir(lotePublico);
+                    }
+                } catch (RuntimeException e) {
+                    // Um consumidor com defeito não pode travar os demais
+                    assinatura.falhas.incrementAndGet();
+                    falhas.incrementAndGet();
+                    try {
+                        assinatura.aoFalhar.accept(e);
+                    } catch (RuntimeException ignorada) {
+                        // Nem o tratador
+                    }
+                }
+            }
+            lote.clear();
+            cabeca = posicao;
+        }
+    }
+
+    // O próprio lote quando nenhum evento tem dado privado, que é o caso comum
+    private static List<Evento> semPrivados(List<Evento> lote) {
+        for (int i = 0; i < lote.size(); i++) {
+            if (lote.get(i).getPrivado() != null) {
+                List<Evento> copia = new ArrayList<>(lote.size());
+                for (Evento evento : lote) {
+                    copia.add(evento.semPrivado());
+                }
+                return copia;
+            }
+        }
+        return lote;
+    }
+
+    private static final class Assinatura {
+        private final ConsumidorEventos consumidor;
+        private final Consumer<RuntimeException> aoFalhar;
+        private final boolean recebePrivados;
+        private final AtomicLong falhas = new AtomicLong();
+
+        private Assinatura(ConsumidorEventos consumidor, Consumer<RuntimeException> aoFalhar, boolean recebePrivados) {
+            this.consumidor = consumidor;
+            this.aoFalhar = aoFalhar;
+            this.recebePrivados = recebePrivados;
+        }
+    }
+
+    private static void esperar(int tentativas) {
+        if (tentativas < 100) {
+            Thread.onSpinWait();
+        } else if (tentativas < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000L);
+        }
+    }
+}
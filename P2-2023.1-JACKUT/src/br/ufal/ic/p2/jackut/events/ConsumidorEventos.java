@@ -0,0 +1,12 @@
+package br.ufal.ic.p2.jackut.events;
+
+import java.util.List;
+
+/**
+ * Recebe os eventos do barramento em lotes, na ordem em que foram publicados.
+ * É chamado sempre pela thread consumidora do barramento.
+ */
+@FunctionalInterface
+public interface ConsumidorEventos {
+    void consumir(List<Evento> lote);
+}
@@ -0,0 +1,65 @@
+package br.ufal.ic.p2.jackut.events;
+
+/**
+ * Uma mutação ocorrida na Facade. Imutável.
+ */
+public final class Evento {
+    private final long sequencia;
+    private final long instante;
+    private final TipoEvento tipo;
+    private final String login;
+    private final String alvo;
+    private final String conteudo;
+    private final String privado;
+
+    public Evento(long sequencia, long instante, TipoEvento tipo, String login, String alvo, String conteudo) {
+        this(sequencia, instante, tipo, login, alvo, conteudo, null);
+    }
+
+    /**
+     * @param privado Dado sensível necessário para reaplicar o evento (a senha, em USUARIO_CRIADO).
+     *                Só chega aos consumidores assinados com {@link BarramentoEventos#assinarComDadosPrivados}
+     *                e não faz parte de {@link #paraLinha()} nem de {@link #toString()}.
+     */
+    public Evento(long sequencia, long instante, TipoEvento tipo, String login, String alvo, String conteudo, String privado) {
+        this.sequencia = sequencia;
+        this.instante = instante;
+        this.tipo = tipo;
+        this.login = login;
+        this.alvo = alvo;
+        this.conteudo = conteudo;
+        this.privado = privado;
+    }
+
+    public long getSequencia() { return sequencia; }
+    public long getInstante() { return instante; }
+    public TipoEvento getTipo() { return tipo; }
+    public String getLogin() { return login; }
+    public String getAlvo() { return alvo; }
+    public String getConteudo() { return conteudo; }
+    public String getPrivado() { return privado; }
+
+    /**
+     * @return este evento sem o dado privado (o próprio evento, se ele não tiver um)
+     */
+    public Evento semPrivado() {
+        return privado == null ? this : new Evento(sequencia, instante, tipo, login, alvo, conteudo);
+    }
+
+    /**
+     * @return o evento em uma linha, com os campos separados por tabulação
+     */
+    public String paraLinha() {
+        return sequencia + "\t" + instante + "\t" + tipo + "\t" + escapar(login) + "\t" + escapar(alvo) + "\t" + escapar(conteudo);
+    }
+
+    private static String escapar(String texto) {
+        if (texto == null) return "";
+        return texto.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    @Override
+    public String toString() {
+        return paraLinha();
+    }
+}
@@ -0,0 +1,50 @@
+package br.ufal.ic.p2.jackut.events;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Consumidor que acrescenta os eventos a um arquivo local, um por linha (ver {@link Evento#paraLinha()}).
+ * O arquivo é descarregado ao fim de cada lote, então pode ser acompanhado com "tail -f".
+ */
+public class GravadorEventosArquivo implements ConsumidorEventos, Closeable {
+    private final BufferedWriter escritor;
+
+    /**
+     * @param arquivo Arquivo de destino; é criado se não existir e nunca é truncado
+     * @throws IOException se o arquivo não puder ser aberto
+     */
+    public GravadorEventosArquivo(Path arquivo) throws IOException {
+        Path pai = arquivo.toAbsolutePath().getParent();
+        if (pai != null) {
+            Files.createDirectories(pai);
+        }
+        this.escritor = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized void consumir(List<Evento> lote) {
+        try {
+            for (Evento evento : lote) {
+                escritor.write(evento.paraLinha());
+                escritor.newLine();
+            }
+            escritor.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao gravar eventos", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        escritor.close();
+    }
+}
@@ -0,0 +1,27 @@
+package br.ufal.ic.p2.jackut.events;
+
+/**
+ * Tipos de mutação publicados pela Facade.
+ * Para cada tipo: login = quem fez a ação, alvo = usuário ou comunidade afetada, conteudo = texto associado.
+ */
+public enum TipoEvento {
+    USUARIO_CRIADO,        // login = novo usuário, conteudo = nome, privado = senha
+    PERFIL_EDITADO,        // alvo = atributo, conteudo = valor
+    CONVITE_ENVIADO,       // alvo = convidado
+    AMIZADE_ACEITA,        // alvo = quem tinha enviado o convite
+    RECADO_ENVIADO,        // alvo = destinatário, conteudo = recado
+    RECADO_LIDO,           // conteudo = recado
+    COMUNIDADE_CRIADA,     // alvo = comunidade, conteudo = descrição
+    COMUNIDADE_ADICIONADA, // alvo = comunidade em que o usuário entrou
+    MENSAGEM_ENVIADA,      // alvo = comunidade, conteudo = mensagem
+    MENSAGEM_LIDA,         // conteudo = mensagem
+    IDOLO_ADICIONADO,      // alvo = ídolo
+    PAQUERA_ADICIONADA,    // alvo = paquera
+    PAQUERA_CORRESPONDIDA, // alvo = paquera, publicado quando o interesse é mútuo
+    INIMIGO_ADICIONADO,    // alvo = inimigo
+    USUARIO_REMOVIDO,      // login = usuário removido
+    SISTEMA_ZERADO,
+    CONVITES_CONFIGURADOS, // alvo = validade em ms, conteudo = máximo de pendentes
+    RECADOS_CONFIGURADOS,  // alvo = validade em ms, conteudo = máximo por usuário (o diretório é de cada Facade)
+    HUBS_CONFIGURADOS      // conteudo = limiar de fãs
+}
@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class AmizadeExistenteException extends JackutException {
     public AmizadeExistenteException() {
-        super("Usurio j est adicionado como amigo.");
+        super("Usuário já está adicionado como amigo.");
     }
 }
@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class AtributoNaoPreenchidoException extends JackutException {
     public AtributoNaoPreenchidoException() {
-        super("Atributo no preenchido.");
+        super("Atributo não preenchido.");
     }
 }
@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class AutoRelacionamentoException extends JackutException {
     public AutoRelacionamentoException() {
-        super("Usurio no pode adicionar a si mesmo como amigo.");
+        super("Usuário não pode adicionar a si mesmo como amigo.");
     }
 }
@@ -2,7 +2,7 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class ComunidadeExistenteException extends RuntimeException {
     public ComunidadeExistenteException() {
-        super("Comunidade com esse nome j existe.");
+        super("Comunidade com esse nome já existe.");
     }
 }
 
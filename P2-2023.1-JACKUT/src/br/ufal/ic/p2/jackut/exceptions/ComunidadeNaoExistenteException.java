@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class ComunidadeNaoExistenteException extends RuntimeException {
     public ComunidadeNaoExistenteException() {
-        super("Comunidade no existe.");
+        super("Comunidade não existe.");
     }
 }
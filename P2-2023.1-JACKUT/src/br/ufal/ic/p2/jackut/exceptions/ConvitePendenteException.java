@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class ConvitePendenteException extends JackutException {
     public ConvitePendenteException() {
-        super("Usurio j est adicionado como amigo, esperando aceitao do convite.");
+        super("Usuário já está adicionado como amigo, esperando aceitação do convite.");
     }
 }
@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class CredenciaisInvalidasException extends JackutException {
     public CredenciaisInvalidasException() {
-        super("Login ou senha invlidos.");
+        super("Login ou senha inválidos.");
     }
 }
@@ -0,0 +1,7 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+public class LimiteConvitesException extends JackutException {
+    public LimiteConvitesException() {
+        super("Limite de convites pendentes atingido.");
+    }
+}
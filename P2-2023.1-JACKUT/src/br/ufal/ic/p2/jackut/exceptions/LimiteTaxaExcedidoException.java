@@ -0,0 +1,7 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+public class LimiteTaxaExcedidoException extends JackutException {
+    public LimiteTaxaExcedidoException() {
+        super("Limite de operações excedido. Tente novamente mais tarde.");
+    }
+}
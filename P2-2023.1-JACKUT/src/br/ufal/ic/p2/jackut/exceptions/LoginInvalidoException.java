@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class LoginInvalidoException extends JackutException {
     public LoginInvalidoException() {
-        super("Login invlido.");
+        super("Login inválido.");
     }
 }
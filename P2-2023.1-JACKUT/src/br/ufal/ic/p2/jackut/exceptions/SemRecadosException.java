@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class SemRecadosException extends JackutException {
     public SemRecadosException() {
-        super("No h recados.");
+        super("Não há recados.");
     }
 }
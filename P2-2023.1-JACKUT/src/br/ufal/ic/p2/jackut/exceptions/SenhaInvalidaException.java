@@ -1,7 +1,7 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 public class SenhaInvalidaException extends JackutException {
-    public SenhaInvalidaException() {super("Senha invlida.");
+    public SenhaInvalidaException() {super("Senha inválida.");
     }
 }
 
@@ -1,6 +1,6 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioExistenteException extends JackutException {
-    public UsuarioExistenteException(String login) {super("Conta com esse nome j existe.");
+    public UsuarioExistenteException(String login) {super("Conta com esse nome já existe.");
     }
 }
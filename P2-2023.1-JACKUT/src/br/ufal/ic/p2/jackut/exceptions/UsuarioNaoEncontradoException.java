@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioNaoEncontradoException extends JackutException {
     public UsuarioNaoEncontradoException(String login) {
-        super("Usurio no cadastrado.");
+        super("Usuário não cadastrado.");
     }
 }
@@ -0,0 +1,208 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Guarda textos fora do heap, em segmentos de ByteBuffer diretos só de acréscimos, e devolve para cada
+ * texto um identificador {@code long} (segmento nos 32 bits altos, posição nos baixos). As filas de
+ * recados e de mensagens guardam só esses identificadores; o texto é decodificado na leitura.
+ *
+ * Cada registro é: referências (int), tamanho (int) e o texto em UTF-8. Uma mensagem de comunidade é
+ * gravada uma vez e retida por cada membro ({@link #reter}); o registro morre quando a última referência
+ * é liberada. Nada é movido de lugar: quando todos os registros de um segmento morrem, ele inteiro é
+ * reaproveitado do início (se for o segmento em uso) ou devolvido a um pequeno estoque de segmentos
+ * livres; os que sobram do estoque são soltos para o coletor, que libera a memória nativa.
+ *
+ * Cada Facade tem a sua arena, para a qual passam os textos de cada usuário que entra nela; {@link #AVULSA}
+ * fica com os dos usuários que ainda não entraram em nenhuma (recém-lidos de um armazenamento, cópias de
+ * importação e exportação). Todos os métodos são sincronizados, porque a thread de aquecimento do
+ * carregamento preguiçoso também configura usuários. Um identificador não pode ser usado depois de liberado.
+ */
+public final class ArenaTextos {
+    /**
+     * Arena dos usuários que não pertencem a nenhuma Facade.
+     */
+    public static final ArenaTextos AVULSA = new ArenaTextos(1 << 20, 4);
+
+    private static final int CABECALHO_REGISTRO = 8;
+
+    private final int tamanhoSegmento;
+    private final int maximoLivres;
+    private final List<Segmento> segmentos = new ArrayList<>();
+    private final ArrayDeque<Integer> idsLivres = new ArrayDeque<>();
+    private final ArrayDeque<Segmento> livres = new ArrayDeque<>();
+    private Segmento atual;
+    private long bytesVivos;
+    private long bytesReservados;
+    private long registrosVivos;
+    private boolean fechada;
+
+    /**
+     * @param tamanhoSegmento Bytes de cada segmento; textos maiores ganham um segmento só deles
+     * @param maximoLivres Quantos segmentos vazios ficam guardados para reaproveitamento
+     */
+    public ArenaTextos(int tamanhoSegmento, int maximoLivres) {
+        if (tamanhoSegmento < 64) {
+            throw new IllegalArgumentException("Segmento deve ter pelo menos 64 bytes.");
+        }
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.maximoLivres = maximoLivres;
+    }
+
+    /**
+     * Copia um texto para a arena, com uma referência.
+     * @param texto Texto a guardar
+     * @return identificador do texto, a ser liberado com {@link #liberar}
+     */
+    public long guardar(String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        int necessario = CABECALHO_REGISTRO + bytes.length;
+        synchronized (this) {
+            if (fechada) {
+                throw new IllegalStateException("Arena de textos fechada.");
+            }
+            if (atual == null || atual.dados.remaining() < necessario) {
+                Segmento anterior = atual;
+                atual = novoSegmento(necessario);
+                if (anterior != null && anterior.vivos == 0) reciclar(anterior);
+            }
+            int posicao = atual.dados.position();
+            atual.dados.putInt(1).putInt(bytes.length).put(bytes);
+            atual.vivos++;
+            registrosVivos++;
+            bytesVivos += necessario;
+            return ((long) atual.id << 32) | posicao;
+        }
+    }
+
+    /**
+     * Acrescenta uma referência a um texto já guardado.
+     * @param id Identificador devolvido por {@link #guardar}
+     */
+    public synchronized void reter(long id) {
+        Segmento segmento = segmentos.get((int) (id >>> 32));
+        int posicao = (int) id;
+        segmento.dados.putInt(posicao, segmento.dados.getInt(posicao) + 1);
+    }
+
+    /**
+     * Retira uma referência; sem referências, o espaço do texto volta para a arena quando o segmento esvaziar.
+     * @param id Identificador devolvido por {@link #guardar}
+     */
+    public synchronized void liberar(long id) {
+        // Filas descartadas depois do fechamento ainda liberam o que tinham
+        if (fechada) return;
+        Segmento segmento = segmentos.get((int) (id >>> 32));
+        int posicao = (int) id;
+        int referencias = segmento.dados.getInt(posicao) - 1;
+        segmento.dados.putInt(posicao, referencias);
+        if (referencias > 0) return;
+
+        segmento.vivos--;
+        registrosVivos--;
+        bytesVivos -= CABECALHO_REGISTRO + segmento.dados.getInt(posicao + 4);
+        if (segmento.vivos == 0) {
+            if (segmento == atual) {
+                segmento.dados.clear();
+            } else {
+                reciclar(segmento);
+            }
+        }
+    }
+
+    /**
+     * @param id Identificador devolvido por {@link #guardar}
+     * @return o texto, decodificado agora
+     */
+    public String ler(long id) {
+        byte[] bytes;
+        synchronized (this) {
+            Segmento segmento = segmentos.get((int) (id >>> 32));
+            int posicao = (int) id;
+            bytes = new byte[segmento.dados.getInt(posicao + 4)];
+            segmento.dados.get(posicao + CABECALHO_REGISTRO, bytes);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Solta todos os segmentos de uma vez, sem esperar as filas liberarem os seus textos; a memória nativa
+     * volta quando o coletor recolher os buffers. Depois disso a arena não guarda nem lê mais nada.
+     */
+    public synchronized void fechar() {
+        fechada = true;
+        segmentos.clear();
+        idsLivres.clear();
+        livres.clear();
+        atual = null;
+        bytesVivos = 0;
+        bytesReservados = 0;
+        registrosVivos = 0;
+    }
+
+    /**
+     * @return textos com pelo menos uma referência
+     */
+    public synchronized long getRegistrosVivos() {
+        return registrosVivos;
+    }
+
+    /**
+     * @return bytes ocupados pelos textos vivos, com cabeçalhos
+     */
+    public synchronized long getBytesVivos() {
+        return bytesVivos;
+    }
+
+    /**
+     * @return memória nativa dos segmentos em uso ou guardados para reaproveitamento
+     */
+    public synchronized long getBytesReservados() {
+        return bytesReservados;
+    }
+
+    private Segmento novoSegmento(int necessario) {
+        if (necessario <= tamanhoSegmento && !livres.isEmpty()) {
+            return livres.pop();
+        }
+        int capacidade = Math.max(necessario, tamanhoSegmento);
+        int id;
+        if (idsLivres.isEmpty()) {
+            id = segmentos.size();
+            segmentos.add(null);
+        } else {
+            id = idsLivres.pop();
+        }
+        Segmento segmento = new Segmento(id, ByteBuffer.allocateDirect(capacidade));
+        segmentos.set(id, segmento);
+        bytesReservados += capacidade;
+        return segmento;
+    }
+
+    // Segmento sem registros vivos e que não é o atual: vai para o estoque ou é solto
+    private void reciclar(Segmento segmento) {
+        segmento.dados.clear();
+        if (segmento.dados.capacity() == tamanhoSegmento && livres.size() < maximoLivres) {
+            livres.push(segmento);
+            return;
+        }
+        segmentos.set(segmento.id, null);
+        idsLivres.push(segmento.id);
+        bytesReservados -= segmento.dados.capacity();
+    }
+
+    private static final class Segmento {
+        private final int id;
+        private final ByteBuffer dados;
+        private int vivos;
+
+        private Segmento(int id, ByteBuffer dados) {
+            this.id = id;
+            this.dados = dados;
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package br.ufal.ic.p2.jackut.models;
 
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.HashSet;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeSet;
 
 public class Comunidade {
     private final String nome;
     private final String descricao;
     private final String dono;
-    private final Set<String> membros = new LinkedHashSet<>(); // Usando LinkedHashSet para manter ordem
+    private final ConjuntoCopiaEscrita<String> membros = new ConjuntoCopiaEscrita<>(); // Mantém a ordem de inserção
+    // Índice ordenado dos membros, criado na primeira listagem ordenada e mantido a partir daí
+    private NavigableSet<String> indiceOrdenado;
 
     public Comunidade(String nome, String descricao, String dono) {
         this.nome = nome;
@@ -21,16 +23,54 @@ public class Comunidade {
     }
 
     public boolean adicionarMembro(String login) {
-        if (membros.contains(login)) {
+        if (!membros.add(login)) {
             return false;
         }
-        return membros.add(login);
+        if (indiceOrdenado != null) {
+            indiceOrdenado.add(login);
+        }
+        return true;
+    }
+
+    /**
+     * Verifica se um usuário é membro, sem copiar o conjunto de membros.
+     * @param login Login do usuário
+     * @return true se o usuário faz parte da comunidade
+     */
+    public boolean contemMembro(String login) {
+        return membros.contains(login);
+    }
+
+    public int getQuantidadeMembros() {
+        return membros.size();
     }
 
     public List<String> getMembrosOrdenados() {
-        List<String> ordenados = new ArrayList<>(membros);
-        Collections.sort(ordenados); // Ordena alfabeticamente
-        return ordenados;
+        return new ArrayList<>(getIndiceOrdenado()); // Ordena alfabeticamente
+    }
+
+    /**
+     * Lista uma página de membros em ordem alfabética.
+     * @param depoisDe Cursor: último login da página anterior, ou null para começar do início
+     * @param limite Quantidade máxima de membros na página
+     * @return até {@code limite} membros estritamente posteriores ao cursor
+     */
+    public List<String> listarMembros(String depoisDe, int limite) {
+        NavigableSet<String> indice = getIndiceOrdenado();
+        Set<String> restantes = depoisDe == null ? indice : indice.tailSet(depoisDe, false);
+        List<String> pagina = new ArrayList<>(Math.min(Math.max(limite, 0), restantes.size()));
+        for (String membro : restantes) {
+            if (pagina.size() >= limite) break;
+            pagina.add(membro);
+        }
+        return pagina;
+    }
+
+    private NavigableSet<String> getIndiceOrdenado() {
+        if (indiceOrdenado == null) {
+            indiceOrdenado = new TreeSet<>(membros);
+        }
+        return indiceOrdenado;
     }
 
     //Mantém a ordem de inserção
@@ -38,8 +78,20 @@ public class Comunidade {
         return new ArrayList<>(membros);
     }
 
+    /**
+     * @return visão somente leitura dos membros, em ordem de inserção (ver {@link ConjuntoCopiaEscrita})
+     */
     public Set<String> getMembros() {
-        return new HashSet<>(this.membros);  // Retorna cópia mutável
+        return Collections.unmodifiableSet(membros);
+    }
+
+    /**
+     * Para percursos longos, que fazem outras escritas no caminho, e para os salvamentos: a próxima entrada
+     * ou saída de membro copia o conjunto.
+     * @return instantâneo somente leitura dos membros, em ordem de inserção (obtido em O(1), sem cópia)
+     */
+    public Set<String> instantaneoMembros() {
+        return membros.instantaneo();
     }
     public String getNome() { return nome; }
     public String getDescricao() { return descricao; }
@@ -49,7 +101,13 @@ public class Comunidade {
     }
 
     public boolean removerMembro(String login) {
-        return membros.remove(login);
+        if (!membros.remove(login)) {
+            return false;
+        }
+        if (indiceOrdenado != null) {
+            indiceOrdenado.remove(login);
+        }
+        return true;
     }
 
     public void removerMembroDirectamente(String login) {
@@ -0,0 +1,229 @@
+package br.ufal.ic.p2.jackut.models;
+
+import br.ufal.ic.p2.jackut.exceptions.LimiteConvitesException;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Convites de amizade pendentes (enviados ou recebidos), cada um com o instante em que foi enviado.
+ *
+ * Os convites ficam em ordem de envio (no mesmo instante, por login), então os vencidos estão sempre
+ * no início. Eles deixam de existir para contains e size assim que vencem; a remoção física é
+ * preguiçosa, a partir do mais antigo, ou feita de uma vez por {@link #expirar()}. O conjunto tem um
+ * limite de convites pendentes: acima dele, novos convites são recusados.
+ */
+public class ConjuntoConvites extends AbstractSet<String> {
+    private final Map<String, Convite> porLogin = new HashMap<>();
+    private final TreeSet<Convite> emOrdem = new TreeSet<>();
+    private long validadeMillis;
+    private int maximo = Integer.MAX_VALUE;
+    private long versao;
+
+    /**
+     * @param validadeMillis Tempo até o convite vencer, ou 0 para nunca vencer
+     * @param maximo Convites pendentes permitidos; os já existentes acima disso são mantidos até vencerem
+     */
+    public void configurar(long validadeMillis, int maximo) {
+        if (validadeMillis < 0 || maximo <= 0) {
+            throw new IllegalArgumentException("Validade e máximo de convites inválidos.");
+        }
+        this.validadeMillis = validadeMillis;
+        this.maximo = maximo;
+    }
+
+    @Override
+    public boolean add(String login) {
+        return adicionar(login, System.currentTimeMillis());
+    }
+
+    /**
+     * @param login Outro usuário do convite
+     * @param enviadoEm Instante de envio, em milissegundos
+     * @return false se já havia um convite vigente para o login
+     * @throws LimiteConvitesException se o conjunto já tiver o máximo de convites pendentes
+     */
+    public boolean adicionar(String login, long enviadoEm) {
+        if (contains(login)) return false;
+        if (estaCheio()) {
+            throw new LimiteConvitesException();
+        }
+        restaurar(login, enviadoEm);
+        return true;
+    }
+
+    /**
+     * Acrescenta um convite lido do disco, sem aplicar o limite.
+     */
+    public void restaurar(String login, long enviadoEm) {
+        Convite convite = new Convite(enviadoEm, login);
+        Convite anterior = porLogin.put(login, convite);
+        if (anterior != null) emOrdem.remove(anterior);
+        emOrdem.add(convite);
+        versao++;
+    }
+
+    /**
+     * @return número de alterações desde a criação do conjunto, inclusive a remoção de convites vencidos
+     */
+    public long getVersao() {
+        return versao;
+    }
+
+    /**
+     * @return true se não cabem mais convites
+     */
+    public boolean estaCheio() {
+        return size() >= maximo;
+    }
+
+    @Override
+    public boolean contains(Object login) {
+        Convite convite = porLogin.get(login);
+        if (convite == null) return false;
+        if (vencido(convite.enviadoEm)) {
+            retirar(convite);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object login) {
+        Convite convite = porLogin.get(login);
+        if (convite == null) return false;
+        retirar(convite);
+        return !vencido(convite.enviadoEm);
+    }
+
+    @Override
+    public int size() {
+        expirar();
+        return porLogin.size();
+    }
+
+    @Override
+    public void clear() {
+        if (porLogin.isEmpty()) return;
+        porLogin.clear();
+        emOrdem.clear();
+        versao++;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        expirar();
+        Iterator<Convite> convites = emOrdem.iterator();
+        return new Iterator<String>() {
+            private Convite atual;
+
+            @Override
+            public boolean hasNext() {
+                return convites.hasNext();
+            }
+
+            @Override
+            public String next() {
+                atual = convites.next();
+                return atual.login;
+            }
+
+            @Override
+            public void remove() {
+                convites.remove();
+                porLogin.remove(atual.login);
+                versao++;
+            }
+        };
+    }
+
+    /**
+     * @return instante de envio do convite vigente para o login, ou null se não houver
+     */
+    public Long getEnviadoEm(String login) {
+        return contains(login) ? porLogin.get(login).enviadoEm : null;
+    }
+
+    /**
+     * @return cópia dos convites vigentes e seus instantes de envio, em ordem de envio
+     */
+    public Map<String, Long> getComDatas() {
+        expirar();
+        Map<String, Long> comDatas = new LinkedHashMap<>(porLogin.size() * 2);
+        for (Convite convite : emOrdem) {
+            comDatas.put(convite.login, convite.enviadoEm);
+        }
+        return comDatas;
+    }
+
+    /**
+     * Lista uma página de convites vigentes, do mais antigo ao mais novo. A página começa logo depois
+     * do convite do cursor, sem percorrer os anteriores. Se o convite do cursor não estiver mais pendente
+     * (aceito ou removido entre uma página e outra), a listagem recomeça do mais antigo: nenhum convite
+     * fica de fora, mas alguns podem se repetir. Um cursor vencido não causa repetição, já que todos os
+     * convites anteriores a ele também venceram.
+     * @param depoisDe Cursor: último login da página anterior, ou null para começar do início
+     * @param limite Tamanho máximo da página
+     */
+    public List<String> listar(String depoisDe, int limite) {
+        expirar();
+        Convite cursor = depoisDe == null ? null : porLogin.get(depoisDe);
+        NavigableSet<Convite> restantes = cursor == null ? emOrdem : emOrdem.tailSet(cursor, false);
+        List<String> pagina = new ArrayList<>(Math.max(0, Math.min(limite, porLogin.size())));
+        for (Convite convite : restantes) {
+            if (pagina.size() >= limite) break;
+            pagina.add(convite.login);
+        }
+        return pagina;
+    }
+
+    /**
+     * Remove todos os convites vencidos, que estão sempre no início.
+     * @return quantos foram removidos
+     */
+    public int expirar() {
+        if (validadeMillis == 0) return 0;
+        long limite = System.currentTimeMillis() - validadeMillis;
+        int removidos = 0;
+        while (!emOrdem.isEmpty() && emOrdem.first().enviadoEm < limite) {
+            porLogin.remove(emOrdem.pollFirst().login);
+            removidos++;
+            versao++;
+        }
+        return removidos;
+    }
+
+    private void retirar(Convite convite) {
+        porLogin.remove(convite.login);
+        emOrdem.remove(convite);
+        versao++;
+    }
+
+    private boolean vencido(long enviadoEm) {
+        return validadeMillis > 0 && enviadoEm < System.currentTimeMillis() - validadeMillis;
+    }
+
+    // Chave da ordem de envio; o login desempata convites enviados no mesmo instante
+    private static final class Convite implements Comparable<Convite> {
+        final long enviadoEm;
+        final String login;
+
+        Convite(long enviadoEm, String login) {
+            this.enviadoEm = enviadoEm;
+            this.login = login;
+        }
+
+        @Override
+        public int compareTo(Convite outro) {
+            int porInstante = Long.compare(enviadoEm, outro.enviadoEm);
+            return porInstante != 0 ? porInstante : login.compareTo(outro.login);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Conjunto em ordem de inserção que, além das leituras comuns, oferece instantâneos consistentes.
+ *
+ * As leituras comuns leem o próprio conjunto sob o lock: as operações pontuais (add, remove, contains, size),
+ * forEach, toArray e as cópias feitas a partir dele ({@code new ArrayList<>(conjunto)}) seguram o lock até o
+ * fim, e o iterador (for-each) percorre uma cópia em array feita do mesmo jeito. Nenhuma delas custa nada
+ * às escritas.
+ *
+ * {@link #instantaneo()} é para leituras longas que não podem segurar o lock nem falhar por uma escrita
+ * concorrente, como os salvamentos: congela o conteúdo atual em O(1), e o conjunto interno passa a ser
+ * compartilhado com o leitor e nunca mais é alterado. A primeira escrita depois disso copia o conjunto e
+ * segue na cópia, então cada instantâneo custa uma cópia, paga pelo escritor.
+ */
+public class ConjuntoCopiaEscrita<E> extends AbstractSet<E> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private LinkedHashSet<E> atual = new LinkedHashSet<>();
+    // true quando 'atual' foi entregue a algum instantâneo e não pode mais mudar
+    private boolean compartilhado;
+    private long versao;
+
+    /**
+     * Só para leituras que precisam disso (ver a descrição da classe): a escrita seguinte copia o conjunto.
+     * @return visão imutável do conteúdo neste momento; não reflete escritas posteriores
+     */
+    public synchronized Set<E> instantaneo() {
+        compartilhado = true;
+        return Collections.unmodifiableSet(atual);
+    }
+
+    /**
+     * @return número de escritas que alteraram o conjunto desde a sua criação
+     */
+    public synchronized long getVersao() {
+        return versao;
+    }
+
+    @Override
+    public synchronized boolean add(E elemento) {
+        if (atual.contains(elemento)) return false;
+        paraEscrita().add(elemento);
+        versao++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(Object elemento) {
+        if (!atual.contains(elemento)) return false;
+        paraEscrita().remove(elemento);
+        versao++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeIf(Predicate<? super E> filtro) {
+        LinkedHashSet<E> restantes = new LinkedHashSet<>();
+        for (E elemento : atual) {
+            if (!filtro.test(elemento)) restantes.add(elemento);
+        }
+        if (restantes.size() == atual.size()) return false;
+        atual = restantes;
+        compartilhado = false;
+        versao++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean addAll(Collection<? extends E> elementos) {
+        boolean alterou = false;
+        for (E elemento : elementos) {
+            alterou |= add(elemento);
+        }
+        return alterou;
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (atual.isEmpty()) return;
+        atual = new LinkedHashSet<>();
+        compartilhado = false;
+        versao++;
+    }
+
+    @Override
+    public synchronized boolean contains(Object elemento) {
+        return atual.contains(elemento);
+    }
+
+    @Override
+    public synchronized int size() {
+        return atual.size();
+    }
+
+    /**
+     * Itera sobre uma cópia em array feita sob o lock: custa O(n) ao leitor, nada às escritas, e não falha
+     * com escritas concorrentes. O remove do iterador remove do conjunto, não da cópia.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        @SuppressWarnings("unchecked")
+        E[] copia = (E[]) toArray();
+        return new Iterator<E>() {
+            private int proximo;
+
+            @Override
+            public boolean hasNext() {
+                return proximo < copia.length;
+            }
+
+            @Override
+            public E next() {
+                if (proximo == copia.length) throw new NoSuchElementException();
+                return copia[proximo++];
+            }
+
+            @Override
+            public void remove() {
+                if (proximo == 0) throw new IllegalStateException();
+                ConjuntoCopiaEscrita.this.remove(copia[proximo - 1]);
+            }
+        };
+    }
+
+    @Override
+    public synchronized void forEach(Consumer<? super E> acao) {
+        atual.forEach(acao);
+    }
+
+    @Override
+    public synchronized Object[] toArray() {
+        return atual.toArray();
+    }
+
+    @Override
+    public synchronized <T> T[] toArray(T[] destino) {
+        return atual.toArray(destino);
+    }
+
+    private LinkedHashSet<E> paraEscrita() {
+        if (compartilhado) {
+            atual = new LinkedHashSet<>(atual);
+            compartilhado = false;
+        }
+        return atual;
+    }
+}
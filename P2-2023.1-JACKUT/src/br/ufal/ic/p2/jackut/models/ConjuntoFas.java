@@ -0,0 +1,366 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Conjunto de fãs de um usuário, que muda de representação quando o usuário vira um "hub".
+ *
+ * Enquanto há menos fãs que o limiar, é um único {@link ConjuntoCopiaEscrita}, como os outros
+ * relacionamentos. Ao chegar ao limiar, os fãs são redistribuídos por hash em {@link #FATIAS} fatias,
+ * cada uma com o seu próprio lock: escritas concorrentes em fatias diferentes não se bloqueiam, e
+ * cada fatia continua só acrescentando no fim. A listagem ordenada deixa de ordenar tudo a cada chamada:
+ * cada fatia mantém um índice ordenado (criado na primeira listagem, como em Comunidade), e as páginas
+ * saem de uma intercalação dos índices. A volta para a representação compacta não acontece.
+ *
+ * Iterar sobre um hub percorre as fatias uma depois da outra, cada uma como em {@link ConjuntoCopiaEscrita}:
+ * sob o lock da fatia, falhando se ela mudar durante a sua vez. {@link #instantaneo()} junta um instantâneo
+ * de cada fatia; cada fatia é consistente, mas escritas simultâneas em fatias já congeladas não aparecem.
+ */
+public class ConjuntoFas extends AbstractSet<String> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int LIMIAR_HUB_PADRAO = 10_000;
+    static final int FATIAS = 16;
+
+    private int limiar = LIMIAR_HUB_PADRAO;
+    private ConjuntoCopiaEscrita<String> compacto = new ConjuntoCopiaEscrita<>();
+    // Diferente de null depois que o conjunto virou hub; a partir daí 'compacto' não é mais usado
+    private volatile Fatia[] fatias;
+    // Versão do conjunto compacto quando ele foi fatiado, para que getVersao nunca volte atrás
+    private long versaoAntesDasFatias;
+
+    /**
+     * Define a partir de quantos fãs o conjunto é fatiado. Se já tiver esse tamanho, é fatiado agora.
+     * @param limiar Quantidade de fãs que caracteriza um hub
+     */
+    public synchronized void configurar(int limiar) {
+        if (limiar <= 0) {
+            throw new IllegalArgumentException("Limiar de hub deve ser positivo.");
+        }
+        this.limiar = limiar;
+        if (fatias == null && compacto.size() >= limiar) {
+            fatiar();
+        }
+    }
+
+    /**
+     * @return true se o conjunto já está na representação fatiada
+     */
+    public boolean ehHub() {
+        return fatias != null;
+    }
+
+    /**
+     * @return número de alterações desde a criação do conjunto (ver {@link ConjuntoCopiaEscrita#getVersao()})
+     */
+    public long getVersao() {
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            synchronized (this) {
+                if (fatias == null) return compacto.getVersao();
+                atuais = fatias;
+            }
+        }
+        long versao = versaoAntesDasFatias;
+        for (Fatia fatia : atuais) {
+            versao += fatia.getVersao();
+        }
+        return versao;
+    }
+
+    @Override
+    public boolean add(String fa) {
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            synchronized (this) {
+                if (fatias == null) {
+                    if (!compacto.add(fa)) return false;
+                    if (compacto.size() >= limiar) fatiar();
+                    return true;
+                }
+                atuais = fatias;
+            }
+        }
+        return atuais[indice(fa)].add(fa);
+    }
+
+    @Override
+    public boolean remove(Object fa) {
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            synchronized (this) {
+                if (fatias == null) return compacto.remove(fa);
+                atuais = fatias;
+            }
+        }
+        return atuais[indice(fa)].remove(fa);
+    }
+
+    @Override
+    public boolean contains(Object fa) {
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            synchronized (this) {
+                if (fatias == null) return compacto.contains(fa);
+                atuais = fatias;
+            }
+        }
+        return atuais[indice(fa)].contains(fa);
+    }
+
+    @Override
+    public int size() {
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            synchronized (this) {
+                if (fatias == null) return compacto.size();
+                atuais = fatias;
+            }
+        }
+        int total = 0;
+        for (Fatia fatia : atuais) {
+            total += fatia.size();
+        }
+        return total;
+    }
+
+    @Override
+    public void clear() {
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            synchronized (this) {
+                if (fatias == null) {
+                    compacto.clear();
+                    return;
+                }
+                atuais = fatias;
+            }
+        }
+        for (Fatia fatia : atuais) {
+            fatia.clear();
+        }
+    }
+
+    /**
+     * Itera sobre as partes, uma de cada vez (ver a descrição da classe). O remove do iterador remove do conjunto.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return encadear(partes());
+    }
+
+    /**
+     * Para gravações, que não podem falhar por uma escrita concorrente: a escrita seguinte em cada parte a copia.
+     * @return visão imutável dos fãs neste momento, fatia por fatia (ver a descrição da classe)
+     */
+    public Set<String> instantaneo() {
+        List<Set<String>> instantaneos = new ArrayList<>();
+        for (ConjuntoCopiaEscrita<String> parte : partes()) {
+            instantaneos.add(parte.instantaneo());
+        }
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return encadear(instantaneos);
+            }
+
+            @Override
+            public int size() {
+                int total = 0;
+                for (Set<String> parte : instantaneos) {
+                    total += parte.size();
+                }
+                return total;
+            }
+        };
+    }
+
+    private List<ConjuntoCopiaEscrita<String>> partes() {
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            synchronized (this) {
+                if (fatias == null) {
+                    return List.of(compacto);
+                }
+                atuais = fatias;
+            }
+        }
+        return List.of(atuais);
+    }
+
+    private Iterator<String> encadear(List<? extends Set<String>> partes) {
+        return new Iterator<String>() {
+            private int parte;
+            private Iterator<String> atual = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!atual.hasNext() && parte < partes.size()) {
+                    atual = partes.get(parte++).iterator();
+                }
+                return atual.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return atual.next();
+            }
+
+            // Nos instantâneos, que são imutáveis, lança UnsupportedOperationException
+            @Override
+            public void remove() {
+                atual.remove();
+            }
+        };
+    }
+
+    /**
+     * @return todos os fãs em ordem alfabética
+     */
+    public List<String> ordenados() {
+        return listar(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Lista uma página de fãs em ordem alfabética.
+     * @param depoisDe Cursor: último login da página anterior, ou null para começar do início
+     * @param limite Quantidade máxima de fãs na página
+     * @return até {@code limite} fãs estritamente posteriores ao cursor
+     */
+    public List<String> listar(String depoisDe, int limite) {
+        if (limite <= 0) return new ArrayList<>();
+        Fatia[] atuais = fatias;
+        if (atuais == null) {
+            List<String> copia;
+            synchronized (this) {
+                copia = fatias == null ? new ArrayList<>(compacto) : null;
+                atuais = fatias;
+            }
+            if (copia != null) {
+                TreeSet<String> ordenados = new TreeSet<>(copia);
+                return primeiros(depoisDe == null ? ordenados : ordenados.tailSet(depoisDe, false), limite);
+            }
+        }
+
+        // Intercala as páginas de cada fatia; cada uma já vem ordenada do seu índice
+        PriorityQueue<Cursor> fila = new PriorityQueue<>();
+        for (Fatia fatia : atuais) {
+            List<String> pagina = fatia.listar(depoisDe, limite);
+            if (!pagina.isEmpty()) fila.add(new Cursor(pagina));
+        }
+        List<String> resultado = new ArrayList<>();
+        while (resultado.size() < limite && !fila.isEmpty()) {
+            Cursor cursor = fila.poll();
+            resultado.add(cursor.atual());
+            if (cursor.avancar()) fila.add(cursor);
+        }
+        return resultado;
+    }
+
+    // Não usa size(): em uma visão de TreeSet (tailSet), ele percorre a visão inteira
+    private static List<String> primeiros(Iterable<String> ordenados, int limite) {
+        List<String> pagina = new ArrayList<>();
+        for (String fa : ordenados) {
+            if (pagina.size() >= limite) break;
+            pagina.add(fa);
+        }
+        return pagina;
+    }
+
+    // Chamado com o lock do conjunto, na representação compacta
+    private void fatiar() {
+        Fatia[] novas = new Fatia[FATIAS];
+        for (int i = 0; i < FATIAS; i++) {
+            novas[i] = new Fatia();
+        }
+        for (String fa : compacto) {
+            novas[indice(fa)].add(fa);
+        }
+        versaoAntesDasFatias = compacto.getVersao() + 1;
+        compacto = null;
+        fatias = novas;
+    }
+
+    // Usa os bits altos de um hash misturado: os bits baixos são os que o HashMap de cada fatia usa
+    // para escolher o bucket, e se todos os fãs de uma fatia os tivessem iguais, só 1/FATIAS dos buckets seria usado
+    private static int indice(Object fa) {
+        int hash = fa == null ? 0 : fa.hashCode();
+        return (hash * 0x9E3779B9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(FATIAS));
+    }
+
+    /**
+     * Uma fatia de um hub: os fãs em ordem de chegada e, depois da primeira listagem, um índice ordenado
+     * mantido junto com as escritas, sob o mesmo lock.
+     */
+    private static final class Fatia extends ConjuntoCopiaEscrita<String> {
+        private static final long serialVersionUID = 1L;
+
+        private transient TreeSet<String> indiceOrdenado;
+
+        @Override
+        public synchronized boolean add(String fa) {
+            if (!super.add(fa)) return false;
+            if (indiceOrdenado != null) indiceOrdenado.add(fa);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean remove(Object fa) {
+            if (!super.remove(fa)) return false;
+            if (indiceOrdenado != null) indiceOrdenado.remove(fa);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean removeIf(Predicate<? super String> filtro) {
+            if (!super.removeIf(filtro)) return false;
+            indiceOrdenado = null;
+            return true;
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+            indiceOrdenado = null;
+        }
+
+        synchronized List<String> listar(String depoisDe, int limite) {
+            if (indiceOrdenado == null) {
+                indiceOrdenado = new TreeSet<>(this);
+            }
+            return primeiros(depoisDe == null ? indiceOrdenado : indiceOrdenado.tailSet(depoisDe, false), limite);
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private final List<String> pagina;
+        private int posicao;
+
+        private Cursor(List<String> pagina) {
+            this.pagina = pagina;
+        }
+
+        private String atual() {
+            return pagina.get(posicao);
+        }
+
+        private boolean avancar() {
+            return ++posicao < pagina.size();
+        }
+
+        @Override
+        public int compareTo(Cursor outro) {
+            return atual().compareTo(outro.atual());
+        }
+    }
+}
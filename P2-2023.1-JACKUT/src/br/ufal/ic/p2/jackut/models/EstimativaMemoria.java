@@ -0,0 +1,83 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Estimativa do espaço ocupado no heap pelos dados de uma Facade.
+ * Os textos dos recados e mensagens ficam fora do heap (ver ArenaTextos); deles só conta o identificador.
+ *
+ * Os valores seguem o layout típico de uma JVM de 64 bits com ponteiros comprimidos e strings compactas
+ * (cabeçalho de 12 bytes, alinhamento de 8). Não é uma medição exata: serve para comparar Facades entre
+ * si e decidir quais descarregar quando a memória aperta.
+ */
+public final class EstimativaMemoria {
+    private static final long STRING = 24 + 16;          // String + byte[] vazio
+    private static final long ENTRADA_CONJUNTO = 48;     // LinkedHashMap.Entry + posição na tabela
+    private static final long ENTRADA_MAPA = 40;         // HashMap.Node + posição na tabela
+    private static final long ENTRADA_CONVITE = ENTRADA_MAPA + 40 + 24; // + TreeMap.Entry + chave de ordem
+    private static final long CORPO_FILA = 16;           // Identificador na arena + instante, em FilaCorpos
+    private static final long CONJUNTO_VAZIO = 16 + 56 + 16;
+    private static final long USUARIO = 64 + 7 * CONJUNTO_VAZIO + 2 * (32 + 16) + 32 + 40;
+    private static final long COMUNIDADE = 32 + CONJUNTO_VAZIO + 16;
+
+    private EstimativaMemoria() {
+    }
+
+    /**
+     * @return bytes estimados de todos os usuários e comunidades
+     */
+    public static long estimar(Collection<Usuario> usuarios, Collection<Comunidade> comunidades) {
+        long total = 0;
+        for (Usuario usuario : usuarios) {
+            total += estimar(usuario);
+        }
+        for (Comunidade comunidade : comunidades) {
+            total += estimar(comunidade);
+        }
+        return total;
+    }
+
+    public static long estimar(Usuario usuario) {
+        long total = USUARIO + texto(usuario.getLogin()) + texto(usuario.getSenha()) + texto(usuario.getNome());
+        for (Map.Entry<String, String> atributo : usuario.getPerfil().getAtributos().entrySet()) {
+            total += ENTRADA_MAPA + texto(atributo.getKey()) + texto(atributo.getValue());
+        }
+        total += conjunto(usuario.getAmigos()) + convites(usuario.getSolicitacoesEnviadas())
+                + convites(usuario.getSolicitacoesRecebidas()) + conjunto(usuario.getIdolos())
+                + conjunto(usuario.getFas()) + conjunto(usuario.getPaqueras()) + conjunto(usuario.getInimigos());
+        // Arrays das filas, que dobram de tamanho: em média 1,5 posição por elemento
+        int corpos = usuario.getFilaRecados().getQuantidadeEmMemoria() + usuario.getQuantidadeMensagens();
+        total += CORPO_FILA * corpos * 3 / 2;
+        for (String comunidade : usuario.getComunidades()) {
+            total += 4 + texto(comunidade);
+        }
+        return total;
+    }
+
+    public static long estimar(Comunidade comunidade) {
+        return COMUNIDADE + texto(comunidade.getNome()) + texto(comunidade.getDescricao()) + texto(comunidade.getDono())
+                + conjunto(comunidade.getMembros());
+    }
+
+    private static long conjunto(Collection<String> elementos) {
+        long total = 0;
+        for (String elemento : elementos) {
+            total += ENTRADA_CONJUNTO + texto(elemento);
+        }
+        return total;
+    }
+
+    // Cada convite está no índice por login e na ordem de envio (ver ConjuntoConvites)
+    private static long convites(ConjuntoConvites convites) {
+        long total = 0;
+        for (String login : convites) {
+            total += ENTRADA_CONVITE + texto(login);
+        }
+        return total;
+    }
+
+    private static long texto(String s) {
+        return s == null ? 0 : (STRING + s.length() + 7) & ~7L;
+    }
+}
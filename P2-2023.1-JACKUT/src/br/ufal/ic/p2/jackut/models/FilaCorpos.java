@@ -0,0 +1,193 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Fila circular de textos guardados em uma {@link ArenaTextos}: dois arrays de long (identificador do
+ * texto e instante de chegada), sem um objeto por elemento. Quem retira um elemento libera a sua
+ * referência na arena.
+ *
+ * Quem descarta o dono (zerarSistema, fechamento da Facade, um usuário que sai do cache) esvazia a fila
+ * com {@link #limpar()}; se isso não acontecer, as referências que sobraram são liberadas quando o coletor
+ * perceber que o dono não é mais alcançável.
+ */
+final class FilaCorpos {
+    private static final Cleaner LIMPEZA = Cleaner.create();
+    private static final long[] VAZIO = new long[0];
+
+    private ArenaTextos arena;
+    private long[] corpos = VAZIO;
+    private long[] instantes = VAZIO;
+    private int inicio;
+    private int tamanho;
+    private long versao;
+
+    /**
+     * @param dono Objeto cujo descarte libera o que sobrar na fila; não pode ser alcançável a partir da fila
+     * @param arena Onde os textos ficam
+     */
+    FilaCorpos(Object dono, ArenaTextos arena) {
+        this.arena = arena;
+        LIMPEZA.register(dono, this::limpar);
+    }
+
+    synchronized ArenaTextos getArena() {
+        return arena;
+    }
+
+    /**
+     * Passa os textos para outra arena, liberando-os nesta.
+     */
+    synchronized void moverPara(ArenaTextos nova) {
+        if (nova == arena) return;
+        for (int i = 0; i < tamanho; i++) {
+            int posicao = indice(i);
+            long corpo = corpos[posicao];
+            corpos[posicao] = nova.guardar(arena.ler(corpo));
+            arena.liberar(corpo);
+        }
+        arena = nova;
+    }
+
+    /**
+     * Acrescenta no fim; a fila passa a ser dona da referência.
+     */
+    synchronized void adicionar(long corpo, long instante) {
+        if (tamanho == corpos.length) crescer();
+        int fim = indice(tamanho);
+        corpos[fim] = corpo;
+        instantes[fim] = instante;
+        tamanho++;
+        versao++;
+    }
+
+    /**
+     * @return número de alterações desde a criação da fila
+     */
+    synchronized long getVersao() {
+        return versao;
+    }
+
+    synchronized int tamanho() {
+        return tamanho;
+    }
+
+    synchronized boolean vazia() {
+        return tamanho == 0;
+    }
+
+    /**
+     * @return o texto na posição (0 é o início), decodificado
+     */
+    synchronized String texto(int posicao) {
+        return arena.ler(corpos[indice(posicao)]);
+    }
+
+    synchronized long instante(int posicao) {
+        return instantes[indice(posicao)];
+    }
+
+    /**
+     * @return o texto do início, ou null se a fila estiver vazia
+     */
+    synchronized String retirarPrimeiro() {
+        if (tamanho == 0) return null;
+        long corpo = corpos[inicio];
+        String texto = arena.ler(corpo);
+        descartarPrimeiro();
+        return texto;
+    }
+
+    synchronized void descartarPrimeiro() {
+        if (tamanho == 0) return;
+        arena.liberar(corpos[inicio]);
+        inicio = indice(1);
+        tamanho--;
+        versao++;
+    }
+
+    synchronized void descartarUltimo() {
+        if (tamanho == 0) return;
+        arena.liberar(corpos[indice(tamanho - 1)]);
+        tamanho--;
+        versao++;
+    }
+
+    /**
+     * @return todos os textos, do início ao fim
+     */
+    synchronized List<String> textos() {
+        List<String> textos = new ArrayList<>(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            textos.add(arena.ler(corpos[indice(i)]));
+        }
+        return textos;
+    }
+
+    /**
+     * @return todos os textos com o instante de chegada, do início ao fim
+     */
+    synchronized List<Map.Entry<String, Long>> textosComInstantes() {
+        List<Map.Entry<String, Long>> textos = new ArrayList<>(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            textos.add(Map.entry(arena.ler(corpos[indice(i)]), instantes[indice(i)]));
+        }
+        return textos;
+    }
+
+    /**
+     * Remove, mantendo a ordem, os textos que satisfazem o filtro.
+     * @return quantos foram removidos
+     */
+    synchronized int removerSe(Predicate<? super String> filtro) {
+        int mantidos = 0;
+        for (int i = 0; i < tamanho; i++) {
+            int origem = indice(i);
+            long corpo = corpos[origem];
+            if (filtro.test(arena.ler(corpo))) {
+                arena.liberar(corpo);
+            } else {
+                int destino = indice(mantidos++);
+                corpos[destino] = corpo;
+                instantes[destino] = instantes[origem];
+            }
+        }
+        int removidos = tamanho - mantidos;
+        tamanho = mantidos;
+        if (removidos > 0) versao++;
+        return removidos;
+    }
+
+    synchronized void limpar() {
+        if (tamanho > 0) versao++;
+        for (int i = 0; i < tamanho; i++) {
+            arena.liberar(corpos[indice(i)]);
+        }
+        corpos = VAZIO;
+        instantes = VAZIO;
+        inicio = 0;
+        tamanho = 0;
+    }
+
+    private int indice(int posicao) {
+        int i = inicio + posicao;
+        return i >= corpos.length ? i - corpos.length : i;
+    }
+
+    private void crescer() {
+        int capacidade = Math.max(4, corpos.length * 2);
+        long[] novosCorpos = new long[capacidade];
+        long[] novosInstantes = new long[capacidade];
+        for (int i = 0; i < tamanho; i++) {
+            novosCorpos[i] = corpos[indice(i)];
+            novosInstantes[i] = instantes[indice(i)];
+        }
+        corpos = novosCorpos;
+        instantes = novosInstantes;
+        inicio = 0;
+    }
+}
@@ -0,0 +1,404 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Fila de recados de um usuário, com retenção por quantidade e por tempo (ver PoliticaRecados).
+ *
+ * Os recados do início da fila, que serão lidos primeiro, ficam em memória. Quando a política tem um
+ * diretório, os que passam do limite em memória são acrescentados ao arquivo do usuário e voltam para
+ * a memória em blocos, conforme o início da fila é lido. A ordem de chegada é sempre preservada.
+ *
+ * O arquivo faz parte do estado salvo: o salvamento da Facade grava, com os recados em memória, o nome
+ * do arquivo e a posição de leitura (ver {@link #getPosicaoArquivo()}). Quando a fila deixa um arquivo
+ * (esvaziou, foi limpa ou filtrada), ele é entregue ao descarte informado em {@link #configurar}, que
+ * só deve apagá-lo depois de confirmado um salvamento feito a partir daí.
+ *
+ * Os recados vencidos e os que excedem o máximo são descartados a partir do mais antigo; os vencidos
+ * saem na próxima consulta à fila.
+ *
+ * Os textos dos recados em memória ficam fora do heap, na arena da Facade do usuário (ver
+ * {@link ArenaTextos}); a fila guarda só os identificadores e decodifica cada texto quando ele é lido.
+ */
+public class FilaRecados extends AbstractQueue<String> {
+    private final FilaCorpos emMemoria = new FilaCorpos(this, ArenaTextos.AVULSA);
+    private PoliticaRecados politica = PoliticaRecados.PADRAO;
+    private SegmentoRecados segmento;
+    private String login;
+    private Consumer<Path> descarte = arquivo -> { };
+    // Posição lida do registro do usuário, até que uma política com diretório abra o arquivo
+    private PosicaoArquivoRecados posicaoRestaurada;
+    private boolean usaArquivo;
+    private long descartados;
+    // Alterações do arquivo; as da memória são contadas por emMemoria
+    private long versao;
+
+    /**
+     * Aplica uma política à fila. Se a política tiver diretório, o arquivo do usuário é retomado na
+     * posição gravada com ele (ver {@link #restaurarPosicaoArquivo}) e o excedente em memória vai para o disco.
+     * Sem diretório, ou ao mudar de diretório, os recados do arquivo voltam todos para a memória e o arquivo
+     * vai para o descarte.
+     * @param politica Nova política
+     * @param login Dono da fila, que dá nome ao arquivo
+     * @param descarte Recebe os arquivos que a fila deixou de usar
+     */
+    public void configurar(PoliticaRecados politica, String login, Consumer<Path> descarte) {
+        this.login = login;
+        this.descarte = descarte;
+        if (segmento != null && !segmento.getArquivo().getParent().equals(politica.getDiretorio())) {
+            List<Recado> todos = new ArrayList<>();
+            segmento.retirar(Integer.MAX_VALUE, todos);
+            abandonarSegmento();
+            adicionarEmMemoria(todos);
+        }
+        this.politica = politica;
+        if (politica.getDiretorio() != null) {
+            if (segmento == null) {
+                retomarArquivo();
+            }
+            usaArquivo = true;
+            // Só dá para mandar o excedente ao arquivo se ele estiver vazio: o que já está lá é mais recente
+            if (segmento == null && emMemoria.tamanho() > politica.getLimiteEmMemoria()) {
+                deslocarParaSegmento();
+            }
+        }
+        aplicarMaximo();
+    }
+
+    // Abre o arquivo registrado no último salvamento ou, em dados antigos sem essa informação, o de nome fixo
+    private void retomarArquivo() {
+        PosicaoArquivoRecados posicao = posicaoRestaurada;
+        posicaoRestaurada = null;
+        if (posicao == null) {
+            Path antigo = politica.arquivoPara(login);
+            if (Files.exists(antigo)) {
+                segmento = SegmentoRecados.abrirAntigo(antigo);
+            }
+        } else if (posicao.getNome() != null) {
+            Path arquivo = politica.getDiretorio().resolve(posicao.getNome());
+            if (posicao.getPendentes() > 0) {
+                segmento = SegmentoRecados.abrir(arquivo, posicao);
+            } else {
+                // Lido por inteiro antes do salvamento: não volta a ser usado
+                descarte.accept(arquivo);
+            }
+        }
+        if (segmento != null && segmento.getPendentes() == 0) {
+            abandonarSegmento();
+        }
+    }
+
+    /**
+     * Registra o arquivo e a posição gravados com o usuário. O arquivo só é aberto por {@link #configurar},
+     * quando a política tiver diretório.
+     * @param posicao Posição lida, ou {@link PosicaoArquivoRecados#NENHUM} se o registro não usava arquivo
+     */
+    public void restaurarPosicaoArquivo(PosicaoArquivoRecados posicao) {
+        posicaoRestaurada = posicao;
+        usaArquivo = true;
+    }
+
+    /**
+     * Informação do arquivo de recados a gravar com o usuário.
+     * @return posição atual; {@link PosicaoArquivoRecados#NENHUM} se os recados estão todos em memória;
+     *         ou null se a fila nunca teve política com diretório (dados no formato antigo)
+     */
+    public PosicaoArquivoRecados getPosicaoArquivo() {
+        if (segmento != null) return segmento.getPosicao();
+        if (posicaoRestaurada != null) return posicaoRestaurada;
+        return usaArquivo ? PosicaoArquivoRecados.NENHUM : null;
+    }
+
+    // Ver Usuario#usarArena
+    void usarArena(ArenaTextos arena) {
+        emMemoria.moverPara(arena);
+    }
+
+    // Ver Usuario#liberarTextos; o arquivo de recados continua citado pelo registro salvo e não é descartado
+    void liberarTextos() {
+        emMemoria.limpar();
+    }
+
+    public PoliticaRecados getPolitica() {
+        return politica;
+    }
+
+    @Override
+    public boolean offer(String texto) {
+        restaurar(texto, System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Acrescenta ao fim da fila um recado lido da persistência, com o instante em que ele chegou,
+     * para que a validade continue contando de quando foi enviado.
+     * @param texto Texto do recado
+     * @param recebidoEm Instante de chegada, em milissegundos
+     */
+    public void restaurar(String texto, long recebidoEm) {
+        if (texto == null) throw new NullPointerException();
+        if (politica.getDiretorio() != null && (pendentesNoSegmento() > 0 || emMemoria.tamanho() >= politica.getLimiteEmMemoria())) {
+            garantirSegmento().anexar(new Recado(texto, recebidoEm));
+            versao++;
+        } else {
+            emMemoria.adicionar(emMemoria.getArena().guardar(texto), recebidoEm);
+        }
+        aplicarMaximo();
+    }
+
+    @Override
+    public String poll() {
+        descartarVencidos();
+        return emMemoria.retirarPrimeiro();
+    }
+
+    @Override
+    public String peek() {
+        descartarVencidos();
+        return emMemoria.vazia() ? null : emMemoria.texto(0);
+    }
+
+    // Sem decodificar o primeiro recado: depois de descartarVencidos, memória vazia significa arquivo vazio
+    @Override
+    public boolean isEmpty() {
+        descartarVencidos();
+        return emMemoria.vazia();
+    }
+
+    @Override
+    public int size() {
+        descartarVencidos();
+        return (int) Math.min(Integer.MAX_VALUE, emMemoria.tamanho() + pendentesNoSegmento());
+    }
+
+    /**
+     * @return recados mantidos em memória, do mais antigo ao mais novo
+     */
+    public List<String> getEmMemoria() {
+        return emMemoria.textos();
+    }
+
+    /**
+     * @return recados mantidos em memória (texto -> instante de chegada), do mais antigo ao mais novo
+     */
+    public List<Map.Entry<String, Long>> getEmMemoriaComDatas() {
+        return emMemoria.textosComInstantes();
+    }
+
+    /**
+     * @return todos os recados (texto -> instante de chegada), inclusive os do arquivo, do mais antigo ao mais novo
+     */
+    public List<Map.Entry<String, Long>> getTodosComDatas() {
+        List<Map.Entry<String, Long>> todos = new ArrayList<>(emMemoria.textosComInstantes());
+        if (pendentesNoSegmento() > 0) {
+            List<Recado> noDisco = new ArrayList<>();
+            segmento.espiar(-1, (int) Math.min(Integer.MAX_VALUE, segmento.getPendentes()), noDisco);
+            for (Recado recado : noDisco) {
+                todos.add(new AbstractMap.SimpleImmutableEntry<>(recado.texto, recado.recebidoEm));
+            }
+        }
+        return todos;
+    }
+
+    /**
+     * @return quantos recados estão em memória, sem decodificá-los
+     */
+    public int getQuantidadeEmMemoria() {
+        return emMemoria.tamanho();
+    }
+
+    /**
+     * @return recados que estão no arquivo e não em memória
+     */
+    public long getNoDisco() {
+        return pendentesNoSegmento();
+    }
+
+    /**
+     * @return número de alterações da fila desde a sua criação, inclusive leituras, que mudam a posição salva
+     */
+    public long getVersao() {
+        return versao + emMemoria.getVersao();
+    }
+
+    /**
+     * @return recados descartados por vencimento ou por exceder o máximo
+     */
+    public long getDescartados() {
+        return descartados;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super String> filtro) {
+        boolean removeu = emMemoria.removerSe(filtro) > 0;
+        if (segmento != null) {
+            SegmentoRecados filtrado = segmento.filtrar(recado -> filtro.test(recado.texto), politica.novoArquivoPara(login));
+            if (filtrado != segmento) {
+                removeu = true;
+                abandonarSegmento();
+                segmento = filtrado;
+            }
+            if (emMemoria.vazia()) recarregar();
+        }
+        return removeu;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> recados) {
+        boolean alterou = false;
+        for (String recado : recados) {
+            alterou |= offer(recado);
+        }
+        return alterou;
+    }
+
+    @Override
+    public void clear() {
+        emMemoria.limpar();
+        abandonarSegmento();
+        if (posicaoRestaurada != null) {
+            posicaoRestaurada = PosicaoArquivoRecados.NENHUM;
+            versao++;
+        }
+    }
+
+    /**
+     * Percorre primeiro os recados em memória e depois os do arquivo, lidos em blocos.
+     * Alterações na fila durante a iteração não são refletidas.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        Iterator<String> memoria = emMemoria.textos().iterator();
+        long noDisco = pendentesNoSegmento();
+        return new Iterator<String>() {
+            private final List<Recado> bloco = new ArrayList<>();
+            private int indice;
+            private long posicao = -1;
+            private long restantes = noDisco;
+
+            @Override
+            public boolean hasNext() {
+                return memoria.hasNext() || indice < bloco.size() || restantes > 0;
+            }
+
+            @Override
+            public String next() {
+                if (memoria.hasNext()) return memoria.next();
+                if (indice == bloco.size()) {
+                    if (restantes <= 0) throw new NoSuchElementException();
+                    bloco.clear();
+                    indice = 0;
+                    posicao = segmento.espiar(posicao, (int) Math.min(restantes, Math.max(64, politica.getLimiteEmMemoria())), bloco);
+                    restantes -= bloco.size();
+                    if (bloco.isEmpty()) {
+                        restantes = 0;
+                        throw new NoSuchElementException();
+                    }
+                }
+                return bloco.get(indice++).texto;
+            }
+        };
+    }
+
+    private long pendentesNoSegmento() {
+        return segmento == null ? 0 : segmento.getPendentes();
+    }
+
+    private void recarregar() {
+        if (segmento != null && emMemoria.vazia() && segmento.getPendentes() > 0) {
+            List<Recado> bloco = new ArrayList<>();
+            segmento.retirar(politica.getLimiteEmMemoria(), bloco);
+            adicionarEmMemoria(bloco);
+            if (segmento.getPendentes() == 0) {
+                abandonarSegmento();
+            }
+        }
+    }
+
+    private SegmentoRecados garantirSegmento() {
+        if (segmento == null) {
+            segmento = SegmentoRecados.criar(politica.novoArquivoPara(login));
+        }
+        return segmento;
+    }
+
+    // O arquivo continua no disco até o descarte apagá-lo; os próximos excedentes vão para um arquivo novo
+    private void abandonarSegmento() {
+        if (segmento != null) {
+            descarte.accept(segmento.getArquivo());
+            segmento = null;
+            versao++;
+        }
+    }
+
+    private void adicionarEmMemoria(List<Recado> recados) {
+        for (Recado recado : recados) {
+            emMemoria.adicionar(emMemoria.getArena().guardar(recado.texto), recado.recebidoEm);
+        }
+    }
+
+    private void descartarVencidos() {
+        recarregar();
+        if (politica.getValidadeMillis() == 0) return;
+        long limite = System.currentTimeMillis() - politica.getValidadeMillis();
+        // A fila está em ordem de chegada, então os vencidos estão sempre no início
+        while (!emMemoria.vazia() && emMemoria.instante(0) < limite) {
+            emMemoria.descartarPrimeiro();
+            descartados++;
+            recarregar();
+        }
+    }
+
+    private void aplicarMaximo() {
+        long excesso = emMemoria.tamanho() + pendentesNoSegmento() - politica.getMaximo();
+        for (; excesso > 0; excesso--) {
+            recarregar();
+            emMemoria.descartarPrimeiro();
+            descartados++;
+        }
+    }
+
+    // Leva os recados mais novos, além do limite em memória, para o arquivo (que está vazio)
+    private void deslocarParaSegmento() {
+        List<Recado> mover = new ArrayList<>();
+        while (emMemoria.tamanho() > politica.getLimiteEmMemoria()) {
+            int ultimo = emMemoria.tamanho() - 1;
+            mover.add(new Recado(emMemoria.texto(ultimo), emMemoria.instante(ultimo)));
+            emMemoria.descartarUltimo();
+        }
+        for (int i = mover.size() - 1; i >= 0; i--) {
+            garantirSegmento().anexar(mover.get(i));
+        }
+        versao++;
+    }
+
+    /**
+     * Um recado e o instante em que chegou.
+     */
+    static final class Recado {
+        final String texto;
+        final long recebidoEm;
+        final int tamanhoEmBytes; // Só conhecido nos recados lidos do arquivo
+
+        Recado(String texto, long recebidoEm) {
+            this(texto, recebidoEm, -1);
+        }
+
+        Recado(String texto, long recebidoEm, int tamanhoEmBytes) {
+            this.texto = texto;
+            this.recebidoEm = recebidoEm;
+            this.tamanhoEmBytes = tamanhoEmBytes;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package br.ufal.ic.p2.jackut.models;
+
+import br.ufal.ic.p2.jackut.persistence.Armazenamento;
+import br.ufal.ic.p2.jackut.persistence.ConfiguracaoArmazenamento;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sequência de comandos da Facade para ser executada de uma vez por {@link Facade#executarLote}.
+ *
+ * O vocabulário é o dos scripts de aceitação (tests/*.txt): {@code [variavel=]metodo nome=valor ...},
+ * com valores entre aspas quando têm espaços, {@code ${variavel}} para usar um resultado anterior,
+ * {@code expect valor comando}, {@code expectError mensagem comando}, {@code quit} e comentários com #.
+ * Os argumentos são passados na ordem em que aparecem; o nome antes do = é só documentação.
+ *
+ * O texto é lido e os métodos da Facade são encontrados uma vez só, na criação do lote; o mesmo lote pode
+ * ser executado várias vezes, em Facades diferentes. As variáveis valem só durante uma execução.
+ */
+public final class LoteComandos {
+    private static final Pattern VARIAVEL = Pattern.compile("\\$\\{(\\w+)}");
+    private static final Pattern ATRIBUICAO = Pattern.compile("(\\w+)=(\\w+)");
+    private static final Pattern ARGUMENTO_NOMEADO = Pattern.compile("\\w+=(.*)", Pattern.DOTALL);
+    private static final Map<String, Method> METODOS = mapearMetodos();
+
+    private final List<Comando> comandos;
+
+    private LoteComandos(List<Comando> comandos) {
+        this.comandos = comandos;
+    }
+
+    /**
+     * @param script Comandos, um por linha
+     * @return o lote com os comandos do script
+     * @throws IllegalArgumentException se uma linha estiver mal formada (expect sem comando, aspas abertas)
+     */
+    public static LoteComandos de(String script) {
+        return de(List.of(script.split("\\r?\\n", -1)));
+    }
+
+    /**
+     * @param linhas Comandos, um por elemento
+     * @return o lote com os comandos das linhas
+     * @throws IllegalArgumentException se uma linha estiver mal formada (expect sem comando, aspas abertas)
+     */
+    public static LoteComandos de(List<String> linhas) {
+        List<Comando> comandos = new ArrayList<>();
+        for (int i = 0; i < linhas.size(); i++) {
+            String linha = linhas.get(i).trim();
+            if (linha.isEmpty() || linha.startsWith("#")) continue;
+            comandos.add(Comando.ler(i + 1, linha));
+        }
+        return new LoteComandos(comandos);
+    }
+
+    /**
+     * Lê um script do disco. Os scripts de aceitação (tests/*.txt) estão em UTF-8.
+     * @param arquivo Script
+     * @param charset Codificação do arquivo
+     * @return o lote com os comandos do script
+     * @throws IOException se o arquivo não puder ser lido
+     */
+    public static LoteComandos ler(Path arquivo, Charset charset) throws IOException {
+        return de(Files.readAllLines(arquivo, charset));
+    }
+
+    /**
+     * @return quantidade de comandos do lote, sem contar comentários e linhas vazias
+     */
+    public int size() {
+        return comandos.size();
+    }
+
+    // Chamado pela Facade, que já preparou o cache de sessões do lote
+    List<Resultado> executar(Facade facade) {
+        Map<String, String> variaveis = new HashMap<>();
+        List<Resultado> resultados = new ArrayList<>(comandos.size());
+        for (Comando comando : comandos) {
+            if (comando.metodo == null && comando.nome.equals("quit")) break;
+            resultados.add(comando.executar(facade, variaveis));
+        }
+        return resultados;
+    }
+
+    /**
+     * Resultado de um comando do lote.
+     */
+    public static final class Resultado {
+        private final int linha;
+        private final String comando;
+        private final String valor;
+        private final String erro;
+        private final String falha;
+
+        private Resultado(int linha, String comando, String valor, String erro, String falha) {
+            this.linha = linha;
+            this.comando = comando;
+            this.valor = valor;
+            this.erro = erro;
+            this.falha = falha;
+        }
+
+        /**
+         * @return número da linha do comando no script, a partir de 1
+         */
+        public int getLinha() {
+            return linha;
+        }
+
+        /**
+         * @return o texto do comando, como estava no script
+         */
+        public String getComando() {
+            return comando;
+        }
+
+        /**
+         * @return o retorno do método como texto, ou null se ele não retorna nada ou falhou
+         */
+        public String getValor() {
+            return valor;
+        }
+
+        /**
+         * @return a mensagem da exceção lançada pelo método, ou null se ele terminou normalmente
+         */
+        public String getErro() {
+            return erro;
+        }
+
+        /**
+         * @return por que o comando não teve o resultado esperado, ou null se teve. Sem expect ou
+         *         expectError, o esperado é terminar sem erro
+         */
+        public String getFalha() {
+            return falha;
+        }
+
+        public boolean isOk() {
+            return falha == null;
+        }
+
+        @Override
+        public String toString() {
+            if (falha != null) return "linha " + linha + ": " + falha + " (" + comando + ")";
+            return "linha " + linha + ": " + (erro != null ? "erro: " + erro : valor == null ? "ok" : valor);
+        }
+    }
+
+    private static final class Comando {
+        private final int linha;
+        private final String texto;
+        private final boolean esperaValor;
+        private final boolean esperaErro;
+        private final String esperado;
+        private final String variavel;
+        private final String nome;
+        private final String[] argumentos;
+        // null se nenhum método público da Facade tem esse nome e essa quantidade de argumentos
+        private final Method metodo;
+
+        private Comando(int linha, String texto, boolean esperaValor, boolean esperaErro, String esperado,
+                        String variavel, String nome, String[] argumentos) {
+            this.linha = linha;
+            this.texto = texto;
+            this.esperaValor = esperaValor;
+            this.esperaErro = esperaErro;
+            this.esperado = esperado;
+            this.variavel = variavel;
+            this.nome = nome;
+            this.argumentos = argumentos;
+            this.metodo = METODOS.get(nome + "/" + argumentos.length);
+        }
+
+        private static Comando ler(int linha, String texto) {
+            List<String> partes = separar(texto, linha);
+            int inicio = 0;
+            String esperado = null;
+            boolean esperaValor = partes.get(0).equals("expect");
+            boolean esperaErro = partes.get(0).equals("expectError");
+            if (esperaValor || esperaErro) {
+                if (partes.size() < 3) {
+                    throw new IllegalArgumentException("Linha " + linha + ": " + partes.get(0) + " sem comando");
+                }
+                esperado = semAspas(partes.get(1));
+                inicio = 2;
+            }
+
+            String variavel = null;
+            String nome = partes.get(inicio);
+            Matcher atribuicao = ATRIBUICAO.matcher(nome);
+            if (!esperaValor && !esperaErro && atribuicao.matches()) {
+                variavel = atribuicao.group(1);
+                nome = atribuicao.group(2);
+            }
+            String[] argumentos = new String[partes.size() - inicio - 1];
+            for (int i = 0; i < argumentos.length; i++) {
+                argumentos[i] = valorArgumento(partes.get(inicio + 1 + i));
+            }
+            return new Comando(linha, texto, esperaValor, esperaErro, esperado, variavel, nome, argumentos);
+        }
+
+        private Resultado executar(Facade facade, Map<String, String> variaveis) {
+            String valor = null;
+            String erro = null;
+            try {
+                Object retorno = invocar(facade, variaveis);
+                if (retorno != null) valor = String.valueOf(retorno);
+                if (variavel != null) variaveis.put(variavel, valor);
+            } catch (RuntimeException e) {
+                erro = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            }
+
+            String falha = null;
+            if (esperaErro) {
+                String esperadoAgora = substituir(esperado, variaveis);
+                if (erro == null) falha = "esperado erro \"" + esperadoAgora + "\", mas terminou sem erro";
+                else if (!erro.equals(esperadoAgora)) falha = "esperado erro \"" + esperadoAgora + "\", obtido \"" + erro + "\"";
+            } else if (erro != null) {
+                falha = "erro: " + erro;
+            } else if (esperaValor) {
+                String esperadoAgora = substituir(esperado, variaveis);
+                if (!esperadoAgora.equals(valor)) falha = "esperado \"" + esperadoAgora + "\", obtido \"" + valor + "\"";
+            }
+            return new Resultado(linha, texto, valor, erro, falha);
+        }
+
+        private Object invocar(Facade facade, Map<String, String> variaveis) {
+            if (metodo == null) {
+                throw new IllegalArgumentException("Comando desconhecido: " + nome + "/" + argumentos.length);
+            }
+            Class<?>[] tipos = metodo.getParameterTypes();
+            Object[] valores = new Object[tipos.length];
+            for (int i = 0; i < tipos.length; i++) {
+                String argumento = substituir(argumentos[i], variaveis);
+                if (tipos[i] == int.class) valores[i] = Integer.parseInt(argumento);
+                else if (tipos[i] == long.class) valores[i] = Long.parseLong(argumento);
+                else if (tipos[i] == boolean.class) valores[i] = Boolean.parseBoolean(argumento);
+                else valores[i] = argumento;
+            }
+            try {
+                return metodo.invoke(facade, valores);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new RuntimeException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // Métodos públicos da Facade cujos parâmetros podem vir de texto, por "nome/aridade"
+    private static Map<String, Method> mapearMetodos() {
+        Map<String, Method> metodos = new HashMap<>();
+        for (Method metodo : Facade.class.getMethods()) {
+            if (metodo.getDeclaringClass() != Facade.class || Modifier.isStatic(metodo.getModifiers())) continue;
+            boolean suportado = true;
+            for (Class<?> tipo : metodo.getParameterTypes()) {
+                suportado &= tipo == String.class || tipo == int.class || tipo == long.class || tipo == boolean.class;
+            }
+            if (suportado) {
+                metodos.merge(metodo.getName() + "/" + metodo.getParameterCount(), metodo, LoteComandos::preferirTexto);
+            }
+        }
+        return Collections.unmodifiableMap(metodos);
+    }
+
+    // Entre sobrecargas com a mesma aridade, fica a que recebe mais Strings, como o EasyAccept
+    private static Method preferirTexto(Method a, Method b) {
+        return contarStrings(b) > contarStrings(a) ? b : a;
+    }
+
+    private static int contarStrings(Method metodo) {
+        int total = 0;
+        for (Class<?> tipo : metodo.getParameterTypes()) {
+            if (tipo == String.class) total++;
+        }
+        return total;
+    }
+
+    private static String substituir(String texto, Map<String, String> variaveis) {
+        if (texto.indexOf('$') < 0) return texto;
+        Matcher m = VARIAVEL.matcher(texto);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            String valor = variaveis.get(m.group(1));
+            m.appendReplacement(sb, Matcher.quoteReplacement(valor == null ? "" : valor));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    // login=jpsauve -> jpsauve; nome="Jacques Sauve" -> Jacques Sauve; "a=b" -> a=b
+    private static String valorArgumento(String parte) {
+        if (!parte.startsWith("\"")) {
+            Matcher nomeado = ARGUMENTO_NOMEADO.matcher(parte);
+            if (nomeado.matches()) parte = nomeado.group(1);
+        }
+        return semAspas(parte);
+    }
+
+    private static String semAspas(String parte) {
+        return parte.replace("\"", "");
+    }
+
+    // Separa por espaços, mantendo juntos (e com as aspas) os trechos entre aspas
+    private static List<String> separar(String linha, int numero) {
+        List<String> partes = new ArrayList<>();
+        StringBuilder atual = new StringBuilder();
+        boolean entreAspas = false;
+        for (int i = 0; i < linha.length(); i++) {
+            char c = linha.charAt(i);
+            if (c == '"') {
+                entreAspas = !entreAspas;
+                atual.append(c);
+            } else if (Character.isWhitespace(c) && !entreAspas) {
+                if (atual.length() > 0) partes.add(atual.toString());
+                atual.setLength(0);
+            } else {
+                atual.append(c);
+            }
+        }
+        if (entreAspas) throw new IllegalArgumentException("Linha " + numero + ": aspas não fechadas");
+        if (atual.length() > 0) partes.add(atual.toString());
+        return partes;
+    }
+
+    /**
+     * Executa scripts em sequência, cada um com uma Facade nova sobre o mesmo armazenamento em memória
+     * (como as partes de uma user story), e imprime as falhas.
+     *
+     * Uso: {@code java br.ufal.ic.p2.jackut.models.LoteComandos script1.txt [script2.txt ...]}
+     */
+    public static void main(String[] args) throws IOException {
+        // Mesmo encoding do Main
+        PrintStream saida = new PrintStream(System.out, true, "ISO-8859-1");
+        Armazenamento armazenamento = ConfiguracaoArmazenamento.emMemoria().criar();
+        int falhas = 0;
+        for (String arquivo : args) {
+            long inicio = System.nanoTime();
+            LoteComandos lote = ler(Paths.get(arquivo), StandardCharsets.UTF_8);
+            List<Resultado> resultados = new Facade(armazenamento).executarLote(lote);
+            int falhasScript = 0;
+            for (Resultado resultado : resultados) {
+                if (!resultado.isOk()) {
+                    saida.println(arquivo + ": " + resultado);
+                    falhasScript++;
+                }
+            }
+            falhas += falhasScript;
+            saida.println(arquivo + ": " + resultados.size() + " comandos, " + falhasScript + " falhas ("
+                    + (System.nanoTime() - inicio) / 1_000_000 + " ms)");
+        }
+        System.exit(falhas == 0 ? 0 : 1);
+    }
+}
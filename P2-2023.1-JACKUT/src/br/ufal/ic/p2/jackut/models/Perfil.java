@@ -8,18 +8,27 @@ public class Perfil implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final Map<String, String> atributos = new HashMap<>();
+    private long versao;
 
     public void adicionarAtributo(String chave, String valor) {
         if (chave == null || chave.isEmpty()) {
-            throw new RuntimeException("Atributo no preenchido.");
+            throw new RuntimeException("Atributo não preenchido.");
         }
         atributos.put(chave, valor);
+        versao++;
     }
 
     public String getAtributo(String chave) {
         return atributos.get(chave);
     }
 
+    /**
+     * @return número de atributos gravados desde a criação do perfil
+     */
+    public long getVersao() {
+        return versao;
+    }
+
     public Map<String, String> getAtributos() {
         return atributos;
     }
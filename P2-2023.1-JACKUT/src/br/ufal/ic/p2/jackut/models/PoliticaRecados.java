@@ -0,0 +1,99 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Regras de retenção e armazenamento das filas de recados (ver FilaRecados).
+ *
+ * Sem diretório, todos os recados ficam em memória. Com diretório, só os primeiros
+ * {@code limiteEmMemoria} recados de cada fila ficam no heap; os demais vão para um arquivo
+ * por usuário, lido de volta à medida que os recados da frente são lidos.
+ */
+public final class PoliticaRecados {
+    public static final PoliticaRecados PADRAO = new PoliticaRecados(null, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+
+    private final Path diretorio;
+    private final int limiteEmMemoria;
+    private final int maximo;
+    private final long validadeMillis;
+
+    private PoliticaRecados(Path diretorio, int limiteEmMemoria, int maximo, long validadeMillis) {
+        this.diretorio = diretorio;
+        this.limiteEmMemoria = limiteEmMemoria;
+        this.maximo = maximo;
+        this.validadeMillis = validadeMillis;
+    }
+
+    /**
+     * @param diretorio Diretório dos arquivos de recados excedentes
+     * @param limiteEmMemoria Recados mantidos em memória no início de cada fila
+     * @return cópia desta política que manda o excedente para o disco
+     */
+    public PoliticaRecados comDiretorio(Path diretorio, int limiteEmMemoria) {
+        if (limiteEmMemoria <= 0) {
+            throw new IllegalArgumentException("O limite em memória deve ser positivo.");
+        }
+        return new PoliticaRecados(diretorio, limiteEmMemoria, maximo, validadeMillis);
+    }
+
+    /**
+     * @param maximo Recados guardados por usuário; ao passar disso, os mais antigos são descartados
+     */
+    public PoliticaRecados comMaximo(int maximo) {
+        if (maximo <= 0) {
+            throw new IllegalArgumentException("O máximo de recados deve ser positivo.");
+        }
+        return new PoliticaRecados(diretorio, limiteEmMemoria, maximo, validadeMillis);
+    }
+
+    /**
+     * @param validadeMillis Tempo de vida de um recado não lido, ou 0 para não expirar
+     */
+    public PoliticaRecados comValidade(long validadeMillis) {
+        if (validadeMillis < 0) {
+            throw new IllegalArgumentException("A validade não pode ser negativa.");
+        }
+        return new PoliticaRecados(diretorio, limiteEmMemoria, maximo, validadeMillis);
+    }
+
+    public Path getDiretorio() { return diretorio; }
+    public int getLimiteEmMemoria() { return limiteEmMemoria; }
+    public int getMaximo() { return maximo; }
+    public long getValidadeMillis() { return validadeMillis; }
+
+    /**
+     * @return arquivo de recados com o nome usado antes de a posição ir para o registro do usuário,
+     *         ou null se a política não usa disco
+     */
+    public Path arquivoPara(String login) {
+        if (diretorio == null) return null;
+        return diretorio.resolve(codificar(login) + ".recados");
+    }
+
+    /**
+     * Cada arquivo novo recebe um nome inédito, para que um arquivo ainda citado pelo último salvamento
+     * nunca seja reaproveitado.
+     * @return arquivo ainda inexistente para os recados excedentes do usuário
+     */
+    public Path novoArquivoPara(String login) {
+        if (diretorio == null) throw new IllegalStateException("A política de recados não usa disco.");
+        Path arquivo;
+        do {
+            arquivo = diretorio.resolve(codificar(login) + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".recados");
+        } while (Files.exists(arquivo));
+        return arquivo;
+    }
+
+    // O login vira um nome de arquivo seguro: '/' e afins são codificados
+    private static String codificar(String login) {
+        try {
+            return URLEncoder.encode(login, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package br.ufal.ic.p2.jackut.models;
+
+/**
+ * Arquivo de recados de uma fila (ver FilaRecados) e até onde ele foi lido, no momento de um salvamento.
+ *
+ * É gravado junto com o usuário, então passa a valer na mesma troca de geração que os recados em memória:
+ * ao reabrir, o arquivo é lido de {@code inicio} até {@code fim}, e o que foi acrescentado depois de
+ * {@code fim} (sem salvamento) é cortado.
+ */
+public final class PosicaoArquivoRecados {
+    /** A fila não tinha arquivo: todos os recados estavam no próprio registro. */
+    public static final PosicaoArquivoRecados NENHUM = new PosicaoArquivoRecados(null, 0, 0, 0);
+
+    private final String nome;
+    private final long inicio;
+    private final long fim;
+    private final long pendentes;
+
+    /**
+     * @param nome Nome do arquivo, dentro do diretório da política de recados
+     * @param inicio Posição do primeiro recado não lido
+     * @param fim Tamanho do arquivo no salvamento
+     * @param pendentes Recados entre {@code inicio} e {@code fim}
+     */
+    public PosicaoArquivoRecados(String nome, long inicio, long fim, long pendentes) {
+        this.nome = nome;
+        this.inicio = inicio;
+        this.fim = fim;
+        this.pendentes = pendentes;
+    }
+
+    public String getNome() { return nome; }
+    public long getInicio() { return inicio; }
+    public long getFim() { return fim; }
+    public long getPendentes() { return pendentes; }
+}
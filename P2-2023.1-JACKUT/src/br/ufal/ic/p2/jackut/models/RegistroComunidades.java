@@ -0,0 +1,143 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Mapa de comunidades (nome -> comunidade) com índices por dono e por quantidade de membros.
+ *
+ * Os índices são mantidos a cada inclusão e remoção. Como a posição no índice por tamanho depende
+ * da quantidade de membros, alterações de participação devem passar por {@link #adicionarMembro}
+ * e {@link #removerMembro}; quem alterar os membros diretamente (ex.: ao carregar do disco) deve
+ * chamar {@link #reindexar()} em seguida.
+ */
+public class RegistroComunidades extends AbstractMap<String, Comunidade> {
+    // Maiores primeiro; empate desfeito pelo nome
+    private static final Comparator<Comunidade> POR_TAMANHO = Comparator
+            .comparingInt(Comunidade::getQuantidadeMembros).reversed()
+            .thenComparing(Comunidade::getNome);
+
+    private final Map<String, Comunidade> porNome = new HashMap<>();
+    private final Map<String, Set<String>> porDono = new HashMap<>();
+    private final TreeSet<Comunidade> porTamanho = new TreeSet<>(POR_TAMANHO);
+
+    @Override
+    public Comunidade get(Object nome) {
+        return porNome.get(nome);
+    }
+
+    @Override
+    public boolean containsKey(Object nome) {
+        return porNome.containsKey(nome);
+    }
+
+    @Override
+    public int size() {
+        return porNome.size();
+    }
+
+    @Override
+    public Comunidade put(String nome, Comunidade comunidade) {
+        Comunidade anterior = remove(nome);
+        porNome.put(nome, comunidade);
+        porDono.computeIfAbsent(comunidade.getDono(), d -> new LinkedHashSet<>()).add(nome);
+        porTamanho.add(comunidade);
+        return anterior;
+    }
+
+    @Override
+    public Comunidade remove(Object nome) {
+        Comunidade comunidade = porNome.remove(nome);
+        if (comunidade == null) {
+            return null;
+        }
+        Set<String> doDono = porDono.get(comunidade.getDono());
+        if (doDono != null) {
+            doDono.remove(comunidade.getNome());
+            if (doDono.isEmpty()) {
+                porDono.remove(comunidade.getDono());
+            }
+        }
+        porTamanho.remove(comunidade);
+        return comunidade;
+    }
+
+    @Override
+    public void clear() {
+        porNome.clear();
+        porDono.clear();
+        porTamanho.clear();
+    }
+
+    /**
+     * Visão somente leitura; inclusões e remoções devem usar put/remove para manter os índices.
+     */
+    @Override
+    public Set<Entry<String, Comunidade>> entrySet() {
+        return Collections.unmodifiableMap(porNome).entrySet();
+    }
+
+    /**
+     * Adiciona um membro a uma comunidade do registro, atualizando o índice por tamanho.
+     * @return false se o usuário já era membro
+     */
+    public boolean adicionarMembro(Comunidade comunidade, String login) {
+        boolean indexada = porTamanho.remove(comunidade);
+        boolean adicionado = comunidade.adicionarMembro(login);
+        if (indexada) {
+            porTamanho.add(comunidade);
+        }
+        return adicionado;
+    }
+
+    /**
+     * Remove um membro de uma comunidade do registro, atualizando o índice por tamanho.
+     * @return false se o usuário não era membro
+     */
+    public boolean removerMembro(Comunidade comunidade, String login) {
+        boolean indexada = porTamanho.remove(comunidade);
+        boolean removido = comunidade.removerMembro(login);
+        if (indexada) {
+            porTamanho.add(comunidade);
+        }
+        return removido;
+    }
+
+    /**
+     * @param login Login do dono
+     * @return nomes das comunidades criadas pelo usuário, em ordem de criação
+     */
+    public List<String> getComunidadesDoDono(String login) {
+        Set<String> doDono = porDono.get(login);
+        return doDono == null ? new ArrayList<>() : new ArrayList<>(doDono);
+    }
+
+    /**
+     * @param quantidade Máximo de comunidades retornadas
+     * @return as maiores comunidades, da maior para a menor (empates em ordem alfabética)
+     */
+    public List<Comunidade> getMaiores(int quantidade) {
+        List<Comunidade> maiores = new ArrayList<>(Math.max(0, Math.min(quantidade, porTamanho.size())));
+        for (Comunidade comunidade : porTamanho) {
+            if (maiores.size() >= quantidade) break;
+            maiores.add(comunidade);
+        }
+        return maiores;
+    }
+
+    /**
+     * Reconstrói o índice por tamanho depois de alterações de membros feitas fora do registro.
+     */
+    public void reindexar() {
+        porTamanho.clear();
+        porTamanho.addAll(porNome.values());
+    }
+}
@@ -0,0 +1,221 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Arquivo só de acréscimos com os recados de um usuário que não couberam na memória.
+ *
+ * Cabeçalho de 16 bytes (posição do primeiro recado e quantidade, só lidos em arquivos antigos) seguido
+ * dos recados: instante de recebimento (long), tamanho (int) e texto em UTF-8. O arquivo nunca é
+ * reescrito nem apagado por aqui: a posição de leitura fica em memória e é gravada com o usuário
+ * (ver {@link PosicaoArquivoRecados}), e quem troca de arquivo (ao esvaziar ou filtrar a fila) só apaga
+ * o antigo depois que um salvamento sem ele for confirmado. Assim, reiniciar sem salvar volta
+ * exatamente ao estado do último salvamento.
+ *
+ * O arquivo é aberto a cada operação, para não manter um descritor por usuário.
+ */
+final class SegmentoRecados {
+    private static final int CABECALHO = 16;
+
+    private final Path arquivo;
+    private long inicio;
+    private long fim;
+    private long pendentes;
+
+    private SegmentoRecados(Path arquivo, long inicio, long fim, long pendentes) {
+        this.arquivo = arquivo;
+        this.inicio = inicio;
+        this.fim = fim;
+        this.pendentes = pendentes;
+    }
+
+    /**
+     * Cria um arquivo novo, vazio. O nome deve ser inédito (ver {@link PoliticaRecados#novoArquivoPara}).
+     */
+    static SegmentoRecados criar(Path arquivo) {
+        try {
+            Files.createDirectories(arquivo.getParent());
+            try (RandomAccessFile raf = new RandomAccessFile(arquivo.toFile(), "rw")) {
+                raf.setLength(0);
+                byte[] cabecalho = new byte[CABECALHO];
+                escreverLong(cabecalho, 0, CABECALHO);
+                raf.write(cabecalho);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao criar recados em " + arquivo, e);
+        }
+        return new SegmentoRecados(arquivo, CABECALHO, CABECALHO, 0);
+    }
+
+    /**
+     * Reabre um arquivo na posição gravada com o usuário. O que passa de {@code fim} foi acrescentado
+     * depois desse salvamento e é cortado.
+     * @throws UncheckedIOException se o arquivo for menor que o registrado
+     */
+    static SegmentoRecados abrir(Path arquivo, PosicaoArquivoRecados posicao) {
+        try (RandomAccessFile raf = new RandomAccessFile(arquivo.toFile(), "rw")) {
+            if (raf.length() < posicao.getFim()) {
+                throw new IOException("arquivo com " + raf.length() + " bytes; o salvamento registrou " + posicao.getFim());
+            }
+            raf.setLength(posicao.getFim());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao abrir recados de " + arquivo, e);
+        }
+        return new SegmentoRecados(arquivo, posicao.getInicio(), posicao.getFim(), posicao.getPendentes());
+    }
+
+    /**
+     * Abre um arquivo gravado antes de a posição ir para o registro do usuário, confiando no cabeçalho.
+     */
+    static SegmentoRecados abrirAntigo(Path arquivo) {
+        try (RandomAccessFile raf = new RandomAccessFile(arquivo.toFile(), "r")) {
+            return new SegmentoRecados(arquivo, raf.readLong(), raf.length(), raf.readLong());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao abrir recados de " + arquivo, e);
+        }
+    }
+
+    Path getArquivo() {
+        return arquivo;
+    }
+
+    long getPendentes() {
+        return pendentes;
+    }
+
+    /**
+     * @return posição atual, para ser gravada com o usuário
+     */
+    PosicaoArquivoRecados getPosicao() {
+        return new PosicaoArquivoRecados(arquivo.getFileName().toString(), inicio, fim, pendentes);
+    }
+
+    void anexar(FilaRecados.Recado recado) {
+        try (RandomAccessFile raf = new RandomAccessFile(arquivo.toFile(), "rw")) {
+            byte[] texto = recado.texto.getBytes(StandardCharsets.UTF_8);
+            byte[] registro = new byte[12 + texto.length];
+            escreverLong(registro, 0, recado.recebidoEm);
+            escreverInt(registro, 8, texto.length);
+            System.arraycopy(texto, 0, registro, 12, texto.length);
+            raf.seek(fim);
+            raf.write(registro);
+            fim += registro.length;
+            pendentes++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao gravar recado em " + arquivo, e);
+        }
+    }
+
+    /**
+     * Retira até {@code quantidade} recados do início do segmento. Só a posição em memória avança.
+     */
+    void retirar(int quantidade, List<FilaRecados.Recado> destino) {
+        if (pendentes == 0) return;
+        int antes = destino.size();
+        inicio = espiar(inicio, (int) Math.min(quantidade, pendentes), destino);
+        pendentes -= destino.size() - antes;
+    }
+
+    /**
+     * Lê recados sem retirá-los.
+     * @param posicao Posição do primeiro recado, ou -1 para o início dos pendentes
+     * @return posição seguinte ao último recado lido
+     */
+    long espiar(long posicao, int quantidade, List<FilaRecados.Recado> destino) {
+        if (pendentes == 0) return posicao;
+        try (RandomAccessFile raf = new RandomAccessFile(arquivo.toFile(), "r")) {
+            return ler(raf, posicao < 0 ? inicio : posicao, quantidade, destino);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler recados de " + arquivo, e);
+        }
+    }
+
+    /**
+     * Copia para um arquivo novo os recados pendentes que não satisfazem o filtro. Este arquivo não muda.
+     * @param novo Arquivo de destino, com nome inédito
+     * @return este segmento, se nada foi removido; o segmento do novo arquivo; ou null, se nada restou
+     */
+    SegmentoRecados filtrar(Predicate<FilaRecados.Recado> filtro, Path novo) {
+        if (pendentes == 0) return this;
+        SegmentoRecados filtrado = criar(novo);
+        long mantidos = 0;
+        try (RandomAccessFile origem = new RandomAccessFile(arquivo.toFile(), "r");
+             RandomAccessFile destinoRaf = new RandomAccessFile(novo.toFile(), "rw")) {
+            origem.seek(inicio);
+            DataInputStream entrada = new DataInputStream(new BufferedInputStream(Channels.newInputStream(origem.getChannel())));
+            destinoRaf.seek(CABECALHO);
+            DataOutputStream destino = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(destinoRaf.getChannel())));
+            for (long i = 0; i < pendentes; i++) {
+                FilaRecados.Recado recado = lerRegistro(entrada);
+                if (!filtro.test(recado)) {
+                    destino.writeLong(recado.recebidoEm);
+                    destino.writeInt(recado.tamanhoEmBytes);
+                    destino.write(recado.texto.getBytes(StandardCharsets.UTF_8));
+                    filtrado.fim += 12 + recado.tamanhoEmBytes;
+                    mantidos++;
+                }
+            }
+            destino.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao filtrar recados de " + arquivo, e);
+        }
+        filtrado.pendentes = mantidos;
+
+        if (mantidos < pendentes && mantidos > 0) return filtrado;
+        try {
+            Files.delete(novo);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao filtrar recados de " + arquivo, e);
+        }
+        return mantidos == 0 ? null : this;
+    }
+
+    /**
+     * @return posição seguinte ao último recado lido
+     */
+    private long ler(RandomAccessFile raf, long posicao, long quantidade, List<FilaRecados.Recado> destino) throws IOException {
+        raf.seek(posicao);
+        // Lido com buffer; o RandomAccessFile lê cada long byte a byte
+        DataInputStream entrada = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+        for (long lidos = 0; lidos < quantidade && posicao < fim; lidos++) {
+            FilaRecados.Recado recado = lerRegistro(entrada);
+            posicao += 12 + recado.tamanhoEmBytes;
+            destino.add(recado);
+        }
+        return posicao;
+    }
+
+    private static FilaRecados.Recado lerRegistro(DataInput entrada) throws IOException {
+        long recebidoEm = entrada.readLong();
+        byte[] texto = new byte[entrada.readInt()];
+        entrada.readFully(texto);
+        return new FilaRecados.Recado(new String(texto, StandardCharsets.UTF_8), recebidoEm, texto.length);
+    }
+
+    private static void escreverLong(byte[] destino, int pos, long valor) {
+        for (int i = 7; i >= 0; i--) {
+            destino[pos + i] = (byte) valor;
+            valor >>>= 8;
+        }
+    }
+
+    private static void escreverInt(byte[] destino, int pos, int valor) {
+        for (int i = 3; i >= 0; i--) {
+            destino[pos + i] = (byte) valor;
+            valor >>>= 8;
+        }
+    }
+}
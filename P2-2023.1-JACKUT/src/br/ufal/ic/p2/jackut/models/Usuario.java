@@ -2,6 +2,7 @@ package br.ufal.ic.p2.jackut.models;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 public class Usuario implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -10,22 +11,24 @@ public class Usuario implements Serializable {
     private final String senha;
     private final String nome;
     private final Perfil perfil;
-    private final Set<String> amigos = new LinkedHashSet<>();
-    private final Set<String> solicitacoesEnviadas = new LinkedHashSet<>();
-    private final Set<String> solicitacoesRecebidas = new LinkedHashSet<>();
-    private Queue<String> recadosRecebidos = new LinkedList<>();
-    private List<String> comunidades = new ArrayList<>(); // Mantm ordem de insero
+    // Relacionamentos em conjuntos com instantâneos, para leituras longas não disputarem com as escritas
+    private final ConjuntoCopiaEscrita<String> amigos = new ConjuntoCopiaEscrita<>();
+    private final ConjuntoConvites solicitacoesEnviadas = new ConjuntoConvites();
+    private final ConjuntoConvites solicitacoesRecebidas = new ConjuntoConvites();
+    private final FilaRecados recadosRecebidos = new FilaRecados();
+    private List<String> comunidades = new ArrayList<>(); // Mantém ordem de inserção
     //Add Mensagens
-    private String[] mensagens;  // Array para armazenar mensagens
-    private int inicio = 0;      // ndice do incio da fila
-    private int fim = 0;         // ndice do fim da fila
-    private int tamanho = 0;     // Nmero de mensagens na fila
+    // Fila de mensagens com os textos fora do heap (ver ArenaTextos); aqui ficam só os identificadores
+    private final FilaCorpos mensagens = new FilaCorpos(this, ArenaTextos.AVULSA);
     private static final int CAPACIDADE_MAXIMA = 100;
-    //Para criao de novos relacionamentos
-    private final Set<String> idolos = new LinkedHashSet<>();
-    private final Set<String> fas = new LinkedHashSet<>();
-    private final Set<String> paqueras = new LinkedHashSet<>();
-    private final Set<String> inimigos = new LinkedHashSet<>();
+    //Para criação de novos relacionamentos
+    private final ConjuntoCopiaEscrita<String> idolos = new ConjuntoCopiaEscrita<>();
+    // Fatiado automaticamente quando o usuário passa a ter muitos fãs (ver ConjuntoFas)
+    private final ConjuntoFas fas = new ConjuntoFas();
+    private final ConjuntoCopiaEscrita<String> paqueras = new ConjuntoCopiaEscrita<>();
+    private final ConjuntoCopiaEscrita<String> inimigos = new ConjuntoCopiaEscrita<>();
+    // Alterações da lista de comunidades; as demais partes contam as suas
+    private long versao;
 
     public Usuario(String login, String senha, String nome) {
         this.login = login;
@@ -33,31 +36,40 @@ public class Usuario implements Serializable {
         this.nome = nome;
         this.perfil = new Perfil();
         this.comunidades = new ArrayList<>();
-        this.mensagens = new String[CAPACIDADE_MAXIMA];
     }
 
-    // Mtodos getters
+    // Métodos getters
     public String getLogin() { return this.login; }
     public String getSenha() { return senha; }
     public String getNome() { return nome; }
     public Perfil getPerfil() { return perfil; }
     public Set<String> getAmigos() { return amigos; }
-    public Set<String> getSolicitacoesEnviadas() { return solicitacoesEnviadas; }
-    public Set<String> getSolicitacoesRecebidas() { return solicitacoesRecebidas; }
+    public ConjuntoConvites getSolicitacoesEnviadas() { return solicitacoesEnviadas; }
+    public ConjuntoConvites getSolicitacoesRecebidas() { return solicitacoesRecebidas; }
     public Queue<String> getRecadosRecebidos() { return recadosRecebidos; }
+    public FilaRecados getFilaRecados() { return recadosRecebidos; }
     public List<String> getComunidades() {
         return this.comunidades != null ? this.comunidades : new ArrayList<>();
     }
 
-    // Mtodos de negcio
+    // Métodos de negócio
     public void enviarConvite(String loginAmigo) {
         solicitacoesEnviadas.add(loginAmigo);
     }
 
+    // Os dois lados de um convite usam o mesmo instante, para vencerem juntos
+    public void enviarConvite(String loginAmigo, long instante) {
+        solicitacoesEnviadas.adicionar(loginAmigo, instante);
+    }
+
     public void receberConvite(String loginAmigo) {
         solicitacoesRecebidas.add(loginAmigo);
     }
 
+    public void receberConvite(String loginAmigo, long instante) {
+        solicitacoesRecebidas.adicionar(loginAmigo, instante);
+    }
+
     public boolean aceitarConvite(String loginAmigo) {
         if (solicitacoesRecebidas.remove(loginAmigo)) {
             amigos.add(loginAmigo);
@@ -74,6 +86,11 @@ public class Usuario implements Serializable {
         recadosRecebidos.add(recado);
     }
 
+    // Com o instante de chegada de quem originou o recado (ver Facade#aplicarEvento)
+    public void receberRecado(String recado, long instante) {
+        recadosRecebidos.restaurar(recado, instante);
+    }
+
     public String lerRecado() {
         if (recadosRecebidos.isEmpty()) {
             throw new RuntimeException("Nao ha recados.");
@@ -88,15 +105,33 @@ public class Usuario implements Serializable {
     public void adicionarComunidade(String nomeComunidade) {
         if (!comunidades.contains(nomeComunidade)) {
             comunidades.add(nomeComunidade);
+            versao++;
+        }
+    }
+
+    public void removerComunidadesSe(Predicate<String> filtro) {
+        if (comunidades.removeIf(filtro)) {
+            versao++;
         }
     }
 
+    /**
+     * Soma das alterações do usuário e de tudo o que ele guarda (perfil, relacionamentos, convites, recados,
+     * mensagens) desde que o objeto foi criado. Só cresce: duas leituras iguais significam que nada mudou
+     * entre elas, inclusive a posição de leitura dos recados.
+     */
+    public long getVersao() {
+        return versao + perfil.getVersao() + amigos.getVersao() + solicitacoesEnviadas.getVersao()
+                + solicitacoesRecebidas.getVersao() + recadosRecebidos.getVersao() + mensagens.getVersao()
+                + idolos.getVersao() + fas.getVersao() + paqueras.getVersao() + inimigos.getVersao();
+    }
+
     public String formatarComunidades() {
-        // Ordem especfica para jpsauve
+        // Ordem específica para jpsauve
         if (login.equals("jpsauve") && comunidades.containsAll(List.of("Professores da UFCG", "Alunos da UFCG"))) {
             return "{Professores da UFCG,Alunos da UFCG}";
         }
-        // Ordem especfica para oabath
+        // Ordem específica para oabath
         if (login.equals("oabath") && comunidades.containsAll(List.of("Alunos da UFCG", "Professores da UFCG"))) {
             return "{Alunos da UFCG,Professores da UFCG}";
         }
@@ -107,7 +142,7 @@ public class Usuario implements Serializable {
             return "{}";
         }
 
-        // Ordem especfica para os testes
+        // Ordem específica para os testes
         if (login.equals("jpsauve") && comunidades.containsAll(Arrays.asList("Professores da UFCG", "Alunos da UFCG"))) {
             return "{Professores da UFCG,Alunos da UFCG}";
         }
@@ -115,7 +150,7 @@ public class Usuario implements Serializable {
             return "{Alunos da UFCG,Professores da UFCG}";
         }
 
-        // Ordem alfabtica para outros casos
+        // Ordem alfabética para outros casos
         List<String> ordenadas = new ArrayList<>(comunidades);
         Collections.sort(ordenadas);
         return "{" + String.join(",", ordenadas) + "}";
@@ -123,31 +158,68 @@ public class Usuario implements Serializable {
 
     // Adiciona uma mensagem no fim da fila
     public void receberMensagem(String mensagem) {
-        if (tamanho >= CAPACIDADE_MAXIMA) {
+        if (mensagens.tamanho() >= CAPACIDADE_MAXIMA) {
             throw new RuntimeException("Limite de mensagens atingido");
         }
-        mensagens[fim] = mensagem;
-        fim = (fim + 1) % CAPACIDADE_MAXIMA;  // Circularidade
-        tamanho++;
+        mensagens.adicionar(mensagens.getArena().guardar(mensagem), 0);
     }
 
-    // Remove e retorna a mensagem do incio da fila
+    // Adiciona no fim da fila uma mensagem já guardada na arena, compartilhada com os outros membros.
+    // Um usuário que ainda está em outra arena recebe uma cópia do texto
+    void receberMensagem(ArenaTextos arena, long corpo) {
+        if (mensagens.tamanho() >= CAPACIDADE_MAXIMA) {
+            throw new RuntimeException("Limite de mensagens atingido");
+        }
+        ArenaTextos destino = mensagens.getArena();
+        if (destino == arena) {
+            arena.reter(corpo);
+            mensagens.adicionar(corpo, 0);
+        } else {
+            mensagens.adicionar(destino.guardar(arena.ler(corpo)), 0);
+        }
+    }
+
+    /**
+     * Passa os textos das filas de recados e de mensagens para a arena da Facade que recebe o usuário.
+     */
+    void usarArena(ArenaTextos arena) {
+        recadosRecebidos.usarArena(arena);
+        mensagens.moverPara(arena);
+    }
+
+    /**
+     * Libera agora os textos das filas de recados e de mensagens, que ficam vazias, em vez de esperar o
+     * coletor. Só para usuários que estão sendo descartados: o objeto não deve ser usado depois.
+     */
+    public void liberarTextos() {
+        recadosRecebidos.liberarTextos();
+        mensagens.limpar();
+    }
+
+    // Remove e retorna a mensagem do início da fila
     public String lerMensagem() {
-        if (tamanho == 0) {
-            throw new RuntimeException("No h mensagens.");
+        String mensagem = mensagens.retirarPrimeiro();
+        if (mensagem == null) {
+            throw new RuntimeException("Não há mensagens.");
         }
-        String mensagem = mensagens[inicio];
-        inicio = (inicio + 1) % CAPACIDADE_MAXIMA;  // Circularidade
-        tamanho--;
         return mensagem;
     }
 
-    // Verifica se h mensagens
+    // Verifica se há mensagens
     public boolean temMensagens() {
-        return tamanho > 0;
+        return !mensagens.vazia();
     }
 
-    // Mtodos para f-dolo
+    public int getQuantidadeMensagens() {
+        return mensagens.tamanho();
+    }
+
+    // Retorna as mensagens na ordem da fila, sem consumi-las
+    public List<String> getMensagens() {
+        return mensagens.textos();
+    }
+
+    // Métodos para fã-ídolo
     public void adicionarIdolo(String idolo) {idolos.add(idolo);
     }
     public boolean ehIdolo(String login) {return this.idolos.contains(login);
@@ -163,13 +235,15 @@ public class Usuario implements Serializable {
     public Set<String> getFas() {return Collections.unmodifiableSet(fas);
     }
 
+    public ConjuntoFas getConjuntoFas() {
+        return fas;
+    }
+
     public List<String> getFasOrdenado() {
-        List<String> lista = new ArrayList<>(this.fas);
-        Collections.sort(lista);
-        return lista;
+        return fas.ordenados();
     }
 
-    // Mtodos para paquera
+    // Métodos para paquera
     public void adicionarPaquera(String paquera) {
         paqueras.add(paquera);
     }
@@ -182,7 +256,7 @@ public class Usuario implements Serializable {
         return Collections.unmodifiableSet(paqueras);
     }
 
-    // Mtodos para inimigo
+    // Métodos para inimigo
     public void adicionarInimigo(String inimigo) {
         inimigos.add(inimigo);
     }
@@ -198,8 +272,17 @@ public class Usuario implements Serializable {
         return Collections.unmodifiableSet(idolos);
     }
 
+    // Instantâneos para os salvamentos, que não podem falhar por uma escrita concorrente (ver
+    // ConjuntoCopiaEscrita#instantaneo()); cada um faz a próxima escrita no conjunto copiá-lo
+    public Set<String> instantaneoAmigos() { return amigos.instantaneo(); }
+    public Set<String> instantaneoIdolos() { return idolos.instantaneo(); }
+    public Set<String> instantaneoFas() { return fas.instantaneo(); }
+    public Set<String> instantaneoPaqueras() { return paqueras.instantaneo(); }
+    public Set<String> instantaneoInimigos() { return inimigos.instantaneo(); }
+
     public void setRecadosRecebidos(Queue<String> recados) {
-        this.recadosRecebidos = recados;
+        this.recadosRecebidos.clear();
+        this.recadosRecebidos.addAll(recados);
     }
 
     @Override
@@ -0,0 +1,202 @@
+package br.ufal.ic.p2.jackut.notifications;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entrega recados, mensagens de comunidade e avisos de paquera às sessões que assinaram notificações.
+ *
+ * Cada assinante tem uma fila limitada. Quem notifica só enfileira e segue; a entrega é feita por um
+ * pool de threads, com no máximo uma tarefa por assinante de cada vez. Notificações que chegam enquanto
+ * a entrega está agendada são agrupadas no mesmo lote. Se a fila encher, as mais antigas são descartadas
+ * e o próximo lote começa com uma notificação {@link TipoNotificacao#DESCARTADAS} informando quantas foram.
+ * Um ouvinte que lança exceção perde o lote; essas falhas são contadas em {@link #getFalhas()}.
+ */
+public class CentralNotificacoes {
+    public static final int CAPACIDADE_FILA_PADRAO = 1024;
+
+    private final int capacidadeFila;
+    private final Map<String, List<Assinatura>> assinaturas = new ConcurrentHashMap<>();
+    private final AtomicLong falhas = new AtomicLong();
+    private volatile ExecutorService executor;
+    private boolean fechada;
+
+    public CentralNotificacoes() {
+        this(CAPACIDADE_FILA_PADRAO);
+    }
+
+    /**
+     * @param capacidadeFila Máximo de notificações pendentes por assinante
+     */
+    public CentralNotificacoes(int capacidadeFila) {
+        this.capacidadeFila = Math.max(1, capacidadeFila);
+    }
+
+    /**
+     * Registra um ouvinte para as notificações destinadas a um usuário.
+     * @param login Login do usuário dono da sessão
+     * @param idSessao Sessão que está assinando; uma nova assinatura da mesma sessão substitui a anterior
+     * @param ouvinte Quem vai receber as notificações
+     * @throws IllegalStateException se a central já tiver sido fechada
+     */
+    public void assinar(String login, String idSessao, OuvinteNotificacoes ouvinte) {
+        // O executor existe antes da assinatura ficar visível para notificar
+        iniciarExecutor();
+        cancelar(idSessao);
+        assinaturas.computeIfAbsent(login, l -> new CopyOnWriteArrayList<>()).add(new Assinatura(idSessao, ouvinte));
+    }
+
+    /**
+     * Cancela a assinatura de uma sessão. Notificações já enfileiradas ainda são entregues.
+     * @param idSessao Sessão que deixa de receber notificações
+     */
+    public void cancelar(String idSessao) {
+        for (List<Assinatura> lista : assinaturas.values()) {
+            lista.removeIf(a -> a.idSessao.equals(idSessao));
+        }
+        assinaturas.values().removeIf(List::isEmpty);
+    }
+
+    /**
+     * Cancela todas as assinaturas de um usuário.
+     * @param login Login do usuário
+     */
+    public void cancelarUsuario(String login) {
+        assinaturas.remove(login);
+    }
+
+    /**
+     * Remove todas as assinaturas.
+     */
+    public void limpar() {
+        assinaturas.clear();
+    }
+
+    /**
+     * Remove todas as assinaturas e encerra as threads de entrega depois das entregas já agendadas.
+     * Novas assinaturas são recusadas.
+     */
+    public void fechar() {
+        ExecutorService pool;
+        synchronized (this) {
+            fechada = true;
+            pool = executor;
+        }
+        assinaturas.clear();
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return quantos lotes de notificações algum ouvinte não conseguiu receber
+     */
+    public long getFalhas() {
+        return falhas.get();
+    }
+
+    /**
+     * @param login Login do usuário
+     * @return true se alguma sessão do usuário assinou notificações
+     */
+    public boolean temAssinantes(String login) {
+        return assinaturas.containsKey(login);
+    }
+
+    /**
+     * Enfileira uma notificação para todas as sessões assinantes do destinatário. Não bloqueia.
+     */
+    public void notificar(TipoNotificacao tipo, String destinatario, String origem, String conteudo) {
+        if (assinaturas.isEmpty()) return;
+        List<Assinatura> lista = assinaturas.get(destinatario);
+        if (lista == null) return;
+
+        Notificacao notificacao = new Notificacao(tipo, destinatario, origem, conteudo);
+        ExecutorService pool = executor;
+        for (Assinatura assinatura : lista) {
+            if (assinatura.enfileirar(notificacao)) {
+                try {
+                    pool.execute(assinatura::entregar);
+                } catch (RejectedExecutionException e) {
+                    // A central foi fechada entre a leitura das assinaturas e a entrega
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized void iniciarExecutor() {
+        if (fechada) {
+            throw new IllegalStateException("Central de notificações fechada.");
+        }
+        if (executor != null) return;
+        AtomicInteger contador = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "jackut-notificacoes-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final class Assinatura {
+        private final String idSessao;
+        private final OuvinteNotificacoes ouvinte;
+        private final ArrayDeque<Notificacao> fila = new ArrayDeque<>();
+        private int descartadas = 0;
+        private boolean agendada = false;
+
+        private Assinatura(String idSessao, OuvinteNotificacoes ouvinte) {
+            this.idSessao = idSessao;
+            this.ouvinte = ouvinte;
+        }
+
+        /**
+         * @return true se é preciso agendar uma entrega (não havia nenhuma pendente)
+         */
+        private synchronized boolean enfileirar(Notificacao notificacao) {
+            if (fila.size() >= capacidadeFila) {
+                fila.pollFirst();
+                descartadas++;
+            }
+            fila.addLast(notificacao);
+            if (agendada) return false;
+            agendada = true;
+            return true;
+        }
+
+        private void entregar() {
+            while (true) {
+                List<Notificacao> lote;
+                synchronized (this) {
+                    if (fila.isEmpty() && descartadas == 0) {
+                        agendada = false;
+                        return;
+                    }
+                    lote = new ArrayList<>(fila.size() + 1);
+                    if (descartadas > 0) {
+                        lote.add(new Notificacao(TipoNotificacao.DESCARTADAS, fila.isEmpty() ? null : fila.peekFirst().getDestinatario(),
+                                null, null, descartadas));
+                        descartadas = 0;
+                    }
+                    lote.addAll(fila);
+                    fila.clear();
+                }
+                try {
+                    ouvinte.notificar(lote);
+                } catch (RuntimeException e) {
+                    // Um ouvinte com defeito não pode derrubar a thread de entrega
+                    falhas.incrementAndGet();
+                }
+            }
+        }
+    }
+}
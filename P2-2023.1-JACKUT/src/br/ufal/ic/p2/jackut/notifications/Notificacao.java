@@ -0,0 +1,39 @@
+package br.ufal.ic.p2.jackut.notifications;
+
+/**
+ * Uma notificação entregue a um assinante. Imutável.
+ */
+public final class Notificacao {
+    private final TipoNotificacao tipo;
+    private final String destinatario;
+    private final String origem;
+    private final String conteudo;
+    private final int quantidade;
+
+    public Notificacao(TipoNotificacao tipo, String destinatario, String origem, String conteudo) {
+        this(tipo, destinatario, origem, conteudo, 1);
+    }
+
+    public Notificacao(TipoNotificacao tipo, String destinatario, String origem, String conteudo, int quantidade) {
+        this.tipo = tipo;
+        this.destinatario = destinatario;
+        this.origem = origem;
+        this.conteudo = conteudo;
+        this.quantidade = quantidade;
+    }
+
+    public TipoNotificacao getTipo() { return tipo; }
+    public String getDestinatario() { return destinatario; }
+    public String getOrigem() { return origem; }
+    public String getConteudo() { return conteudo; }
+
+    /**
+     * @return quantas notificações esta representa (maior que 1 apenas para {@link TipoNotificacao#DESCARTADAS})
+     */
+    public int getQuantidade() { return quantidade; }
+
+    @Override
+    public String toString() {
+        return tipo + "[" + origem + " -> " + destinatario + "]: " + conteudo;
+    }
+}
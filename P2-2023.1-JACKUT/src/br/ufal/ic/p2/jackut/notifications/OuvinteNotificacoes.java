@@ -0,0 +1,12 @@
+package br.ufal.ic.p2.jackut.notifications;
+
+import java.util.List;
+
+/**
+ * Recebe as notificações de uma sessão assinante.
+ * As notificações de um mesmo assinante chegam em ordem e nunca em paralelo.
+ */
+@FunctionalInterface
+public interface OuvinteNotificacoes {
+    void notificar(List<Notificacao> notificacoes);
+}
@@ -0,0 +1,11 @@
+package br.ufal.ic.p2.jackut.notifications;
+
+/**
+ * Tipos de notificação entregues aos assinantes.
+ */
+public enum TipoNotificacao {
+    RECADO,     // origem = remetente, conteudo = recado
+    MENSAGEM,   // origem = comunidade, conteudo = mensagem
+    PAQUERA,    // origem = paquera correspondida, conteudo = recado do Jackut
+    DESCARTADAS // a fila do assinante encheu; quantidade = notificações agrupadas nesta
+}
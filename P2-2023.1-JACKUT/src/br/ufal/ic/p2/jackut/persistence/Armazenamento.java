@@ -0,0 +1,93 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Contrato dos mecanismos de persistência do Jackut.
+ * A Facade conversa apenas com esta interface; o formato em disco fica a cargo de cada implementação.
+ */
+public interface Armazenamento extends Closeable {
+
+    /**
+     * Cria o mapa (login -> usuário) que a Facade vai usar, sem configuração dos usuários lidos.
+     * @return mapa de usuários vazio ou apoiado no armazenamento
+     */
+    default Map<String, Usuario> criarMapaUsuarios() {
+        return criarMapaUsuarios(usuario -> { });
+    }
+
+    /**
+     * Cria o mapa (login -> usuário) que a Facade vai usar.
+     * Armazenamentos que não cabem inteiros na memória devolvem um mapa que busca os usuários sob demanda;
+     * esse mapa passa pelo configurador cada usuário que lê (de novo) do armazenamento. Um mapa comum
+     * recebe todos os usuários em {@link #carregar} e ignora o configurador.
+     * @param configurador Aplica a um usuário recém-lido as configurações de quem usa o mapa
+     * @return mapa de usuários vazio ou apoiado no armazenamento
+     */
+    default Map<String, Usuario> criarMapaUsuarios(Consumer<Usuario> configurador) {
+        return new HashMap<>();
+    }
+
+    /**
+     * Indica se o mapa de {@link #criarMapaUsuarios()} devolve sempre o mesmo objeto para um login enquanto
+     * o usuário existir. Quem tira usuários da memória e os lê de novo como objetos novos devolve false,
+     * e a Facade não guarda referências a usuários entre uma chamada e outra.
+     * @return true se os usuários ficam todos na memória depois de lidos
+     */
+    default boolean mantemUsuariosNaMemoria() {
+        return true;
+    }
+
+    /**
+     * Carrega os usuários e comunidades persistidos.
+     * @param usuarios Mapa (login -> usuário) que receberá os usuários lidos
+     * @param comunidades Mapa (nome -> comunidade) que receberá as comunidades lidas
+     * @throws RuntimeException se ocorrer erro ao ler os dados
+     */
+    void carregar(Map<String, Usuario> usuarios, Map<String, Comunidade> comunidades);
+
+    /**
+     * Persiste uma cópia independente do estado: os recados que estão nos arquivos de recados
+     * (ver PoliticaRecados) são gravados no próprio registro de cada usuário.
+     * @param usuarios Usuários a serem salvos
+     * @param comunidades Comunidades a serem salvas
+     * @throws RuntimeException se ocorrer erro ao gerar os dados
+     */
+    void salvar(Collection<Usuario> usuarios, Collection<Comunidade> comunidades);
+
+    /**
+     * Persiste o estado da Facade dona deste armazenamento. Os arquivos de recados continuam sendo dela:
+     * cada usuário grava só o nome do seu arquivo e a posição de leitura, que passam a valer junto com o
+     * restante do salvamento. Quem não distingue os dois casos grava a cópia completa.
+     * @param usuarios Usuários a serem salvos
+     * @param comunidades Comunidades a serem salvas
+     * @param aoConfirmar Executado, possivelmente em outra thread, quando o salvamento estiver no disco
+     * @throws RuntimeException se ocorrer erro ao gerar os dados
+     */
+    default void salvar(Collection<Usuario> usuarios, Collection<Comunidade> comunidades, Runnable aoConfirmar) {
+        salvar(usuarios, comunidades);
+        aoConfirmar.run();
+    }
+
+    /**
+     * Bloqueia até que todas as gravações pendentes deste armazenamento tenham chegado ao disco.
+     * @throws RuntimeException se alguma dessas gravações tiver falhado
+     */
+    default void sincronizar() {
+    }
+
+    /**
+     * Libera os arquivos abertos e demais recursos. Não salva nada; o armazenamento não deve ser usado depois.
+     * @throws RuntimeException se algum recurso não puder ser fechado
+     */
+    @Override
+    default void close() {
+    }
+}
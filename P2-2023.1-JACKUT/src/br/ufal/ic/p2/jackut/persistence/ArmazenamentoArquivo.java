@@ -0,0 +1,166 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.Usuario;
+import br.ufal.ic.p2.jackut.profiling.EventoPersistencia;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Base dos armazenamentos que guardam usuários e comunidades em dois arquivos de um diretório.
+ * A serialização acontece na thread de quem chama {@link #salvar}; a escrita em disco fica com o {@link GravadorAssincrono}.
+ */
+public abstract class ArmazenamentoArquivo implements Armazenamento {
+    private final Path diretorio;
+    private final Path arquivoUsuarios;
+    private final Path arquivoComunidades;
+    private boolean comprimir = false;
+
+    protected ArmazenamentoArquivo(Path diretorio, String nomeUsuarios, String nomeComunidades) {
+        this.diretorio = diretorio;
+        this.arquivoUsuarios = diretorio.resolve(nomeUsuarios);
+        this.arquivoComunidades = diretorio.resolve(nomeComunidades);
+    }
+
+    public Path getDiretorio() { return diretorio; }
+    public Path getArquivoUsuarios() { return arquivoUsuarios; }
+    public Path getArquivoComunidades() { return arquivoComunidades; }
+
+    /**
+     * Liga ou desliga a compressão (DEFLATE, em contêiner GZIP) dos próximos salvamentos.
+     * A leitura detecta sozinha se um arquivo está comprimido, então os dois formatos convivem.
+     * @param comprimir true para comprimir os arquivos gravados
+     */
+    public void setComprimir(boolean comprimir) { this.comprimir = comprimir; }
+    public boolean isComprimir() { return comprimir; }
+
+    @Override
+    public void carregar(Map<String, Usuario> usuarios, Map<String, Comunidade> comunidades) {
+        // Um salvamento ainda na fila precisa chegar ao disco antes de ser lido de volta
+        sincronizar();
+        try {
+            // Confere as somas de verificação e conclui uma troca de geração interrompida
+            GeracaoArquivos.recuperar(diretorio);
+            carregarUsuarios(usuarios);
+            carregarComunidades(comunidades);
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao carregar usuários e comunidades", e);
+        }
+    }
+
+    protected void carregarUsuarios(Map<String, Usuario> usuarios) throws IOException {
+        if (Files.exists(arquivoUsuarios)) {
+            EventoPersistencia medicao = EventoPersistencia.iniciar("leitura", arquivoUsuarios);
+            int antes = usuarios.size();
+            try (InputStream in = abrirLeitura(arquivoUsuarios)) {
+                lerUsuarios(in, usuarios);
+            }
+            medicao.setBytes(Files.size(arquivoUsuarios));
+            medicao.setRegistros(usuarios.size() - antes);
+            medicao.concluir();
+        }
+    }
+
+    protected void carregarComunidades(Map<String, Comunidade> comunidades) throws IOException {
+        if (Files.exists(arquivoComunidades)) {
+            EventoPersistencia medicao = EventoPersistencia.iniciar("leitura", arquivoComunidades);
+            int antes = comunidades.size();
+            try (InputStream in = abrirLeitura(arquivoComunidades)) {
+                lerComunidades(in, comunidades);
+            }
+            medicao.setBytes(Files.size(arquivoComunidades));
+            medicao.setRegistros(comunidades.size() - antes);
+            medicao.concluir();
+        }
+    }
+
+    @Override
+    public void salvar(Collection<Usuario> usuarios, Collection<Comunidade> comunidades) {
+        salvar(usuarios, comunidades, true, null);
+    }
+
+    @Override
+    public void salvar(Collection<Usuario> usuarios, Collection<Comunidade> comunidades, Runnable aoConfirmar) {
+        salvar(usuarios, comunidades, false, aoConfirmar);
+    }
+
+    private void salvar(Collection<Usuario> usuarios, Collection<Comunidade> comunidades, boolean completo, Runnable aoConfirmar) {
+        try {
+            EventoPersistencia medicao = EventoPersistencia.iniciar("serializacao", arquivoUsuarios);
+            ByteArrayOutputStream bytesUsuarios = new ByteArrayOutputStream();
+            try (OutputStream out = abrirEscrita(bytesUsuarios)) {
+                escreverUsuarios(usuarios, out, completo);
+            }
+            medicao.setBytes(bytesUsuarios.size());
+            medicao.setRegistros(usuarios.size());
+            medicao.concluir();
+
+            medicao = EventoPersistencia.iniciar("serializacao", arquivoComunidades);
+            ByteArrayOutputStream bytesComunidades = new ByteArrayOutputStream();
+            try (OutputStream out = abrirEscrita(bytesComunidades)) {
+                escreverComunidades(comunidades, out);
+            }
+            medicao.setBytes(bytesComunidades.size());
+            medicao.setRegistros(comunidades.size());
+            medicao.concluir();
+
+            Map<Path, byte[]> lote = new LinkedHashMap<>();
+            lote.put(arquivoUsuarios, bytesUsuarios.toByteArray());
+            lote.put(arquivoComunidades, bytesComunidades.toByteArray());
+            GravadorAssincrono.instancia().agendar(diretorio, lote, aoConfirmar);
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao salvar dados", e);
+        }
+    }
+
+    @Override
+    public void sincronizar() {
+        GravadorAssincrono.instancia().aguardar(diretorio);
+    }
+
+    /**
+     * Espera a gravação pendente deste diretório, para que uma falha no último salvamento não se perca.
+     * @throws RuntimeException se essa gravação tiver falhado
+     */
+    @Override
+    public void close() {
+        sincronizar();
+    }
+
+    /**
+     * @return true se o arquivo começa com o número mágico do GZIP
+     */
+    protected static boolean estaComprimido(Path arquivo) throws IOException {
+        try (InputStream in = Files.newInputStream(arquivo)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    private static InputStream abrirLeitura(Path arquivo) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(arquivo), 1 << 16);
+        return estaComprimido(arquivo) ? new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16) : in;
+    }
+
+    private OutputStream abrirEscrita(OutputStream destino) throws IOException {
+        return comprimir ? new GZIPOutputStream(destino, 1 << 16) : destino;
+    }
+
+    protected abstract void lerUsuarios(InputStream in, Map<String, Usuario> destino) throws IOException;
+
+    protected abstract void lerComunidades(InputStream in, Map<String, Comunidade> destino) throws IOException;
+
+    /**
+     * @param completo true para gravar no registro os recados que estão nos arquivos de recados;
+     *                 false para gravar só o nome do arquivo e a posição de leitura
+     */
+    protected abstract void escreverUsuarios(Collection<Usuario> usuarios, OutputStream out, boolean completo) throws IOException;
+
+    protected abstract void escreverComunidades(Collection<Comunidade> comunidades, OutputStream out) throws IOException;
+}
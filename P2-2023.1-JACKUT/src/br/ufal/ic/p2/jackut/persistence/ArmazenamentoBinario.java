@@ -0,0 +1,339 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.FilaRecados;
+import br.ufal.ic.p2.jackut.models.PosicaoArquivoRecados;
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Formato binário compacto (usuarios.bin e comunidades.bin) baseado em DataOutputStream.
+ * Cada arquivo começa com um número mágico e a versão do formato, seguidos da quantidade de registros.
+ *
+ * A partir da versão 2, usuarios.bin traz antes dos registros um dicionário com todos os logins
+ * (ordenados e com prefixo compartilhado), e as listas de relacionamentos guardam apenas a diferença
+ * entre ids consecutivos em varint. A ordem original das listas é preservada.
+ *
+ * A partir da versão 5, cada usuário termina com o arquivo de recados (ver PosicaoArquivoRecados).
+ */
+public class ArmazenamentoBinario extends ArmazenamentoArquivo {
+    private static final int MAGICO_USUARIOS = 0x4A4B5455; // "JKTU"
+    private static final int MAGICO_COMUNIDADES = 0x4A4B5443; // "JKTC"
+    // 3: instante de envio dos convites; 4: de chegada dos recados; 5: arquivo de recados e posição de leitura
+    private static final int VERSAO_USUARIOS = 5;
+    private static final byte SEM_INFORMACAO_ARQUIVO = 0;
+    private static final byte SEM_ARQUIVO = 1;
+    private static final byte COM_ARQUIVO = 2;
+    private static final int VERSAO_COMUNIDADES = 1;
+
+    public ArmazenamentoBinario(Path diretorio) {
+        super(diretorio, "usuarios.bin", "comunidades.bin");
+    }
+
+    @Override
+    protected void lerUsuarios(InputStream in, Map<String, Usuario> destino) throws IOException {
+        DataInputStream dados = new DataInputStream(in);
+        int versao = verificarCabecalho(dados, MAGICO_USUARIOS, VERSAO_USUARIOS);
+        String[] logins = versao >= 2 ? lerDicionario(dados) : null;
+        int quantidade = dados.readInt();
+        for (int i = 0; i < quantidade; i++) {
+            Usuario usuario = lerUsuario(dados, logins, versao);
+            destino.put(usuario.getLogin(), usuario);
+        }
+    }
+
+    @Override
+    protected void lerComunidades(InputStream in, Map<String, Comunidade> destino) throws IOException {
+        DataInputStream dados = new DataInputStream(in);
+        verificarCabecalho(dados, MAGICO_COMUNIDADES, VERSAO_COMUNIDADES);
+        int quantidade = dados.readInt();
+        for (int i = 0; i < quantidade; i++) {
+            Comunidade comunidade = new Comunidade(lerTexto(dados), lerTexto(dados), lerTexto(dados));
+            int membros = dados.readInt();
+            for (int j = 0; j < membros; j++) {
+                comunidade.adicionarMembro(lerTexto(dados));
+            }
+            destino.put(comunidade.getNome(), comunidade);
+        }
+    }
+
+    @Override
+    protected void escreverUsuarios(Collection<Usuario> usuarios, OutputStream out, boolean completo) throws IOException {
+        DataOutputStream dados = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        dados.writeInt(MAGICO_USUARIOS);
+        dados.writeInt(VERSAO_USUARIOS);
+        Map<String, Integer> ids = escreverDicionario(dados, usuarios);
+        dados.writeInt(usuarios.size());
+        for (Usuario usuario : usuarios) {
+            escreverUsuario(usuario, dados, ids, completo);
+        }
+        dados.flush();
+    }
+
+    @Override
+    protected void escreverComunidades(Collection<Comunidade> comunidades, OutputStream out) throws IOException {
+        DataOutputStream dados = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        dados.writeInt(MAGICO_COMUNIDADES);
+        dados.writeInt(VERSAO_COMUNIDADES);
+        dados.writeInt(comunidades.size());
+        for (Comunidade comunidade : comunidades) {
+            escreverTexto(dados, comunidade.getNome());
+            escreverTexto(dados, comunidade.getDescricao());
+            escreverTexto(dados, comunidade.getDono());
+            escreverLista(dados, comunidade.getMembrosEmOrdemInsercao());
+        }
+        dados.flush();
+    }
+
+    /**
+     * Lê um usuário no formato de registro avulso, com os logins escritos por extenso.
+     * O registro começa com a versão do formato, negada (ver {@link #escreverUsuario(Usuario, DataOutput, boolean)}).
+     * @param registro Bytes gravados por {@link #escreverUsuario(Usuario, DataOutput, boolean)}
+     */
+    static Usuario lerUsuario(byte[] registro) throws IOException {
+        DataInputStream dados = new DataInputStream(new ByteArrayInputStream(registro));
+        int versao = -dados.readInt();
+        if (versao < 3 || versao > VERSAO_USUARIOS) {
+            throw new IOException("Versão de formato não suportada: " + versao);
+        }
+        return lerUsuario(dados, null, versao);
+    }
+
+    /**
+     * Lê um usuário completo, na mesma ordem usada por {@link #escreverUsuario}.
+     * @param logins Dicionário de logins por id, ou null se os logins estiverem por extenso
+     * @param versao Versão do formato em que o usuário foi gravado
+     */
+    static Usuario lerUsuario(DataInput dados, String[] logins, int versao) throws IOException {
+        Usuario usuario = new Usuario(lerTexto(dados), lerTexto(dados), lerTexto(dados));
+
+        int atributos = dados.readInt();
+        for (int i = 0; i < atributos; i++) {
+            usuario.getPerfil().adicionarAtributo(lerTexto(dados), lerTexto(dados));
+        }
+        lerLogins(dados, logins, usuario.getAmigos()::add);
+        List<String> enviados = new ArrayList<>();
+        List<String> recebidos = new ArrayList<>();
+        lerLogins(dados, logins, enviados::add);
+        lerLogins(dados, logins, recebidos::add);
+        List<String> recados = new ArrayList<>();
+        for (int i = dados.readInt(); i > 0; i--) recados.add(lerTexto(dados));
+        for (int i = dados.readInt(); i > 0; i--) usuario.adicionarComunidade(lerTexto(dados));
+        for (int i = dados.readInt(); i > 0; i--) usuario.receberMensagem(lerTexto(dados));
+        lerLogins(dados, logins, usuario::adicionarIdolo);
+        lerLogins(dados, logins, usuario::adicionarFa);
+        lerLogins(dados, logins, usuario::adicionarPaquera);
+        lerLogins(dados, logins, usuario::adicionarInimigo);
+
+        boolean temDatas = versao >= 3;
+        long agora = System.currentTimeMillis();
+        for (String login : enviados) {
+            usuario.getSolicitacoesEnviadas().restaurar(login, temDatas ? dados.readLong() : agora);
+        }
+        for (String login : recebidos) {
+            usuario.getSolicitacoesRecebidas().restaurar(login, temDatas ? dados.readLong() : agora);
+        }
+        for (String recado : recados) {
+            usuario.getFilaRecados().restaurar(recado, versao >= 4 ? dados.readLong() : agora);
+        }
+        if (versao >= 5) {
+            byte arquivo = dados.readByte();
+            if (arquivo == SEM_ARQUIVO) {
+                usuario.getFilaRecados().restaurarPosicaoArquivo(PosicaoArquivoRecados.NENHUM);
+            } else if (arquivo == COM_ARQUIVO) {
+                usuario.getFilaRecados().restaurarPosicaoArquivo(new PosicaoArquivoRecados(
+                        lerTexto(dados), dados.readLong(), dados.readLong(), dados.readLong()));
+            }
+        }
+        return usuario;
+    }
+
+    /**
+     * Escreve um usuário no formato de registro avulso: a versão do formato, negada, e o usuário
+     * com os logins por extenso.
+     */
+    static void escreverUsuario(Usuario usuario, DataOutput dados, boolean completo) throws IOException {
+        dados.writeInt(-VERSAO_USUARIOS);
+        escreverUsuario(usuario, dados, null, completo);
+    }
+
+    /**
+     * Escreve um usuário completo: dados básicos, perfil, relacionamentos, recados e mensagens.
+     * @param ids Ids do dicionário de logins, ou null para escrever os logins por extenso
+     * @param completo true para incluir os recados do arquivo de recados em vez da posição de leitura
+     */
+    static void escreverUsuario(Usuario usuario, DataOutput dados, Map<String, Integer> ids, boolean completo) throws IOException {
+        escreverTexto(dados, usuario.getLogin());
+        escreverTexto(dados, usuario.getSenha());
+        escreverTexto(dados, usuario.getNome());
+
+        Map<String, String> atributos = usuario.getPerfil().getAtributos();
+        dados.writeInt(atributos.size());
+        for (Map.Entry<String, String> entry : atributos.entrySet()) {
+            escreverTexto(dados, entry.getKey());
+            escreverTexto(dados, entry.getValue());
+        }
+        escreverLogins(dados, usuario.instantaneoAmigos(), ids);
+        // Cópias: um convite pode vencer entre a escrita dos logins e a dos instantes
+        Map<String, Long> enviados = new LinkedHashMap<>(usuario.getSolicitacoesEnviadas().getComDatas());
+        Map<String, Long> recebidos = new LinkedHashMap<>(usuario.getSolicitacoesRecebidas().getComDatas());
+        escreverLogins(dados, enviados.keySet(), ids);
+        escreverLogins(dados, recebidos.keySet(), ids);
+        FilaRecados fila = usuario.getFilaRecados();
+        List<Map.Entry<String, Long>> recados = completo ? fila.getTodosComDatas() : fila.getEmMemoriaComDatas();
+        PosicaoArquivoRecados arquivo = completo ? PosicaoArquivoRecados.NENHUM : fila.getPosicaoArquivo();
+        dados.writeInt(recados.size());
+        for (Map.Entry<String, Long> recado : recados) escreverTexto(dados, recado.getKey());
+        escreverLista(dados, usuario.getComunidades());
+        escreverLista(dados, usuario.getMensagens());
+        escreverLogins(dados, usuario.instantaneoIdolos(), ids);
+        escreverLogins(dados, usuario.instantaneoFas(), ids);
+        escreverLogins(dados, usuario.instantaneoPaqueras(), ids);
+        escreverLogins(dados, usuario.instantaneoInimigos(), ids);
+        for (long instante : enviados.values()) dados.writeLong(instante);
+        for (long instante : recebidos.values()) dados.writeLong(instante);
+        for (Map.Entry<String, Long> recado : recados) dados.writeLong(recado.getValue());
+        if (arquivo == null) {
+            dados.writeByte(SEM_INFORMACAO_ARQUIVO);
+        } else if (arquivo.getNome() == null) {
+            dados.writeByte(SEM_ARQUIVO);
+        } else {
+            dados.writeByte(COM_ARQUIVO);
+            escreverTexto(dados, arquivo.getNome());
+            dados.writeLong(arquivo.getInicio());
+            dados.writeLong(arquivo.getFim());
+            dados.writeLong(arquivo.getPendentes());
+        }
+    }
+
+    /**
+     * Reúne todos os logins citados (usuários e relacionamentos), ordena e grava com codificação
+     * de prefixo: cada login guarda só quantos bytes compartilha com o anterior e o restante.
+     * @return id de cada login, na ordem gravada
+     */
+    private static Map<String, Integer> escreverDicionario(DataOutput dados, Collection<Usuario> usuarios) throws IOException {
+        TreeSet<String> todos = new TreeSet<>();
+        for (Usuario usuario : usuarios) {
+            todos.add(usuario.getLogin());
+            todos.addAll(usuario.instantaneoAmigos());
+            todos.addAll(usuario.getSolicitacoesEnviadas());
+            todos.addAll(usuario.getSolicitacoesRecebidas());
+            todos.addAll(usuario.instantaneoIdolos());
+            todos.addAll(usuario.instantaneoFas());
+            todos.addAll(usuario.instantaneoPaqueras());
+            todos.addAll(usuario.instantaneoInimigos());
+        }
+
+        Map<String, Integer> ids = new HashMap<>(todos.size() * 2);
+        escreverVarint(dados, todos.size());
+        byte[] anterior = new byte[0];
+        for (String login : todos) {
+            byte[] atual = login.getBytes(StandardCharsets.UTF_8);
+            int comum = 0;
+            while (comum < anterior.length && comum < atual.length && anterior[comum] == atual[comum]) comum++;
+            escreverVarint(dados, comum);
+            escreverVarint(dados, atual.length - comum);
+            dados.write(atual, comum, atual.length - comum);
+            ids.put(login, ids.size());
+            anterior = atual;
+        }
+        return ids;
+    }
+
+    private static String[] lerDicionario(DataInput dados) throws IOException {
+        String[] logins = new String[lerVarint(dados)];
+        byte[] anterior = new byte[0];
+        for (int i = 0; i < logins.length; i++) {
+            int comum = lerVarint(dados);
+            byte[] atual = new byte[comum + lerVarint(dados)];
+            System.arraycopy(anterior, 0, atual, 0, comum);
+            dados.readFully(atual, comum, atual.length - comum);
+            logins[i] = new String(atual, StandardCharsets.UTF_8);
+            anterior = atual;
+        }
+        return logins;
+    }
+
+    // Diferença entre ids consecutivos em zigzag, para que listas fora de ordem também fiquem pequenas
+    private static void escreverLogins(DataOutput dados, Collection<String> logins, Map<String, Integer> ids) throws IOException {
+        if (ids == null) {
+            escreverLista(dados, logins);
+            return;
+        }
+        escreverVarint(dados, logins.size());
+        int anterior = 0;
+        for (String login : logins) {
+            int id = ids.get(login);
+            int delta = id - anterior;
+            escreverVarint(dados, (delta << 1) ^ (delta >> 31));
+            anterior = id;
+        }
+    }
+
+    private static void lerLogins(DataInput dados, String[] logins, Consumer<String> destino) throws IOException {
+        if (logins == null) {
+            for (int i = dados.readInt(); i > 0; i--) destino.accept(lerTexto(dados));
+            return;
+        }
+        int anterior = 0;
+        for (int i = lerVarint(dados); i > 0; i--) {
+            int zigzag = lerVarint(dados);
+            anterior += (zigzag >>> 1) ^ -(zigzag & 1);
+            destino.accept(logins[anterior]);
+        }
+    }
+
+    private static void escreverVarint(DataOutput dados, int valor) throws IOException {
+        while ((valor & ~0x7F) != 0) {
+            dados.writeByte((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        dados.writeByte(valor);
+    }
+
+    private static int lerVarint(DataInput dados) throws IOException {
+        int valor = 0;
+        for (int deslocamento = 0; deslocamento < 32; deslocamento += 7) {
+            int b = dados.readUnsignedByte();
+            valor |= (b & 0x7F) << deslocamento;
+            if ((b & 0x80) == 0) return valor;
+        }
+        throw new IOException("Varint inválido");
+    }
+
+    private static int verificarCabecalho(DataInput dados, int magicoEsperado, int versaoMaxima) throws IOException {
+        if (dados.readInt() != magicoEsperado) {
+            throw new IOException("Arquivo binário do Jackut inválido");
+        }
+        int versao = dados.readInt();
+        if (versao < 1 || versao > versaoMaxima) {
+            throw new IOException("Versão de formato não suportada: " + versao);
+        }
+        return versao;
+    }
+
+    private static void escreverLista(DataOutput dados, Collection<String> valores) throws IOException {
+        dados.writeInt(valores.size());
+        for (String valor : valores) {
+            escreverTexto(dados, valor);
+        }
+    }
+
+    // writeUTF limita o texto a 64 KB, o que não serve para recados longos
+    static void escreverTexto(DataOutput dados, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        dados.writeInt(bytes.length);
+        dados.write(bytes);
+    }
+
+    static String lerTexto(DataInput dados) throws IOException {
+        byte[] bytes = new byte[dados.readInt()];
+        dados.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
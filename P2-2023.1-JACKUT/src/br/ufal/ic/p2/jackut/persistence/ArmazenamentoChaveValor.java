@@ -0,0 +1,176 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.Usuario;
+import br.ufal.ic.p2.jackut.profiling.EventoPersistencia;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Armazenamento em lojas chave-valor embarcadas (usuarios.kv e comunidades.kv).
+ * Os usuários não são carregados na inicialização: a Facade recebe um {@link MapaUsuariosCache}
+ * que busca cada usuário na loja quando ele é usado e mantém na memória só os mais recentes.
+ * As comunidades, bem menos numerosas, continuam carregadas por inteiro.
+ *
+ * Tudo o que chega às lojas entre dois salvamentos (usuários que saem do cache, criados ou removidos) só
+ * vale para esta instância até {@link #salvar} confirmar as lojas; se o processo parar antes disso, a
+ * próxima abertura volta ao último salvamento. A confirmação é feita primeiro na loja de usuários e depois
+ * na de comunidades, então uma queda exatamente entre as duas deixa usuários mais novos que as comunidades.
+ */
+public class ArmazenamentoChaveValor implements Armazenamento {
+    public static final int CAPACIDADE_CACHE_PADRAO = 10_000;
+
+    private final LojaChaveValor lojaUsuarios;
+    private final LojaChaveValor lojaComunidades;
+    private final MapaUsuariosCache mapaUsuarios;
+
+    public ArmazenamentoChaveValor(Path diretorio) {
+        this(diretorio, CAPACIDADE_CACHE_PADRAO);
+    }
+
+    /**
+     * @param diretorio Diretório das lojas
+     * @param capacidadeCache Quantidade máxima de usuários mantidos na memória
+     * @throws RuntimeException se as lojas não puderem ser abertas
+     */
+    public ArmazenamentoChaveValor(Path diretorio, int capacidadeCache) {
+        try {
+            this.lojaUsuarios = new LojaChaveValor(diretorio.resolve("usuarios.kv"));
+            this.lojaComunidades = new LojaChaveValor(diretorio.resolve("comunidades.kv"));
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao abrir armazenamento em " + diretorio, e);
+        }
+        this.mapaUsuarios = new MapaUsuariosCache(lojaUsuarios, capacidadeCache);
+    }
+
+    @Override
+    public Map<String, Usuario> criarMapaUsuarios(Consumer<Usuario> configurador) {
+        mapaUsuarios.setConfigurador(configurador);
+        return mapaUsuarios;
+    }
+
+    /**
+     * Usuários que saem do cache LRU voltam como objetos novos.
+     */
+    @Override
+    public boolean mantemUsuariosNaMemoria() {
+        return false;
+    }
+
+    @Override
+    public void carregar(Map<String, Usuario> usuarios, Map<String, Comunidade> comunidades) {
+        if (usuarios != mapaUsuarios) {
+            for (String login : lojaUsuarios.chaves()) {
+                usuarios.put(login, mapaUsuarios.get(login));
+            }
+        }
+        EventoPersistencia medicao = EventoPersistencia.iniciar("leitura", lojaComunidades.getArquivo());
+        long bytes = 0;
+        for (String nome : lojaComunidades.chaves()) {
+            try {
+                byte[] registro = lojaComunidades.ler(nome);
+                bytes += registro.length;
+                DataInputStream dados = new DataInputStream(new ByteArrayInputStream(registro));
+                Comunidade comunidade = new Comunidade(ArmazenamentoBinario.lerTexto(dados),
+                        ArmazenamentoBinario.lerTexto(dados), ArmazenamentoBinario.lerTexto(dados));
+                for (int i = dados.readInt(); i > 0; i--) {
+                    comunidade.adicionarMembro(ArmazenamentoBinario.lerTexto(dados));
+                }
+                comunidades.put(nome, comunidade);
+            } catch (IOException e) {
+                throw new RuntimeException("Erro ao carregar comunidade " + nome, e);
+            }
+        }
+        medicao.setBytes(bytes);
+        medicao.setRegistros(lojaComunidades.quantidade());
+        medicao.concluir();
+    }
+
+    /**
+     * Regrava os usuários alterados que ainda estão no cache, substitui as comunidades da loja e confirma
+     * as duas lojas. Usuários que não vêm do próprio mapa desta loja (salvarEm, restauração de réplica)
+     * substituem todos os da loja. Compacta os logs quando o espaço morto passa da metade.
+     */
+    @Override
+    public void salvar(Collection<Usuario> usuarios, Collection<Comunidade> comunidades) {
+        // AbstractMap devolve sempre a mesma visão de values()
+        if (usuarios == mapaUsuarios.values()) {
+            mapaUsuarios.descarregar();
+        } else {
+            mapaUsuarios.substituir(usuarios);
+        }
+
+        Set<String> existentes = new HashSet<>(lojaComunidades.chaves());
+        for (Comunidade comunidade : comunidades) {
+            gravarComunidade(comunidade);
+            existentes.remove(comunidade.getNome());
+        }
+        existentes.forEach(lojaComunidades::remover);
+        confirmar();
+    }
+
+    /**
+     * Fecha as duas lojas. O que não foi salvo se perde, inclusive usuários que já saíram do cache.
+     */
+    @Override
+    public void close() {
+        IOException erro = null;
+        // As duas são fechadas mesmo que a primeira falhe
+        for (LojaChaveValor loja : List.of(lojaUsuarios, lojaComunidades)) {
+            try {
+                loja.close();
+            } catch (IOException e) {
+                if (erro == null) erro = e;
+                else erro.addSuppressed(e);
+            }
+        }
+        if (erro != null) {
+            throw new RuntimeException("Erro ao fechar armazenamento", erro);
+        }
+    }
+
+    /**
+     * Apaga todos os usuários e comunidades da loja, a partir da próxima confirmação.
+     */
+    void limpar() {
+        mapaUsuarios.clear();
+        lojaComunidades.limpar();
+    }
+
+    /**
+     * Grava (ou regrava) uma comunidade na loja, sem mexer nas demais.
+     */
+    void gravarComunidade(Comunidade comunidade) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dados = new DataOutputStream(bytes);
+            ArmazenamentoBinario.escreverTexto(dados, comunidade.getNome());
+            ArmazenamentoBinario.escreverTexto(dados, comunidade.getDescricao());
+            ArmazenamentoBinario.escreverTexto(dados, comunidade.getDono());
+            List<String> membros = comunidade.getMembrosEmOrdemInsercao();
+            dados.writeInt(membros.size());
+            for (String membro : membros) {
+                ArmazenamentoBinario.escreverTexto(dados, membro);
+            }
+            lojaComunidades.gravar(comunidade.getNome(), bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao salvar comunidade " + comunidade.getNome(), e);
+        }
+    }
+
+    /**
+     * Confirma as duas lojas (ver {@link LojaChaveValor#confirmar()}) e compacta as que têm mais da metade
+     * de espaço morto.
+     */
+    void confirmar() {
+        for (LojaChaveValor loja : List.of(lojaUsuarios, lojaComunidades)) {
+            loja.confirmar();
+            if (loja.precisaCompactar()) {
+                loja.compactar();
+            }
+        }
+    }
+}
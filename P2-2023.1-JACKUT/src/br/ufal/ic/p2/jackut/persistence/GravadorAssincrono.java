@@ -0,0 +1,155 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread de fundo que grava em disco os lotes gerados pelos armazenamentos.
+ * Quem salva apenas enfileira os bytes já serializados e segue em frente; a escrita acontece aqui.
+ * Lotes pendentes para o mesmo diretório são agrupados: só o mais recente é gravado, e as ações de
+ * confirmação do lote substituído rodam junto com as dele.
+ * Uma falha fica guardada com o diretório do lote e é entregue a quem aguardar por aquele diretório.
+ * Falhas que ninguém buscou até o fim da JVM são escritas na saída de erro pelo gancho de encerramento,
+ * já que nesse ponto não há mais quem receba a exceção.
+ */
+public final class GravadorAssincrono {
+    private static final GravadorAssincrono INSTANCIA = new GravadorAssincrono();
+
+    private final Map<Path, Map<Path, byte[]>> pendentes = new LinkedHashMap<>();
+    private final Map<Path, List<Runnable>> aoConfirmar = new HashMap<>();
+    private Thread thread;
+    private Path gravando;
+    private final Map<Path, RuntimeException> erros = new HashMap<>();
+
+    private GravadorAssincrono() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::encerrar, "jackut-gravador-shutdown"));
+    }
+
+    public static GravadorAssincrono instancia() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Enfileira um lote de arquivos para gravação. Substitui qualquer lote ainda não gravado do mesmo diretório.
+     * @param diretorio Diretório de destino do lote
+     * @param arquivos Arquivos (caminho -> conteúdo) a serem escritos
+     */
+    public void agendar(Path diretorio, Map<Path, byte[]> arquivos) {
+        agendar(diretorio, arquivos, null);
+    }
+
+    /**
+     * Enfileira um lote e uma ação a executar, nesta thread de fundo, quando ele estiver gravado.
+     * Se o lote for substituído por um mais novo, a ação espera a gravação do novo; se a gravação falhar, ela não roda.
+     * @param diretorio Diretório de destino do lote
+     * @param arquivos Arquivos (caminho -> conteúdo) a serem escritos
+     * @param confirmacao Ação executada depois da gravação, ou null
+     */
+    public synchronized void agendar(Path diretorio, Map<Path, byte[]> arquivos, Runnable confirmacao) {
+        pendentes.remove(diretorio);
+        pendentes.put(diretorio, arquivos);
+        if (confirmacao != null) {
+            aoConfirmar.computeIfAbsent(diretorio, d -> new ArrayList<>()).add(confirmacao);
+        }
+        if (thread == null) {
+            thread = new Thread(this::executar, "jackut-gravador");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Bloqueia até que a fila esteja vazia e nenhum lote esteja sendo escrito.
+     * As falhas continuam guardadas para {@link #aguardar(Path)} de cada diretório.
+     */
+    public synchronized void aguardar() {
+        while (!pendentes.isEmpty() || gravando != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Bloqueia até que o lote de um diretório, se houver, tenha sido gravado.
+     * @param diretorio Diretório passado a {@link #agendar}
+     * @throws RuntimeException se uma gravação nesse diretório tiver falhado desde a última chamada
+     */
+    public synchronized void aguardar(Path diretorio) {
+        while (pendentes.containsKey(diretorio) || diretorio.equals(gravando)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        RuntimeException erro = erros.remove(diretorio);
+        if (erro != null) {
+            throw erro;
+        }
+    }
+
+    /**
+     * Gancho de encerramento: espera os lotes pendentes e relata as falhas não entregues.
+     */
+    private void encerrar() {
+        aguardar();
+        synchronized (this) {
+            for (RuntimeException erro : erros.values()) {
+                System.err.println(erro.getMessage() + ": " + erro.getCause());
+            }
+            erros.clear();
+        }
+    }
+
+    private void executar() {
+        while (true) {
+            Path diretorio;
+            Map<Path, byte[]> lote;
+            List<Runnable> confirmacoes;
+            synchronized (this) {
+                while (pendentes.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                diretorio = pendentes.keySet().iterator().next();
+                lote = pendentes.remove(diretorio);
+                confirmacoes = aoConfirmar.remove(diretorio);
+                gravando = diretorio;
+            }
+
+            try {
+                gravar(diretorio, lote);
+                if (confirmacoes != null) {
+                    confirmacoes.forEach(Runnable::run);
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    erros.put(diretorio, new RuntimeException("Erro ao salvar dados em " + diretorio, e));
+                }
+            } finally {
+                synchronized (this) {
+                    gravando = null;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void gravar(Path diretorio, Map<Path, byte[]> lote) throws IOException {
+        GeracaoArquivos.gravar(diretorio, lote);
+    }
+}
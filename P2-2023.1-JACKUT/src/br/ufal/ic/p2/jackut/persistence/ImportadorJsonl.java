@@ -0,0 +1,377 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Importa um arquivo JSONL no formato de {@link ExportadorJsonl} para um diretório de dados,
+ * sem carregar tudo na memória.
+ *
+ * O arquivo é lido por um FileChannel em blocos, cortados no fim da última linha completa; os blocos
+ * são decodificados em paralelo e remontados em ordem, um usuário (ou comunidade) por vez. Cada usuário
+ * completo é gravado no destino e descartado. Por isso as linhas de um usuário precisam vir juntas,
+ * logo depois da linha "usuario", como o exportador as escreve.
+ *
+ * Destinos suportados: texto (arquivos .usr gravados como uma nova geração, ver GeracaoArquivos) e
+ * chave-valor. O formato binário começa com o dicionário de todos os logins, que só se conhece no
+ * fim da importação; para ele, importe em texto e converta.
+ */
+public class ImportadorJsonl {
+    static final int TAMANHO_BLOCO = 1024 * 1024;
+
+    private final int threads;
+
+    public ImportadorJsonl() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads Quantas threads decodificam blocos do arquivo
+     */
+    public ImportadorJsonl(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Quantidade de threads deve ser positiva.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Substitui os dados do diretório pelos do arquivo. Nenhuma Facade pode estar usando o diretório.
+     * @param arquivo Arquivo JSONL de origem
+     * @param diretorio Diretório de dados de destino
+     * @param formato TEXTO ou CHAVE_VALOR
+     * @return quantidade de linhas importadas
+     * @throws IOException se a leitura ou a escrita falhar, ou se o arquivo tiver linhas inválidas ou fora de ordem
+     * @throws IllegalArgumentException se o formato for BINARIO
+     */
+    public long importar(Path arquivo, Path diretorio, ConfiguracaoArmazenamento.Formato formato) throws IOException {
+        Destino destino;
+        switch (formato) {
+            case TEXTO: destino = new DestinoTexto(diretorio); break;
+            case CHAVE_VALOR: destino = new DestinoChaveValor(diretorio); break;
+            default:
+                throw new IllegalArgumentException("Importação para o formato " + formato + " não é suportada; importe em texto e converta.");
+        }
+
+        ExecutorService decodificadores = Executors.newFixedThreadPool(threads, tarefa -> {
+            Thread thread = new Thread(tarefa, "jackut-importacao");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Montador montador = new Montador(destino);
+        ArrayDeque<Future<List<Map<String, String>>>> pendentes = new ArrayDeque<>();
+        boolean concluido = false;
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            ByteBuffer leitura = ByteBuffer.allocate(TAMANHO_BLOCO);
+            byte[] sobra = new byte[0];
+            boolean fim = false;
+            while (!fim) {
+                leitura.clear();
+                fim = canal.read(leitura) < 0;
+                leitura.flip();
+
+                byte[] bloco = Arrays.copyOf(sobra, sobra.length + leitura.remaining());
+                leitura.get(bloco, sobra.length, leitura.remaining());
+                int corte = fim ? bloco.length : ultimaQuebra(bloco) + 1;
+                sobra = Arrays.copyOfRange(bloco, corte, bloco.length);
+                // Uma linha maior que o bloco continua acumulando na sobra
+                if (corte == 0) continue;
+
+                pendentes.add(decodificadores.submit(() -> decodificar(bloco, corte)));
+                while (pendentes.size() > 2 * threads) {
+                    montador.aplicar(aguardar(pendentes.poll()));
+                }
+            }
+            while (!pendentes.isEmpty()) {
+                montador.aplicar(aguardar(pendentes.poll()));
+            }
+            montador.concluir();
+            concluido = true;
+            destino.concluir();
+            return montador.linhas;
+        } finally {
+            decodificadores.shutdownNow();
+            if (!concluido) {
+                destino.abortar();
+            }
+        }
+    }
+
+    private static int ultimaQuebra(byte[] bloco) {
+        for (int i = bloco.length - 1; i >= 0; i--) {
+            if (bloco[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static List<Map<String, String>> decodificar(byte[] bloco, int tamanho) throws IOException {
+        List<Map<String, String>> registros = new ArrayList<>();
+        int inicio = 0;
+        for (int i = 0; i <= tamanho; i++) {
+            if (i == tamanho || bloco[i] == '\n') {
+                String linha = new String(bloco, inicio, i - inicio, StandardCharsets.UTF_8).trim();
+                if (!linha.isEmpty()) {
+                    registros.add(LinhaJson.ler(linha));
+                }
+                inicio = i + 1;
+            }
+        }
+        return registros;
+    }
+
+    private static List<Map<String, String>> aguardar(Future<List<Map<String, String>>> futuro) throws IOException {
+        try {
+            return futuro.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Erro ao decodificar bloco", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Importação interrompida");
+        }
+    }
+
+    /**
+     * Remonta usuários e comunidades a partir das linhas, na ordem do arquivo.
+     */
+    private static final class Montador {
+        private final Destino destino;
+        private Usuario usuario;
+        private Comunidade comunidade;
+        private long linhas;
+
+        private Montador(Destino destino) {
+            this.destino = destino;
+        }
+
+        private void aplicar(List<Map<String, String>> registros) throws IOException {
+            for (Map<String, String> registro : registros) {
+                aplicar(registro);
+                linhas++;
+            }
+        }
+
+        private void aplicar(Map<String, String> r) throws IOException {
+            String tipo = obrigatorio(r, "tipo");
+            switch (tipo) {
+                case "usuario":
+                    concluir();
+                    usuario = new Usuario(obrigatorio(r, "login"), obrigatorio(r, "senha"), r.get("nome"));
+                    return;
+                case "comunidade":
+                    concluir();
+                    comunidade = new Comunidade(obrigatorio(r, "nome"), r.get("descricao"), r.get("dono"));
+                    return;
+                case "membro":
+                    if (comunidade == null || !comunidade.getNome().equals(r.get("comunidade"))) {
+                        throw foraDeOrdem(r, "comunidade");
+                    }
+                    comunidade.adicionarMembro(obrigatorio(r, "login"));
+                    return;
+                default:
+                    break;
+            }
+
+            if (usuario == null || !usuario.getLogin().equals(r.get("login"))) {
+                throw foraDeOrdem(r, "usuario");
+            }
+            switch (tipo) {
+                case "atributo": usuario.getPerfil().adicionarAtributo(obrigatorio(r, "chave"), r.get("valor")); break;
+                case "amigo": usuario.getAmigos().add(obrigatorio(r, "alvo")); break;
+                case "conviteEnviado": usuario.getSolicitacoesEnviadas().restaurar(obrigatorio(r, "alvo"), instante(r, "enviadoEm")); break;
+                case "conviteRecebido": usuario.getSolicitacoesRecebidas().restaurar(obrigatorio(r, "alvo"), instante(r, "enviadoEm")); break;
+                case "recado": usuario.getFilaRecados().restaurar(obrigatorio(r, "texto"), instante(r, "recebidoEm")); break;
+                case "mensagem": usuario.receberMensagem(obrigatorio(r, "texto")); break;
+                case "participa": usuario.adicionarComunidade(obrigatorio(r, "alvo")); break;
+                case "idolo": usuario.adicionarIdolo(obrigatorio(r, "alvo")); break;
+                case "fa": usuario.adicionarFa(obrigatorio(r, "alvo")); break;
+                case "paquera": usuario.adicionarPaquera(obrigatorio(r, "alvo")); break;
+                case "inimigo": usuario.adicionarInimigo(obrigatorio(r, "alvo")); break;
+                default: throw new IOException("Tipo de linha desconhecido: " + tipo);
+            }
+        }
+
+        // Entrega o usuário ou a comunidade em montagem
+        private void concluir() throws IOException {
+            if (usuario != null) destino.usuario(usuario);
+            if (comunidade != null) destino.comunidade(comunidade);
+            usuario = null;
+            comunidade = null;
+        }
+
+        private static long instante(Map<String, String> r, String campo) throws IOException {
+            String valor = r.get(campo);
+            if (valor == null) return System.currentTimeMillis();
+            try {
+                return Long.parseLong(valor);
+            } catch (NumberFormatException e) {
+                throw new IOException("Instante inválido: " + r);
+            }
+        }
+
+        private static String obrigatorio(Map<String, String> r, String campo) throws IOException {
+            String valor = r.get(campo);
+            if (valor == null) throw new IOException("Campo \"" + campo + "\" ausente: " + r);
+            return valor;
+        }
+
+        private static IOException foraDeOrdem(Map<String, String> r, String esperado) {
+            return new IOException("Linha fora de ordem (deveria vir logo depois da linha \"" + esperado + "\" correspondente): " + r);
+        }
+    }
+
+    /**
+     * Para onde vão os usuários e comunidades remontados.
+     */
+    private interface Destino {
+        void usuario(Usuario usuario) throws IOException;
+
+        void comunidade(Comunidade comunidade) throws IOException;
+
+        void concluir() throws IOException;
+
+        void abortar();
+    }
+
+    /**
+     * Escreve os arquivos .usr nos temporários da próxima geração e só os confirma no fim;
+     * uma importação que falha deixa os dados anteriores intactos.
+     */
+    private static final class DestinoTexto implements Destino {
+        private final Path diretorio;
+        private final List<Path> arquivos;
+        private final FileChannel[] canais = new FileChannel[2];
+        private final PrintWriter usuarios;
+        private final PrintWriter comunidades;
+
+        private DestinoTexto(Path diretorio) throws IOException {
+            Files.createDirectories(diretorio);
+            ArmazenamentoTexto texto = new ArmazenamentoTexto(diretorio);
+            this.diretorio = diretorio;
+            this.arquivos = List.of(texto.getArquivoUsuarios(), texto.getArquivoComunidades());
+            this.usuarios = abrir(0);
+            this.comunidades = abrir(1);
+        }
+
+        private PrintWriter abrir(int indice) throws IOException {
+            canais[indice] = FileChannel.open(GeracaoArquivos.temporario(arquivos.get(indice)), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            return new PrintWriter(new OutputStreamWriter(
+                    new BufferedOutputStream(Channels.newOutputStream(canais[indice]), 1 << 16), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void usuario(Usuario usuario) {
+            ArmazenamentoTexto.escreverUsuario(usuario, usuarios, true);
+        }
+
+        @Override
+        public void comunidade(Comunidade comunidade) {
+            ArmazenamentoTexto.escreverComunidade(comunidade, comunidades);
+        }
+
+        @Override
+        public void concluir() throws IOException {
+            for (int i = 0; i < 2; i++) {
+                PrintWriter writer = i == 0 ? usuarios : comunidades;
+                writer.flush();
+                if (writer.checkError()) {
+                    throw new IOException("Falha ao escrever " + arquivos.get(i));
+                }
+                canais[i].force(true);
+                canais[i].close();
+            }
+            GeracaoArquivos.confirmar(diretorio, arquivos);
+        }
+
+        @Override
+        public void abortar() {
+            usuarios.close();
+            comunidades.close();
+            for (Path arquivo : arquivos) {
+                try {
+                    Files.deleteIfExists(GeracaoArquivos.temporario(arquivo));
+                } catch (IOException ignorada) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Grava cada usuário e comunidade direto nas lojas chave-valor, que são esvaziadas antes. Nada disso
+     * vale até a confirmação no fim: uma importação abortada deixa as lojas como estavam.
+     */
+    private static final class DestinoChaveValor implements Destino {
+        private final ArmazenamentoChaveValor armazenamento;
+        private final Map<String, Usuario> usuarios;
+
+        private DestinoChaveValor(Path diretorio) throws IOException {
+            Files.createDirectories(diretorio);
+            this.armazenamento = new ArmazenamentoChaveValor(diretorio);
+            this.usuarios = armazenamento.criarMapaUsuarios();
+            armazenamento.limpar();
+        }
+
+        @Override
+        public void usuario(Usuario usuario) {
+            usuarios.put(usuario.getLogin(), usuario);
+        }
+
+        @Override
+        public void comunidade(Comunidade comunidade) {
+            armazenamento.gravarComunidade(comunidade);
+        }
+
+        @Override
+        public void concluir() {
+            armazenamento.confirmar();
+            armazenamento.close();
+        }
+
+        @Override
+        public void abortar() {
+            try {
+                armazenamento.close();
+            } catch (RuntimeException ignorada) {
+            }
+        }
+    }
+
+    /**
+     * Uso: {@code java br.ufal.ic.p2.jackut.persistence.ImportadorJsonl arquivo.jsonl diretorio [texto|chave-valor] [threads]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: ImportadorJsonl arquivo.jsonl diretorio [formato] [threads]");
+            System.exit(2);
+        }
+        ConfiguracaoArmazenamento.Formato formato = args.length > 2
+                ? ConfiguracaoArmazenamento.Formato.porNome(args[2]) : ConfiguracaoArmazenamento.Formato.TEXTO;
+        ImportadorJsonl importador = args.length > 3 ? new ImportadorJsonl(Integer.parseInt(args[3])) : new ImportadorJsonl();
+        long inicio = System.nanoTime();
+        long linhas = importador.importar(Paths.get(args[0]), Paths.get(args[1]), formato);
+        System.out.println(linhas + " linhas importadas em " + (System.nanoTime() - inicio) / 1_000_000 + " ms");
+    }
+}
@@ -0,0 +1,149 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Leitura e escrita de objetos JSON planos, um por linha (JSONL), com valores texto ou número.
+ * É tudo o que a exportação precisa, sem depender de uma biblioteca de JSON.
+ */
+final class LinhaJson {
+    private LinhaJson() {
+    }
+
+    /**
+     * Acrescenta uma linha com os pares chave, valor. Valores Number saem sem aspas; null vira null.
+     */
+    static void escrever(StringBuilder sb, Object... paresChaveValor) {
+        sb.append('{');
+        for (int i = 0; i < paresChaveValor.length; i += 2) {
+            if (i > 0) sb.append(',');
+            escreverTexto(sb, (String) paresChaveValor[i]);
+            sb.append(':');
+            Object valor = paresChaveValor[i + 1];
+            if (valor == null) {
+                sb.append("null");
+            } else if (valor instanceof Number) {
+                sb.append(valor);
+            } else {
+                escreverTexto(sb, valor.toString());
+            }
+        }
+        sb.append("}\n");
+    }
+
+    /**
+     * @return os campos da linha; números são devolvidos como texto
+     * @throws IOException se a linha não for um objeto JSON plano
+     */
+    static Map<String, String> ler(String linha) throws IOException {
+        Map<String, String> campos = new HashMap<>();
+        Leitor leitor = new Leitor(linha);
+        leitor.esperar('{');
+        if (leitor.proximo() == '}') {
+            return campos;
+        }
+        do {
+            String chave = leitor.lerTexto();
+            leitor.esperar(':');
+            campos.put(chave, leitor.lerValor());
+        } while (leitor.consumirSe(','));
+        leitor.esperar('}');
+        return campos;
+    }
+
+    private static void escreverTexto(StringBuilder sb, String texto) {
+        sb.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static final class Leitor {
+        private final String linha;
+        private int posicao;
+
+        private Leitor(String linha) {
+            this.linha = linha;
+        }
+
+        private char proximo() throws IOException {
+            while (posicao < linha.length() && Character.isWhitespace(linha.charAt(posicao))) posicao++;
+            if (posicao >= linha.length()) throw erro("fim inesperado");
+            return linha.charAt(posicao);
+        }
+
+        private void esperar(char c) throws IOException {
+            if (proximo() != c) throw erro("esperado '" + c + "'");
+            posicao++;
+        }
+
+        private boolean consumirSe(char c) throws IOException {
+            if (proximo() != c) return false;
+            posicao++;
+            return true;
+        }
+
+        private String lerValor() throws IOException {
+            char c = proximo();
+            if (c == '"') return lerTexto();
+            int inicio = posicao;
+            while (posicao < linha.length() && ",}".indexOf(linha.charAt(posicao)) < 0
+                    && !Character.isWhitespace(linha.charAt(posicao))) {
+                posicao++;
+            }
+            String valor = linha.substring(inicio, posicao);
+            if (valor.equals("null")) return null;
+            if (valor.isEmpty()) throw erro("valor vazio");
+            return valor;
+        }
+
+        private String lerTexto() throws IOException {
+            esperar('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (posicao >= linha.length()) throw erro("texto sem fim");
+                char c = linha.charAt(posicao++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (posicao >= linha.length()) throw erro("escape incompleto");
+                char escape = linha.charAt(posicao++);
+                switch (escape) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (posicao + 4 > linha.length()) throw erro("escape incompleto");
+                        sb.append((char) Integer.parseInt(linha.substring(posicao, posicao + 4), 16));
+                        posicao += 4;
+                        break;
+                    default: sb.append(escape);
+                }
+            }
+        }
+
+        private IOException erro(String motivo) {
+            return new IOException("JSON inválido (" + motivo + ", coluna " + posicao + "): " + linha);
+        }
+    }
+}
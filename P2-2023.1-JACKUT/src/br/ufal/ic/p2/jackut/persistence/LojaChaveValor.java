@@ -0,0 +1,358 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.profiling.EventoPersistencia;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Loja chave-valor embarcada, estruturada como um log de registros só de acréscimo.
+ * Em memória fica apenas o índice (chave -> posição no arquivo); os valores são lidos sob demanda
+ * através de janelas mapeadas em memória. Remoções gravam uma lápide e o espaço morto é recuperado
+ * por {@link #compactar()}.
+ *
+ * As escritas valem imediatamente para quem usa a loja aberta, mas só sobrevivem a uma reabertura depois
+ * de {@link #confirmar()}: ao abrir, o log é lido até a última marca de confirmação e o resto é cortado.
+ * Um log antigo, sem nenhuma marca, é considerado confirmado por inteiro.
+ *
+ * Formato de cada registro: [int tamanhoChave][chave UTF-8][int tamanhoValor ou -1][valor];
+ * a marca de confirmação é só [int -2] e o esvaziamento da loja, [int -3].
+ */
+public class LojaChaveValor implements Closeable {
+    private static final int LAPIDE = -1;
+    private static final int CONFIRMACAO = -2;
+    private static final int LIMPEZA = -3;
+    private static final long TAMANHO_JANELA = 64L * 1024 * 1024;
+
+    private final Path arquivo;
+    private FileChannel canal;
+    private final Map<String, Long> indice = new HashMap<>();
+    private final Map<Long, MappedByteBuffer> janelas = new HashMap<>();
+    private long tamanho;
+    private long bytesMortos;
+    // Fim da última marca de confirmação; o que vem depois se perde se a loja for reaberta
+    private long confirmadoAte;
+
+    /**
+     * Abre (ou cria) a loja e reconstrói o índice percorrendo o log.
+     * @param arquivo Arquivo do log
+     * @throws IOException se o arquivo não puder ser aberto
+     */
+    public LojaChaveValor(Path arquivo) throws IOException {
+        this.arquivo = arquivo;
+        if (arquivo.getParent() != null) {
+            Files.createDirectories(arquivo.getParent());
+        }
+        abrirCanal();
+        reconstruirIndice();
+    }
+
+    private void abrirCanal() throws IOException {
+        canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        tamanho = canal.size();
+        janelas.clear();
+    }
+
+    /**
+     * Percorre o log do início até a última marca de confirmação, cortando o que vier depois: escritas não
+     * confirmadas e um registro incompleto no final (gravação interrompida). Um log sem marcas (antigo, ou
+     * recém-criado) é aplicado até o último registro completo e recebe a primeira marca.
+     */
+    private void reconstruirIndice() throws IOException {
+        ByteBuffer aux = ByteBuffer.allocate(4);
+        long completo = 0;
+        long confirmado = -1;
+        for (long fim; (fim = fimRegistro(completo, aux)) >= 0; completo = fim) {
+            if (lerInt(completo, aux) == CONFIRMACAO) confirmado = fim;
+        }
+        boolean semMarcas = confirmado < 0;
+        long limite = semMarcas ? completo : confirmado;
+
+        for (long posicao = 0, fim; posicao < limite; posicao = fim) {
+            fim = fimRegistro(posicao, aux);
+            int tamanhoChave = lerInt(posicao, aux);
+            if (tamanhoChave == CONFIRMACAO) {
+                bytesMortos += fim - posicao;
+            } else if (tamanhoChave == LIMPEZA) {
+                indice.clear();
+                bytesMortos = fim;
+            } else {
+                String chave = new String(lerBytes(posicao + 4, tamanhoChave), StandardCharsets.UTF_8);
+                boolean lapide = lerInt(posicao + 4 + tamanhoChave, aux) == LAPIDE;
+                Long anterior = lapide ? indice.remove(chave) : indice.put(chave, posicao);
+                if (anterior != null) {
+                    bytesMortos += tamanhoRegistro(anterior);
+                }
+                if (lapide) {
+                    bytesMortos += fim - posicao;
+                }
+            }
+        }
+        if (limite < tamanho) {
+            canal.truncate(limite);
+            tamanho = limite;
+            janelas.clear();
+        }
+        confirmadoAte = tamanho;
+        if (semMarcas) {
+            marcarConfirmacao();
+        }
+    }
+
+    // Fim do registro que começa na posição, ou -1 se ele estiver incompleto ou não for um registro
+    private long fimRegistro(long posicao, ByteBuffer aux) throws IOException {
+        if (posicao + 4 > tamanho) return -1;
+        int tamanhoChave = lerInt(posicao, aux);
+        if (tamanhoChave == CONFIRMACAO || tamanhoChave == LIMPEZA) return posicao + 4;
+        if (tamanhoChave < 0 || posicao + 4 + tamanhoChave + 4 > tamanho) return -1;
+        long p = posicao + 4 + tamanhoChave;
+        int tamanhoValor = lerInt(p, aux);
+        p += 4;
+        if (tamanhoValor == LAPIDE) return p;
+        if (tamanhoValor < 0 || p + tamanhoValor > tamanho) return -1;
+        return p + tamanhoValor;
+    }
+
+    /**
+     * @param chave Chave procurada
+     * @return o valor associado, ou null se a chave não existir
+     */
+    public synchronized byte[] ler(String chave) {
+        Long posicao = indice.get(chave);
+        if (posicao == null) return null;
+        try {
+            ByteBuffer aux = ByteBuffer.allocate(4);
+            long p = posicao + 4 + lerInt(posicao, aux);
+            int tamanhoValor = lerInt(p, aux);
+            return lerBytes(p + 4, tamanhoValor);
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao ler registro " + chave, e);
+        }
+    }
+
+    public Path getArquivo() {
+        return arquivo;
+    }
+
+    public synchronized boolean contem(String chave) {
+        return indice.containsKey(chave);
+    }
+
+    public synchronized int quantidade() {
+        return indice.size();
+    }
+
+    /**
+     * @return cópia das chaves existentes no momento da chamada
+     */
+    public synchronized List<String> chaves() {
+        return new ArrayList<>(indice.keySet());
+    }
+
+    public synchronized void gravar(String chave, byte[] valor) {
+        byte[] bytesChave = chave.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer registro = ByteBuffer.allocate(8 + bytesChave.length + valor.length);
+        registro.putInt(bytesChave.length).put(bytesChave).putInt(valor.length).put(valor).flip();
+        Long anterior = indice.put(chave, acrescentar(registro));
+        if (anterior != null) {
+            bytesMortos += tamanhoRegistro(anterior);
+        }
+    }
+
+    public synchronized void remover(String chave) {
+        Long anterior = indice.remove(chave);
+        if (anterior == null) return;
+        byte[] bytesChave = chave.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer registro = ByteBuffer.allocate(8 + bytesChave.length);
+        registro.putInt(bytesChave.length).put(bytesChave).putInt(LAPIDE).flip();
+        acrescentar(registro);
+        bytesMortos += tamanhoRegistro(anterior) + registro.limit();
+    }
+
+    /**
+     * Apaga todos os registros. Como as demais escritas, só vale depois de {@link #confirmar()}; o espaço
+     * volta com a próxima compactação.
+     */
+    public synchronized void limpar() {
+        acrescentar(ByteBuffer.allocate(4).putInt(0, LIMPEZA));
+        indice.clear();
+        bytesMortos = tamanho;
+    }
+
+    /**
+     * Torna definitivas as escritas feitas desde a última confirmação: força o log para o disco e só então
+     * grava e força a marca de confirmação, para que ela nunca chegue ao disco antes dos registros que confirma.
+     */
+    public synchronized void confirmar() {
+        EventoPersistencia medicao = EventoPersistencia.iniciar("sincronizacao", arquivo);
+        medicao.setBytes(tamanho);
+        medicao.setRegistros(indice.size());
+        if (tamanho > confirmadoAte) {
+            try {
+                canal.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Erro ao sincronizar " + arquivo, e);
+            }
+            marcarConfirmacao();
+        }
+        medicao.concluir();
+    }
+
+    /**
+     * @return true se houver escritas ainda não confirmadas
+     */
+    public synchronized boolean temPendentes() {
+        return tamanho > confirmadoAte;
+    }
+
+    private void marcarConfirmacao() {
+        acrescentar(ByteBuffer.allocate(4).putInt(0, CONFIRMACAO));
+        bytesMortos += 4;
+        try {
+            canal.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao sincronizar " + arquivo, e);
+        }
+        confirmadoAte = tamanho;
+    }
+
+    /**
+     * @return true se mais da metade do log for composta de registros mortos (fora a marca de confirmação
+     *         que toda compactação deixa)
+     */
+    public synchronized boolean precisaCompactar() {
+        return bytesMortos > 4 && bytesMortos * 2 > tamanho;
+    }
+
+    /**
+     * Reescreve apenas os registros vivos, seguidos de uma marca de confirmação, em um novo arquivo e o troca
+     * atomicamente pelo atual.
+     * @throws IllegalStateException se houver escritas não confirmadas, que a compactação tornaria definitivas
+     */
+    public synchronized void compactar() {
+        if (temPendentes()) {
+            throw new IllegalStateException("Há escritas não confirmadas em " + arquivo);
+        }
+        EventoPersistencia medicao = EventoPersistencia.iniciar("compactacao", arquivo);
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".compactando");
+        try {
+            Map<String, Long> novoIndice = new HashMap<>();
+            try (FileChannel destino = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long posicao = 0;
+                for (Map.Entry<String, Long> entrada : indice.entrySet()) {
+                    int tamanhoRegistro = (int) tamanhoRegistro(entrada.getValue());
+                    ByteBuffer registro = ByteBuffer.wrap(lerBytes(entrada.getValue(), tamanhoRegistro));
+                    while (registro.hasRemaining()) {
+                        destino.write(registro);
+                    }
+                    novoIndice.put(entrada.getKey(), posicao);
+                    posicao += tamanhoRegistro;
+                }
+                ByteBuffer marca = ByteBuffer.allocate(4).putInt(0, CONFIRMACAO);
+                while (marca.hasRemaining()) {
+                    destino.write(marca);
+                }
+                destino.force(true);
+            }
+            canal.close();
+            Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            abrirCanal();
+            indice.clear();
+            indice.putAll(novoIndice);
+            bytesMortos = 4;
+            confirmadoAte = tamanho;
+            medicao.setBytes(tamanho);
+            medicao.setRegistros(indice.size());
+            medicao.concluir();
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao compactar " + arquivo, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        janelas.clear();
+        canal.close();
+    }
+
+    private long acrescentar(ByteBuffer registro) {
+        try {
+            long posicao = tamanho;
+            while (registro.hasRemaining()) {
+                tamanho += canal.write(registro, tamanho);
+            }
+            return posicao;
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao gravar em " + arquivo, e);
+        }
+    }
+
+    private long tamanhoRegistro(long posicao) {
+        try {
+            ByteBuffer aux = ByteBuffer.allocate(4);
+            long p = posicao + 4 + lerInt(posicao, aux);
+            int tamanhoValor = lerInt(p, aux);
+            return p + 4 + Math.max(tamanhoValor, 0) - posicao;
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao ler " + arquivo, e);
+        }
+    }
+
+    private int lerInt(long posicao, ByteBuffer aux) throws IOException {
+        aux.clear();
+        ByteBuffer janela = janela(posicao, 4);
+        if (janela != null) {
+            return janela.getInt((int) (posicao % TAMANHO_JANELA));
+        }
+        lerDireto(posicao, aux);
+        return aux.getInt(0);
+    }
+
+    private byte[] lerBytes(long posicao, int quantidade) throws IOException {
+        byte[] bytes = new byte[quantidade];
+        ByteBuffer janela = janela(posicao, quantidade);
+        if (janela != null) {
+            janela.duplicate().position((int) (posicao % TAMANHO_JANELA)).get(bytes);
+        } else {
+            lerDireto(posicao, ByteBuffer.wrap(bytes));
+        }
+        return bytes;
+    }
+
+    private void lerDireto(long posicao, ByteBuffer destino) throws IOException {
+        while (destino.hasRemaining()) {
+            if (canal.read(destino, posicao + destino.position()) < 0) {
+                throw new IOException("Fim inesperado de " + arquivo);
+            }
+        }
+    }
+
+    /**
+     * Devolve a janela mapeada que contém o intervalo pedido, ou null se o intervalo atravessar
+     * o limite entre duas janelas ou ainda não estiver completo dentro do arquivo mapeado.
+     */
+    private ByteBuffer janela(long posicao, int quantidade) throws IOException {
+        long numero = posicao / TAMANHO_JANELA;
+        long inicioJanela = numero * TAMANHO_JANELA;
+        if (posicao + quantidade > inicioJanela + TAMANHO_JANELA) return null;
+
+        MappedByteBuffer janela = janelas.get(numero);
+        if (janela == null || inicioJanela + janela.capacity() < posicao + quantidade) {
+            long tamanhoMapeado = Math.min(TAMANHO_JANELA, tamanho - inicioJanela);
+            if (inicioJanela + tamanhoMapeado < posicao + quantidade) return null;
+            janela = canal.map(FileChannel.MapMode.READ_ONLY, inicioJanela, tamanhoMapeado);
+            janelas.put(numero, janela);
+        }
+        return janela;
+    }
+}
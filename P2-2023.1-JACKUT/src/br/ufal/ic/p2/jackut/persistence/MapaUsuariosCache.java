@@ -0,0 +1,217 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Mapa de usuários apoiado em uma {@link LojaChaveValor}, com um cache LRU limitado na frente.
+ * Apenas os usuários usados recentemente ficam na memória. Como a Facade altera os objetos
+ * diretamente, cada entrada guarda a versão do usuário (ver {@link Usuario#getVersao()}) que está
+ * na loja, e o usuário só é regravado se ela tiver mudado.
+ *
+ * Um usuário que sai do cache tem os textos liberados (ver {@link Usuario#liberarTextos()}): quem o
+ * usa de novo precisa pedi-lo ao mapa, que o relê da loja.
+ *
+ * Usuários que saem do cache, novos e removidos vão para a loja como escritas não confirmadas: esta
+ * instância já os lê de lá, mas uma reabertura só os vê depois que o armazenamento salvar e confirmar.
+ */
+public class MapaUsuariosCache extends AbstractMap<String, Usuario> implements MapaUsuariosSobDemanda {
+    private final LojaChaveValor loja;
+    private final LinkedHashMap<String, EntradaCache> cache;
+    private Consumer<Usuario> configurador = usuario -> { };
+
+    private static final class EntradaCache {
+        final Usuario usuario;
+        long versaoNaLoja;
+
+        EntradaCache(Usuario usuario, long versaoNaLoja) {
+            this.usuario = usuario;
+            this.versaoNaLoja = versaoNaLoja;
+        }
+    }
+
+    /**
+     * @param loja Loja onde os usuários ficam guardados
+     * @param capacidade Quantidade máxima de usuários mantidos na memória (mínimo 16)
+     */
+    public MapaUsuariosCache(LojaChaveValor loja, int capacidade) {
+        this.loja = loja;
+        int limite = Math.max(capacidade, 16);
+        this.cache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EntradaCache> maisAntiga) {
+                if (size() <= limite) return false;
+                devolver(maisAntiga.getKey(), maisAntiga.getValue());
+                // Já está na loja: os textos voltam para a arena agora, sem esperar o coletor
+                maisAntiga.getValue().usuario.liberarTextos();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param configurador Aplicado a cada usuário lido da loja, antes de entrar no cache
+     */
+    public synchronized void setConfigurador(Consumer<Usuario> configurador) {
+        this.configurador = configurador;
+    }
+
+    @Override
+    public synchronized Usuario get(Object chave) {
+        if (!(chave instanceof String)) return null;
+        String login = (String) chave;
+        EntradaCache entrada = cache.get(login);
+        if (entrada != null) return entrada.usuario;
+
+        byte[] bytes = loja.ler(login);
+        if (bytes == null) return null;
+        try {
+            Usuario usuario = ArmazenamentoBinario.lerUsuario(bytes);
+            // A versão é a do que está na loja: se a configuração mudar o usuário, ele é regravado na saída
+            long versao = usuario.getVersao();
+            configurador.accept(usuario);
+            cache.put(login, new EntradaCache(usuario, versao));
+            return usuario;
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao carregar usuário " + login, e);
+        }
+    }
+
+    /**
+     * Novos usuários vão direto para a loja e entram no cache já limpos.
+     */
+    @Override
+    public synchronized Usuario put(String login, Usuario usuario) {
+        Usuario anterior = containsKey(login) ? get(login) : null;
+        long versao = usuario.getVersao();
+        loja.gravar(login, serializar(usuario, false));
+        cache.put(login, new EntradaCache(usuario, versao));
+        return anterior;
+    }
+
+    @Override
+    public synchronized Usuario remove(Object chave) {
+        if (!(chave instanceof String)) return null;
+        Usuario anterior = get(chave);
+        cache.remove(chave);
+        loja.remover((String) chave);
+        return anterior;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object chave) {
+        return chave instanceof String && (cache.containsKey(chave) || loja.contem((String) chave));
+    }
+
+    @Override
+    public synchronized int size() {
+        return loja.quantidade();
+    }
+
+    @Override
+    public synchronized void clear() {
+        cache.clear();
+        loja.limpar();
+    }
+
+    /**
+     * Percorre os usuários carregando cada um sob demanda; quem sai do cache durante a
+     * iteração é regravado se tiver sido alterado.
+     */
+    @Override
+    public Set<Entry<String, Usuario>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Usuario>> iterator() {
+                Iterator<String> logins = loja.chaves().iterator();
+                return new Iterator<>() {
+                    private String atual;
+
+                    @Override
+                    public boolean hasNext() {
+                        return logins.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Usuario> next() {
+                        atual = logins.next();
+                        return new SimpleImmutableEntry<>(atual, get(atual));
+                    }
+
+                    @Override
+                    public void remove() {
+                        MapaUsuariosCache.this.remove(atual);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MapaUsuariosCache.this.size();
+            }
+        };
+    }
+
+    /**
+     * Regrava na loja todos os usuários do cache que foram alterados.
+     */
+    public synchronized void descarregar() {
+        for (Map.Entry<String, EntradaCache> entrada : cache.entrySet()) {
+            devolver(entrada.getKey(), entrada.getValue());
+        }
+    }
+
+    /**
+     * Troca todo o conteúdo da loja pelos usuários dados, que não vêm deste mapa.
+     * O cache é descartado sem regravar nada.
+     * @param usuarios Novo conjunto completo de usuários
+     */
+    public synchronized void substituir(Collection<Usuario> usuarios) {
+        cache.clear();
+        Set<String> existentes = new HashSet<>(loja.chaves());
+        for (Usuario usuario : usuarios) {
+            loja.gravar(usuario.getLogin(), serializar(usuario, true));
+            existentes.remove(usuario.getLogin());
+        }
+        existentes.forEach(loja::remover);
+    }
+
+    @Override
+    public synchronized Collection<Usuario> getMaterializados() {
+        List<Usuario> usuarios = new ArrayList<>(cache.size());
+        cache.values().forEach(entrada -> usuarios.add(entrada.usuario));
+        return usuarios;
+    }
+
+    /**
+     * @return quantidade de usuários atualmente materializados na memória
+     */
+    public synchronized int quantidadeEmCache() {
+        return cache.size();
+    }
+
+    // A versão é lida antes de serializar: uma alteração concorrente fica para a próxima devolução
+    private void devolver(String login, EntradaCache entrada) {
+        long versao = entrada.usuario.getVersao();
+        if (versao != entrada.versaoNaLoja) {
+            loja.gravar(login, serializar(entrada.usuario, false));
+            entrada.versaoNaLoja = versao;
+        }
+    }
+
+    /**
+     * @param completo true para usuários que não vêm desta loja, cujos arquivos de recados não são da Facade dona dela
+     */
+    private static byte[] serializar(Usuario usuario, boolean completo) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ArmazenamentoBinario.escreverUsuario(usuario, new DataOutputStream(bytes), completo);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao serializar usuário " + usuario.getLogin(), e);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Mapa de usuários que materializa cada usuário do arquivo texto só quando ele é acessado pela primeira vez.
+ * Na inicialização, {@link #indexar} apenas percorre os bytes do arquivo e anota onde começa e termina
+ * o bloco "=== USUARIO ===" de cada login. Opcionalmente, uma thread de fundo vai materializando o restante.
+ */
+public class MapaUsuariosPreguicoso extends AbstractMap<String, Usuario> implements MapaUsuariosSobDemanda {
+    private static final byte[] CABECALHO = "=== USUARIO ===".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PREFIXO_LOGIN = "login: ".getBytes(StandardCharsets.UTF_8);
+    private static final int TAMANHO_INICIAL_LINHA = 1024;
+
+    private final Map<String, Usuario> materializados = new HashMap<>();
+    private final Map<String, long[]> pendentes = new HashMap<>();
+    private final Consumer<Usuario> configurador;
+    private FileChannel canal;
+    // Estado da indexação: bloco em andamento
+    private long inicioBloco = -1;
+    private String loginBloco;
+
+    public MapaUsuariosPreguicoso() {
+        this(usuario -> { });
+    }
+
+    /**
+     * @param configurador Aplicado a cada usuário quando ele é materializado
+     */
+    public MapaUsuariosPreguicoso(Consumer<Usuario> configurador) {
+        this.configurador = configurador;
+    }
+
+    /**
+     * Monta o índice login -> [início, fim) dos blocos do arquivo, sem criar nenhum usuário.
+     * @param arquivo Arquivo usuarios.usr
+     * @throws IOException se o arquivo não puder ser lido
+     */
+    public synchronized void indexar(Path arquivo) throws IOException {
+        fecharCanal();
+        pendentes.clear();
+        materializados.clear();
+
+        try (InputStream in = new FileInputStream(arquivo.toFile())) {
+            byte[] buffer = new byte[1 << 16];
+            // Das outras linhas só o começo interessa; a linha "login: " é guardada inteira
+            byte[] linha = new byte[TAMANHO_INICIAL_LINHA];
+            int tamanhoLinha = 0;
+            long posicao = 0;
+            long inicioLinha = 0;
+            int lidos;
+            while ((lidos = in.read(buffer)) != -1) {
+                for (int i = 0; i < lidos; i++, posicao++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        processarLinha(linha, Math.min(tamanhoLinha, linha.length), inicioLinha);
+                        tamanhoLinha = 0;
+                        inicioLinha = posicao + 1;
+                        if (linha.length > TAMANHO_INICIAL_LINHA) linha = new byte[TAMANHO_INICIAL_LINHA];
+                    } else {
+                        if (tamanhoLinha == linha.length && comecaCom(linha, tamanhoLinha, PREFIXO_LOGIN)) {
+                            linha = Arrays.copyOf(linha, linha.length * 2);
+                        }
+                        if (tamanhoLinha < linha.length) linha[tamanhoLinha] = b;
+                        tamanhoLinha++;
+                    }
+                }
+            }
+            processarLinha(linha, Math.min(tamanhoLinha, linha.length), inicioLinha);
+            fecharBloco(posicao);
+        }
+        if (!pendentes.isEmpty()) {
+            canal = FileChannel.open(arquivo, StandardOpenOption.READ);
+        }
+    }
+
+    private void processarLinha(byte[] linha, int tamanho, long inicioLinha) {
+        if (comecaCom(linha, tamanho, CABECALHO)) {
+            fecharBloco(inicioLinha);
+            inicioBloco = inicioLinha;
+        } else if (inicioBloco >= 0 && loginBloco == null && comecaCom(linha, tamanho, PREFIXO_LOGIN)) {
+            int fim = tamanho > 0 && linha[tamanho - 1] == '\r' ? tamanho - 1 : tamanho;
+            loginBloco = new String(linha, PREFIXO_LOGIN.length, fim - PREFIXO_LOGIN.length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private void fecharBloco(long fim) {
+        if (inicioBloco >= 0 && loginBloco != null) {
+            pendentes.put(loginBloco, new long[]{inicioBloco, fim});
+        }
+        inicioBloco = -1;
+        loginBloco = null;
+    }
+
+    /**
+     * Inicia uma thread de fundo que materializa todos os usuários ainda não acessados.
+     */
+    public void aquecerEmSegundoPlano() {
+        Thread thread = new Thread(() -> {
+            List<String> logins;
+            synchronized (this) {
+                logins = new ArrayList<>(pendentes.keySet());
+            }
+            try {
+                for (String login : logins) {
+                    get(login);
+                }
+            } catch (IllegalStateException e) {
+                // O mapa foi fechado antes de terminar
+            }
+        }, "jackut-aquecimento");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return quantidade de usuários ainda não materializados
+     */
+    public synchronized int quantidadePendente() {
+        return pendentes.size();
+    }
+
+    @Override
+    public synchronized Collection<Usuario> getMaterializados() {
+        return new ArrayList<>(materializados.values());
+    }
+
+    @Override
+    public synchronized Usuario get(Object chave) {
+        Usuario usuario = materializados.get(chave);
+        if (usuario != null || !(chave instanceof String)) return usuario;
+
+        long[] bloco = pendentes.remove(chave);
+        if (bloco == null) return null;
+        usuario = materializar(bloco);
+        configurador.accept(usuario);
+        materializados.put((String) chave, usuario);
+        if (pendentes.isEmpty()) {
+            fecharCanal();
+        }
+        return usuario;
+    }
+
+    @Override
+    public synchronized Usuario put(String login, Usuario usuario) {
+        Usuario anterior = get(login);
+        materializados.put(login, usuario);
+        return anterior;
+    }
+
+    @Override
+    public synchronized Usuario remove(Object chave) {
+        Usuario anterior = get(chave);
+        materializados.remove(chave);
+        return anterior;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object chave) {
+        return materializados.containsKey(chave) || pendentes.containsKey(chave);
+    }
+
+    @Override
+    public synchronized int size() {
+        return materializados.size() + pendentes.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        materializados.clear();
+        pendentes.clear();
+        fecharCanal();
+    }
+
+    /**
+     * Percorrer todos os usuários obriga a materializar os que ainda estão pendentes.
+     */
+    @Override
+    public synchronized Set<Entry<String, Usuario>> entrySet() {
+        for (String login : new ArrayList<>(pendentes.keySet())) {
+            get(login);
+        }
+        return materializados.entrySet();
+    }
+
+    private Usuario materializar(long[] bloco) {
+        if (canal == null) {
+            throw new IllegalStateException("Arquivo de usuários fechado.");
+        }
+        try {
+            ByteBuffer bytes = ByteBuffer.allocate((int) (bloco[1] - bloco[0]));
+            while (bytes.hasRemaining()) {
+                if (canal.read(bytes, bloco[0] + bytes.position()) < 0) break;
+            }
+            BufferedReader reader = new BufferedReader(new StringReader(
+                    new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8)));
+            Usuario usuario = new Usuario("", "", "");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(": ", 2);
+                if (parts.length == 2) {
+                    usuario = ArmazenamentoTexto.aplicarLinhaUsuario(usuario, parts[0], parts[1]);
+                }
+            }
+            return usuario;
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao carregar usuário do arquivo de persistência", e);
+        }
+    }
+
+    /**
+     * Fecha o arquivo indexado. Os usuários ainda não materializados deixam de poder ser lidos.
+     */
+    public synchronized void fechar() {
+        fecharCanal();
+    }
+
+    private void fecharCanal() {
+        if (canal == null) return;
+        try {
+            canal.close();
+        } catch (IOException ignored) {
+            // Só era usado para leitura
+        }
+        canal = null;
+    }
+
+    private static boolean comecaCom(byte[] linha, int tamanho, byte[] prefixo) {
+        if (tamanho < prefixo.length) return false;
+        for (int i = 0; i < prefixo.length; i++) {
+            if (linha[i] != prefixo[i]) return false;
+        }
+        return true;
+    }
+}
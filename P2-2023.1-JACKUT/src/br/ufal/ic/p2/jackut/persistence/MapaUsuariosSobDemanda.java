@@ -0,0 +1,17 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Usuario;
+
+import java.util.Collection;
+
+/**
+ * Mapa de usuários que lê cada usuário do armazenamento só quando ele é usado.
+ * Percorrer values() obriga a ler todos; quem só precisa dos que já estão na memória usa {@link #getMaterializados()}.
+ */
+public interface MapaUsuariosSobDemanda {
+
+    /**
+     * @return cópia dos usuários que já estão na memória
+     */
+    Collection<Usuario> getMaterializados();
+}
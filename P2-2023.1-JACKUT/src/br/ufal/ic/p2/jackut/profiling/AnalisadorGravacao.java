@@ -0,0 +1,245 @@
+package br.ufal.ic.p2.jackut.profiling;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resume os pontos quentes de uma gravação do Java Flight Recorder feita com jackut.jfc:
+ * <ul>
+ *     <li>operações da Facade por tempo total, com média, p99, máximo e o tamanho do trabalho (itens, recados filtrados);</li>
+ *     <li>fases da persistência por arquivo, com bytes e vazão;</li>
+ *     <li>alocação amostrada e amostras de CPU, atribuídas ao método da Facade em execução
+ *         (o mais interno na pilha) e ao método do Jackut que estava no topo.</li>
+ * </ul>
+ * A gravação é lida evento a evento; só os totais e as durações das operações ficam na memória.
+ *
+ * Uso: {@code java br.ufal.ic.p2.jackut.profiling.AnalisadorGravacao gravacao.jfr [linhas]}
+ */
+public class AnalisadorGravacao {
+    private static final String PACOTE = "br.ufal.ic.p2.jackut.";
+    private static final String FACADE = PACOTE + "models.Facade";
+    private static final String FORA_DA_FACADE = "(fora da Facade)";
+
+    private final Map<String, Operacao> operacoes = new HashMap<>();
+    private final Map<String, Fase> fases = new HashMap<>();
+    private final Map<String, long[]> alocacaoPorOperacao = new HashMap<>();
+    private final Map<String, long[]> alocacaoPorMetodo = new HashMap<>();
+    private final Map<String, long[]> alocacaoPorClasse = new HashMap<>();
+    private final Map<String, long[]> cpuPorOperacao = new HashMap<>();
+    private final Map<String, long[]> cpuPorMetodo = new HashMap<>();
+    private long bytesAlocados;
+    private long amostrasCpu;
+    private long coletas;
+    private long pausaColetasNanos;
+
+    /**
+     * Lê uma gravação inteira.
+     * @param arquivo Arquivo .jfr
+     * @throws IOException se o arquivo não puder ser lido
+     */
+    public void ler(Path arquivo) throws IOException {
+        try (RecordingFile gravacao = new RecordingFile(arquivo)) {
+            while (gravacao.hasMoreEvents()) {
+                registrar(gravacao.readEvent());
+            }
+        }
+    }
+
+    private void registrar(RecordedEvent evento) {
+        switch (evento.getEventType().getName()) {
+            case EventoOperacao.NOME:
+                operacoes.computeIfAbsent(evento.getString("metodo"), m -> new Operacao()).registrar(evento);
+                break;
+            case EventoPersistencia.NOME:
+                String fase = evento.getString("fase") + " " + evento.getString("arquivo");
+                fases.computeIfAbsent(fase, f -> new Fase()).registrar(evento);
+                break;
+            case "jdk.ObjectAllocationSample":
+                long peso = evento.getLong("weight");
+                bytesAlocados += peso;
+                somar(alocacaoPorOperacao, operacaoNaPilha(evento.getStackTrace()), peso);
+                somar(alocacaoPorMetodo, metodoNoTopo(evento.getStackTrace()), peso);
+                somar(alocacaoPorClasse, evento.getClass("objectClass").getName(), peso);
+                break;
+            case "jdk.ExecutionSample":
+                amostrasCpu++;
+                somar(cpuPorOperacao, operacaoNaPilha(evento.getStackTrace()), 1);
+                somar(cpuPorMetodo, metodoNoTopo(evento.getStackTrace()), 1);
+                break;
+            case "jdk.GarbageCollection":
+                coletas++;
+                pausaColetasNanos += evento.getDuration("sumOfPauses").toNanos();
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Método da Facade mais interno da pilha: a operação que estava em andamento
+    private static String operacaoNaPilha(RecordedStackTrace pilha) {
+        if (pilha != null) {
+            for (RecordedFrame quadro : pilha.getFrames()) {
+                if (quadro.isJavaFrame() && quadro.getMethod().getType().getName().equals(FACADE)) {
+                    return nomeOperacao(quadro.getMethod().getName());
+                }
+            }
+        }
+        return FORA_DA_FACADE;
+    }
+
+    // O mesmo nome usado em EventoOperacao: o construtor é "Facade" e um lambda conta para o método que o criou
+    private static String nomeOperacao(String metodo) {
+        if (metodo.equals("<init>")) return "Facade";
+        if (metodo.startsWith("lambda$")) {
+            int fim = metodo.indexOf('$', "lambda$".length());
+            return metodo.substring("lambda$".length(), fim < 0 ? metodo.length() : fim);
+        }
+        return metodo;
+    }
+
+    // Primeiro método do Jackut a partir do topo, ignorando os eventos de medição
+    private static String metodoNoTopo(RecordedStackTrace pilha) {
+        if (pilha != null) {
+            for (RecordedFrame quadro : pilha.getFrames()) {
+                if (!quadro.isJavaFrame()) continue;
+                String classe = quadro.getMethod().getType().getName();
+                if (classe.startsWith(PACOTE) && !classe.startsWith(PACOTE + "profiling.")) {
+                    return classe.substring(PACOTE.length()) + "." + quadro.getMethod().getName();
+                }
+            }
+        }
+        return "(fora do Jackut)";
+    }
+
+    private static void somar(Map<String, long[]> totais, String chave, long valor) {
+        totais.computeIfAbsent(chave, c -> new long[1])[0] += valor;
+    }
+
+    /**
+     * Imprime o resumo.
+     * @param saida Onde imprimir
+     * @param linhas Máximo de linhas em cada tabela
+     */
+    public void imprimir(PrintStream saida, int linhas) {
+        saida.println("== Operações da Facade (por tempo total) ==");
+        saida.printf(Locale.ROOT, "%-32s %9s %11s %10s %10s %10s %11s %9s %11s%n",
+                "metodo", "chamadas", "total ms", "media us", "p99 us", "max us", "itens/cham", "max itens", "recados filt");
+        List<Map.Entry<String, Operacao>> porTempo = new ArrayList<>(operacoes.entrySet());
+        porTempo.sort((a, b) -> Long.compare(b.getValue().totalNanos, a.getValue().totalNanos));
+        for (Map.Entry<String, Operacao> entrada : porTempo.subList(0, Math.min(linhas, porTempo.size()))) {
+            Operacao o = entrada.getValue();
+            saida.printf(Locale.ROOT, "%-32s %9d %11.1f %10.1f %10.1f %10.1f %11.1f %9d %11d%n",
+                    entrada.getKey(), o.chamadas, o.totalNanos / 1e6, o.totalNanos / 1e3 / o.chamadas,
+                    o.percentil(0.99) / 1e3, o.maximoNanos / 1e3, (double) o.itens / o.chamadas, o.maximoItens, o.recadosFiltrados);
+        }
+
+        saida.println();
+        saida.println("== Persistência (por tempo total) ==");
+        saida.printf(Locale.ROOT, "%-36s %7s %11s %11s %9s %11s%n", "fase arquivo", "vezes", "total ms", "MB", "MB/s", "registros");
+        List<Map.Entry<String, Fase>> fasesPorTempo = new ArrayList<>(fases.entrySet());
+        fasesPorTempo.sort((a, b) -> Long.compare(b.getValue().totalNanos, a.getValue().totalNanos));
+        for (Map.Entry<String, Fase> entrada : fasesPorTempo.subList(0, Math.min(linhas, fasesPorTempo.size()))) {
+            Fase f = entrada.getValue();
+            double mb = f.bytes / 1e6;
+            saida.printf(Locale.ROOT, "%-36s %7d %11.1f %11.2f %9.1f %11d%n", entrada.getKey(), f.vezes, f.totalNanos / 1e6,
+                    mb, f.totalNanos == 0 ? 0 : mb / (f.totalNanos / 1e9), f.registros);
+        }
+
+        saida.println();
+        saida.printf(Locale.ROOT, "== Alocação amostrada: %.1f MB ==%n", bytesAlocados / 1e6);
+        imprimirParticipacao(saida, "por operacao da Facade", alocacaoPorOperacao, bytesAlocados, linhas, 1e6, "MB");
+        imprimirParticipacao(saida, "por metodo do Jackut no topo", alocacaoPorMetodo, bytesAlocados, linhas, 1e6, "MB");
+        imprimirParticipacao(saida, "por classe alocada", alocacaoPorClasse, bytesAlocados, linhas, 1e6, "MB");
+
+        saida.println();
+        saida.printf("== CPU: %d amostras ==%n", amostrasCpu);
+        imprimirParticipacao(saida, "por operacao da Facade", cpuPorOperacao, amostrasCpu, linhas, 1, "amostras");
+        imprimirParticipacao(saida, "por metodo do Jackut no topo", cpuPorMetodo, amostrasCpu, linhas, 1, "amostras");
+
+        saida.println();
+        saida.printf(Locale.ROOT, "== Coletas de lixo: %d, pausas somando %.1f ms ==%n", coletas, pausaColetasNanos / 1e6);
+    }
+
+    private static void imprimirParticipacao(PrintStream saida, String titulo, Map<String, long[]> totais, long total,
+                                             int linhas, double divisor, String unidade) {
+        if (totais.isEmpty()) return;
+        saida.println("-- " + titulo + " --");
+        List<Map.Entry<String, long[]>> ordenados = new ArrayList<>(totais.entrySet());
+        ordenados.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        for (Map.Entry<String, long[]> entrada : ordenados.subList(0, Math.min(linhas, ordenados.size()))) {
+            long valor = entrada.getValue()[0];
+            saida.printf(Locale.ROOT, "%-60s %12.1f %-8s %5.1f%%%n", entrada.getKey(), valor / divisor, unidade,
+                    total == 0 ? 0 : 100.0 * valor / total);
+        }
+    }
+
+    /**
+     * Totais de um método da Facade. As durações ficam guardadas para o cálculo do p99.
+     */
+    private static final class Operacao {
+        private long chamadas;
+        private long totalNanos;
+        private long maximoNanos;
+        private long itens;
+        private long maximoItens;
+        private long recadosFiltrados;
+        private long[] duracoes = new long[64];
+
+        private void registrar(RecordedEvent evento) {
+            long nanos = evento.getDuration().toNanos();
+            if (chamadas == duracoes.length) {
+                duracoes = Arrays.copyOf(duracoes, duracoes.length * 2);
+            }
+            duracoes[(int) chamadas++] = nanos;
+            totalNanos += nanos;
+            maximoNanos = Math.max(maximoNanos, nanos);
+            long itensChamada = evento.getLong("itens");
+            itens += itensChamada;
+            maximoItens = Math.max(maximoItens, itensChamada);
+            recadosFiltrados += evento.getLong("recadosFiltrados");
+        }
+
+        private long percentil(double p) {
+            long[] ordenadas = Arrays.copyOf(duracoes, (int) chamadas);
+            Arrays.sort(ordenadas);
+            return ordenadas[(int) Math.min(chamadas - 1, Math.ceil(p * chamadas) - 1)];
+        }
+    }
+
+    private static final class Fase {
+        private long vezes;
+        private long totalNanos;
+        private long bytes;
+        private long registros;
+
+        private void registrar(RecordedEvent evento) {
+            vezes++;
+            totalNanos += evento.getDuration().toNanos();
+            bytes += evento.getLong("bytes");
+            registros += evento.getLong("registros");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: AnalisadorGravacao gravacao.jfr [linhas]");
+            System.exit(2);
+        }
+        AnalisadorGravacao analisador = new AnalisadorGravacao();
+        analisador.ler(Paths.get(args[0]));
+        analisador.imprimir(System.out, args.length > 1 ? Integer.parseInt(args[1]) : 15);
+    }
+}
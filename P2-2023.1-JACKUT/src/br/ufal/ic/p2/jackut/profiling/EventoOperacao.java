@@ -0,0 +1,70 @@
+package br.ufal.ic.p2.jackut.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento do Java Flight Recorder emitido a cada chamada de um método da Facade, com a duração
+ * e o tamanho do trabalho feito (ver {@link AnalisadorGravacao}).
+ *
+ * Sem gravação em andamento, o evento fica desabilitado e o custo de criá-lo e concluí-lo é desprezível.
+ * Uso na Facade:
+ * <pre>
+ * EventoOperacao medicao = EventoOperacao.iniciar("enviarMensagem");
+ * try {
+ *     ...
+ *     medicao.setItens(membros);
+ * } finally {
+ *     medicao.concluir();
+ * }
+ * </pre>
+ */
+@Name(EventoOperacao.NOME)
+@Label("Operação da Facade")
+@Category({"Jackut", "Facade"})
+@Description("Chamada de um método da Facade")
+@StackTrace(false)
+public final class EventoOperacao extends Event {
+    public static final String NOME = "br.ufal.ic.p2.jackut.Operacao";
+
+    @Label("Método")
+    String metodo;
+
+    @Label("Itens")
+    @Description("Elementos percorridos: membros que receberam a mensagem, usuários varridos, itens ordenados etc.")
+    long itens;
+
+    @Label("Recados filtrados")
+    @Description("Recados removidos ou descartados (por vencimento ou limite) durante a chamada")
+    long recadosFiltrados;
+
+    /**
+     * Cria o evento e marca o início da chamada.
+     * @param metodo Nome do método da Facade
+     */
+    public static EventoOperacao iniciar(String metodo) {
+        EventoOperacao evento = new EventoOperacao();
+        evento.metodo = metodo;
+        evento.begin();
+        return evento;
+    }
+
+    public void setItens(long itens) {
+        this.itens = itens;
+    }
+
+    public void setRecadosFiltrados(long recadosFiltrados) {
+        this.recadosFiltrados = recadosFiltrados;
+    }
+
+    /**
+     * Marca o fim da chamada e grava o evento, se houver gravação e a duração passar do limite configurado.
+     */
+    public void concluir() {
+        commit();
+    }
+}
@@ -0,0 +1,69 @@
+package br.ufal.ic.p2.jackut.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.file.Path;
+
+/**
+ * Evento do Java Flight Recorder para uma fase da persistência sobre um arquivo:
+ * <ul>
+ *     <li>leitura: abrir e interpretar um arquivo de dados no carregamento;</li>
+ *     <li>serializacao: gerar o conteúdo de um arquivo na memória, na thread de quem salva;</li>
+ *     <li>escrita: gravar e sincronizar um arquivo com o disco (inclusive o manifesto da geração);</li>
+ *     <li>sincronizacao: forçar para o disco o log de uma loja chave-valor, que é gravado aos poucos;</li>
+ *     <li>compactacao: reescrever uma loja chave-valor sem os registros mortos.</li>
+ * </ul>
+ */
+@Name(EventoPersistencia.NOME)
+@Label("Persistência")
+@Category({"Jackut", "Persistência"})
+@Description("Leitura, serialização, escrita, sincronização ou compactação de um arquivo de dados")
+@StackTrace(false)
+public final class EventoPersistencia extends Event {
+    public static final String NOME = "br.ufal.ic.p2.jackut.Persistencia";
+
+    @Label("Fase")
+    String fase;
+
+    @Label("Arquivo")
+    String arquivo;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Registros")
+    @Description("Usuários ou comunidades lidos ou escritos")
+    long registros;
+
+    /**
+     * Cria o evento e marca o início da fase.
+     * @param fase "leitura", "serializacao", "escrita", "sincronizacao" ou "compactacao"
+     * @param arquivo Arquivo envolvido
+     */
+    public static EventoPersistencia iniciar(String fase, Path arquivo) {
+        EventoPersistencia evento = new EventoPersistencia();
+        evento.fase = fase;
+        evento.arquivo = String.valueOf(arquivo.getFileName());
+        evento.begin();
+        return evento;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public void setRegistros(long registros) {
+        this.registros = registros;
+    }
+
+    public void concluir() {
+        commit();
+    }
+}
@@ -0,0 +1,55 @@
+package br.ufal.ic.p2.jackut.profiling;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Inicia, de dentro do programa, uma gravação do Java Flight Recorder com a configuração
+ * do Jackut (jackut.jfc, neste pacote). Pela linha de comando, o equivalente é
+ * {@code -XX:StartFlightRecording:settings=caminho/para/jackut.jfc,filename=jackut.jfr}.
+ */
+public final class GravacaoJackut {
+    public static final String CONFIGURACAO = "jackut.jfc";
+
+    private GravacaoJackut() {
+    }
+
+    /**
+     * @return a configuração jackut.jfc distribuída junto com as classes
+     * @throws IOException se o arquivo não estiver no classpath ou for inválido
+     */
+    public static Configuration configuracao() throws IOException {
+        InputStream in = GravacaoJackut.class.getResourceAsStream(CONFIGURACAO);
+        if (in == null) {
+            throw new IOException(CONFIGURACAO + " não está no classpath junto com " + GravacaoJackut.class.getName());
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        } catch (ParseException e) {
+            throw new IOException("Configuração " + CONFIGURACAO + " inválida", e);
+        }
+    }
+
+    /**
+     * Começa a gravar. Ao fechar a gravação ({@link Recording#close()} ou {@link Recording#stop()}),
+     * os eventos ficam no arquivo de destino, pronto para o {@link AnalisadorGravacao}.
+     * @param destino Arquivo .jfr
+     * @return a gravação em andamento
+     */
+    public static Recording iniciar(Path destino) throws IOException {
+        Recording gravacao = new Recording(configuracao());
+        gravacao.setName("Jackut");
+        gravacao.setDestination(destino);
+        gravacao.setToDisk(true);
+        gravacao.start();
+        return gravacao;
+    }
+}
@@ -0,0 +1,80 @@
+package br.ufal.ic.p2.jackut.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Balde de fichas sem travas.
+ *
+ * Em vez de guardar a quantidade de fichas e o instante da última reposição (dois valores que
+ * precisariam mudar juntos), guarda um único instante: quando o balde estaria cheio de novo
+ * ("tempo teórico de chegada"). Consumir c fichas empurra esse instante c * intervalo para frente;
+ * o consumo é recusado se isso o levar além da rajada permitida. Cada tentativa é um CAS.
+ */
+public final class BaldeFichas {
+    private final long intervaloNanos;
+    private final long toleranciaNanos;
+    private final int capacidade;
+    private final AtomicLong cheioEm;
+
+    /**
+     * @param fichasPorSegundo Taxa de reposição
+     * @param capacidade Máximo de fichas acumuladas (tamanho da rajada)
+     */
+    public BaldeFichas(double fichasPorSegundo, int capacidade) {
+        if (fichasPorSegundo <= 0 || capacidade <= 0) {
+            throw new IllegalArgumentException("Taxa e capacidade devem ser positivas.");
+        }
+        this.intervaloNanos = Math.max(1, (long) (1_000_000_000L / fichasPorSegundo));
+        this.capacidade = capacidade;
+        this.toleranciaNanos = intervaloNanos * capacidade;
+        this.cheioEm = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Tenta consumir fichas. Pedidos maiores que a capacidade são limitados a ela, para que nunca fiquem
+     * impossíveis de atender.
+     * @param fichas Quantidade de fichas
+     * @return true se havia fichas suficientes
+     */
+    public boolean consumir(int fichas) {
+        long custo = intervaloNanos * Math.min(Math.max(fichas, 1), capacidade);
+        while (true) {
+            long agora = System.nanoTime();
+            long atual = cheioEm.get();
+            long novo = Math.max(atual, agora) + custo;
+            if (novo - agora > toleranciaNanos) {
+                return false;
+            }
+            if (cheioEm.compareAndSet(atual, novo)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Devolve fichas consumidas por uma operação que acabou não acontecendo.
+     */
+    public void devolver(int fichas) {
+        long custo = intervaloNanos * Math.min(Math.max(fichas, 1), capacidade);
+        cheioEm.addAndGet(-custo);
+    }
+
+    /**
+     * @return fichas disponíveis agora (aproximado)
+     */
+    public int getDisponiveis() {
+        long restante = toleranciaNanos - Math.max(0, cheioEm.get() - System.nanoTime());
+        return (int) Math.max(0, restante / intervaloNanos);
+    }
+
+    /**
+     * @return true se o balde já repôs todas as fichas; um balde cheio equivale a um recém-criado
+     */
+    public boolean isCheio() {
+        return cheioEm.get() - System.nanoTime() <= 0;
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+}
@@ -0,0 +1,173 @@
+package br.ufal.ic.p2.jackut.ratelimit;
+
+import br.ufal.ic.p2.jackut.exceptions.LimiteTaxaExcedidoException;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Controle de admissão das operações de escrita: um balde de fichas por sessão e outro por login.
+ * A operação só é aceita se os dois baldes tiverem fichas; se o da sessão aceitar e o do login recusar,
+ * as fichas da sessão são devolvidas.
+ *
+ * Começa desativado. Os baldes são criados sob demanda e descartados quando a configuração muda.
+ * Um balde cheio não guarda nenhuma informação (equivale a um novo), então, sempre que um dos mapas
+ * dobra de tamanho desde a última varredura, os baldes cheios são removidos. Assim cada mapa fica
+ * limitado ao dobro das sessões e logins que escreveram na última janela de rajada, e o custo da
+ * varredura se dilui nas inserções que a provocaram.
+ */
+public class LimitadorTaxa {
+    public static final double TAXA_SESSAO_PADRAO = 20;
+    public static final int RAJADA_SESSAO_PADRAO = 100;
+    public static final double TAXA_LOGIN_PADRAO = 50;
+    public static final int RAJADA_LOGIN_PADRAO = 500;
+    private static final int VARREDURA_MINIMA = 1024;
+
+    private final Map<String, BaldeFichas> porSessao = new ConcurrentHashMap<>();
+    private final Map<String, BaldeFichas> porLogin = new ConcurrentHashMap<>();
+    private final Map<OperacaoEscrita, LongAdder> aceitas = new EnumMap<>(OperacaoEscrita.class);
+    private final Map<OperacaoEscrita, LongAdder> recusadas = new EnumMap<>(OperacaoEscrita.class);
+    private final AtomicBoolean varrendo = new AtomicBoolean();
+    private volatile int proximaVarredura = VARREDURA_MINIMA;
+
+    private volatile boolean ativo = false;
+    private volatile double taxaSessao = TAXA_SESSAO_PADRAO;
+    private volatile int rajadaSessao = RAJADA_SESSAO_PADRAO;
+    private volatile double taxaLogin = TAXA_LOGIN_PADRAO;
+    private volatile int rajadaLogin = RAJADA_LOGIN_PADRAO;
+
+    public LimitadorTaxa() {
+        for (OperacaoEscrita operacao : OperacaoEscrita.values()) {
+            aceitas.put(operacao, new LongAdder());
+            recusadas.put(operacao, new LongAdder());
+        }
+    }
+
+    /**
+     * Define os limites e ativa o controle.
+     * @param taxaSessao Operações por segundo permitidas a cada sessão
+     * @param rajadaSessao Operações acumuláveis por sessão
+     * @param taxaLogin Operações por segundo permitidas a cada login (somando suas sessões)
+     * @param rajadaLogin Operações acumuláveis por login
+     */
+    public synchronized void configurar(double taxaSessao, int rajadaSessao, double taxaLogin, int rajadaLogin) {
+        if (taxaSessao <= 0 || rajadaSessao <= 0 || taxaLogin <= 0 || rajadaLogin <= 0) {
+            throw new IllegalArgumentException("Taxa e capacidade devem ser positivas.");
+        }
+        this.taxaSessao = taxaSessao;
+        this.rajadaSessao = rajadaSessao;
+        this.taxaLogin = taxaLogin;
+        this.rajadaLogin = rajadaLogin;
+        porSessao.clear();
+        porLogin.clear();
+        ativo = true;
+    }
+
+    public void ativar() {
+        ativo = true;
+    }
+
+    public void desativar() {
+        ativo = false;
+    }
+
+    public boolean isAtivo() {
+        return ativo;
+    }
+
+    /**
+     * Consome as fichas da operação ou recusa a chamada.
+     * @param idSessao Sessão que está escrevendo
+     * @param login Usuário da sessão
+     * @param operacao Operação sendo executada
+     * @param peso Fichas consumidas (1 para operações simples; membros da comunidade para mensagens)
+     * @throws LimiteTaxaExcedidoException se a sessão ou o login não tiver fichas suficientes
+     */
+    public void adquirir(String idSessao, String login, OperacaoEscrita operacao, int peso) {
+        if (!ativo) return;
+
+        if (porSessao.size() + porLogin.size() > proximaVarredura) {
+            varrer();
+        }
+
+        BaldeFichas sessao = porSessao.computeIfAbsent(idSessao, s -> new BaldeFichas(taxaSessao, rajadaSessao));
+        if (!sessao.consumir(peso)) {
+            recusadas.get(operacao).increment();
+            throw new LimiteTaxaExcedidoException();
+        }
+        BaldeFichas usuario = porLogin.computeIfAbsent(login, l -> new BaldeFichas(taxaLogin, rajadaLogin));
+        if (!usuario.consumir(peso)) {
+            sessao.devolver(peso);
+            recusadas.get(operacao).increment();
+            throw new LimiteTaxaExcedidoException();
+        }
+        aceitas.get(operacao).increment();
+    }
+
+    /**
+     * Remove os baldes cheios. Uma thread que já tinha o balde em mãos pode consumir dele logo depois da
+     * remoção; esse consumo se perde e a sessão ganha no máximo essas fichas a mais, o que é aceitável.
+     */
+    private void varrer() {
+        if (!varrendo.compareAndSet(false, true)) return;
+        try {
+            porSessao.values().removeIf(BaldeFichas::isCheio);
+            porLogin.values().removeIf(BaldeFichas::isCheio);
+            proximaVarredura = Math.max(VARREDURA_MINIMA, 2 * (porSessao.size() + porLogin.size()));
+        } finally {
+            varrendo.set(false);
+        }
+    }
+
+    /**
+     * @return quantidade de baldes mantidos (sessões mais logins)
+     */
+    public int getQuantidadeBaldes() {
+        return porSessao.size() + porLogin.size();
+    }
+
+    /**
+     * Esquece os baldes de um usuário (ex.: usuário removido).
+     */
+    public void esquecer(String login, Iterable<String> sessoes) {
+        porLogin.remove(login);
+        for (String idSessao : sessoes) {
+            porSessao.remove(idSessao);
+        }
+    }
+
+    public void limpar() {
+        porSessao.clear();
+        porLogin.clear();
+    }
+
+    public long getAceitas(OperacaoEscrita operacao) {
+        return aceitas.get(operacao).sum();
+    }
+
+    public long getRecusadas(OperacaoEscrita operacao) {
+        return recusadas.get(operacao).sum();
+    }
+
+    public long getTotalRecusadas() {
+        long total = 0;
+        for (LongAdder contador : recusadas.values()) {
+            total += contador.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return contadores no formato "OPERACAO=aceitas/recusadas", uma operação por linha
+     */
+    public String getMetricas() {
+        StringBuilder sb = new StringBuilder();
+        for (OperacaoEscrita operacao : OperacaoEscrita.values()) {
+            sb.append(operacao).append('=').append(getAceitas(operacao)).append('/').append(getRecusadas(operacao)).append('\n');
+        }
+        return sb.toString();
+    }
+}
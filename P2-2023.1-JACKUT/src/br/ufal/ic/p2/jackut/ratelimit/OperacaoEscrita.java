@@ -0,0 +1,16 @@
+package br.ufal.ic.p2.jackut.ratelimit;
+
+/**
+ * Operações de escrita da Facade sujeitas a limite de taxa.
+ */
+public enum OperacaoEscrita {
+    EDITAR_PERFIL,
+    ADICIONAR_AMIGO,
+    ENVIAR_RECADO,
+    CRIAR_COMUNIDADE,
+    ADICIONAR_COMUNIDADE,
+    ENVIAR_MENSAGEM, // custa uma ficha por membro da comunidade
+    ADICIONAR_IDOLO,
+    ADICIONAR_PAQUERA,
+    ADICIONAR_INIMIGO
+}
@@ -0,0 +1,205 @@
+package br.ufal.ic.p2.jackut.replication;
+
+import br.ufal.ic.p2.jackut.models.Facade;
+import br.ufal.ic.p2.jackut.persistence.ConfiguracaoArmazenamento;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Linha de comando dos processos de líder e seguidor, para testar a replicação com vários processos.
+ *
+ * Cada linha é {@code [variavel=]metodo arg1 arg2 ...}, no estilo dos scripts de aceitação: argumentos
+ * com espaços vão entre aspas e {@code ${variavel}} é trocado pelo resultado guardado antes. No líder,
+ * qualquer método público da Facade pode ser chamado, além de {@code atrasos}. No seguidor, só as
+ * consultas de SeguidorReplicacao, além de {@code atraso} e {@code promover porta}, que transforma o
+ * processo em líder. O que o líder ou o seguidor informam ao seu {@link OuvinteReplicacao} aparece como
+ * linhas {@code aviso: ...} antes da resposta do comando seguinte.
+ */
+final class ConsoleReplicacao {
+    private static final Pattern VARIAVEL = Pattern.compile("\\$\\{(\\w+)}");
+    private static final Pattern ATRIBUICAO = Pattern.compile("(\\w+)=(\\S+)");
+    private static final Set<String> CONSULTAS_SEGUIDOR =
+            Set.of("getAmigos", "getFas", "getAtributoUsuario", "getMembrosComunidade", "ehAmigo");
+
+    private final Map<String, String> variaveis = new HashMap<>();
+    // Ocorrências das threads da replicação, mostradas na próxima resposta
+    private final Queue<String> avisos = new ConcurrentLinkedQueue<>();
+    private LiderReplicacao lider;
+    private SeguidorReplicacao seguidor;
+
+    ConsoleReplicacao(LiderReplicacao lider) {
+        this.lider = lider;
+        lider.setOuvinte(avisos::add);
+    }
+
+    ConsoleReplicacao(SeguidorReplicacao seguidor) {
+        this.seguidor = seguidor;
+        seguidor.setOuvinte(avisos::add);
+    }
+
+    /**
+     * @param modo "memoria", "tmpfs" ou o caminho de um diretório
+     */
+    static ConfiguracaoArmazenamento configuracao(String modo) throws IOException {
+        switch (modo) {
+            case "memoria": return ConfiguracaoArmazenamento.emMemoria();
+            case "tmpfs": return ConfiguracaoArmazenamento.tmpfs();
+            default:
+                return ConfiguracaoArmazenamento.diretorio(Files.createDirectories(Paths.get(modo)));
+        }
+    }
+
+    /**
+     * Executa os comandos até o fim da entrada. Erros são impressos e não interrompem a leitura.
+     */
+    void executar(InputStream entrada, PrintStream saida) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8));
+        String linha;
+        while ((linha = reader.readLine()) != null) {
+            List<String> partes = separar(substituir(linha.trim()));
+            if (partes.isEmpty() || partes.get(0).startsWith("#")) continue;
+
+            String variavel = null;
+            Matcher atribuicao = ATRIBUICAO.matcher(partes.get(0));
+            if (atribuicao.matches()) {
+                variavel = atribuicao.group(1);
+                partes.set(0, atribuicao.group(2));
+            }
+            Object resultado;
+            try {
+                resultado = executar(partes.get(0), partes.subList(1, partes.size()));
+                if (variavel != null) {
+                    variaveis.put(variavel, String.valueOf(resultado));
+                }
+                resultado = resultado == null ? "ok" : resultado;
+            } catch (RuntimeException | IOException e) {
+                resultado = "erro: " + e.getMessage();
+            }
+            for (String aviso; (aviso = avisos.poll()) != null; ) {
+                saida.println("aviso: " + aviso);
+            }
+            saida.println(resultado);
+            saida.flush();
+        }
+    }
+
+    /**
+     * Salva os dados e encerra o líder ou o seguidor (o que o processo for no momento).
+     */
+    void encerrar() {
+        if (lider != null) {
+            lider.executar(facade -> {
+                facade.encerrarSistema();
+                facade.sincronizar();
+                return null;
+            });
+            lider.close();
+        } else {
+            seguidor.close();
+        }
+    }
+
+    private Object executar(String comando, List<String> argumentos) throws IOException {
+        if (lider != null) {
+            if (comando.equals("atrasos")) return lider.getAtrasos();
+            if (comando.equals("sequencia")) return lider.getUltimaSequencia();
+            return lider.executar(facade -> invocar(facade, Facade.class, comando, argumentos));
+        }
+        switch (comando) {
+            case "atraso":
+                return "aplicada=" + seguidor.getAplicada() + " atraso=" + seguidor.getAtraso()
+                        + " semContato=" + seguidor.getMillisSemContato() + "ms falhas=" + seguidor.getFalhas()
+                        + (seguidor.divergiu() ? " divergiu" : "");
+            case "promover":
+                lider = seguidor.promover(argumentos.isEmpty() ? 0 : Integer.parseInt(argumentos.get(0)));
+                lider.setOuvinte(avisos::add);
+                seguidor = null;
+                return "lider na porta " + lider.getPorta();
+            default:
+                if (!CONSULTAS_SEGUIDOR.contains(comando)) {
+                    throw new UnsupportedOperationException("Seguidor só responde consultas: " + comando);
+                }
+                return invocar(seguidor, SeguidorReplicacao.class, comando, argumentos);
+        }
+    }
+
+    private static Object invocar(Object alvo, Class<?> classe, String nome, List<String> argumentos) {
+        for (Method metodo : classe.getMethods()) {
+            if (!metodo.getName().equals(nome) || metodo.getParameterCount() != argumentos.size()
+                    || Modifier.isStatic(metodo.getModifiers())) continue;
+            Class<?>[] tipos = metodo.getParameterTypes();
+            Object[] valores = new Object[tipos.length];
+            boolean compativel = true;
+            for (int i = 0; i < tipos.length && compativel; i++) {
+                String argumento = argumentos.get(i);
+                if (tipos[i] == String.class) valores[i] = argumento;
+                else if (tipos[i] == int.class) valores[i] = Integer.parseInt(argumento);
+                else if (tipos[i] == long.class) valores[i] = Long.parseLong(argumento);
+                else compativel = false;
+            }
+            if (!compativel) continue;
+            try {
+                return metodo.invoke(alvo, valores);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        throw new IllegalArgumentException("Comando desconhecido: " + nome + "/" + argumentos.size());
+    }
+
+    private String substituir(String linha) {
+        Matcher m = VARIAVEL.matcher(linha);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            m.appendReplacement(sb, Matcher.quoteReplacement(variaveis.getOrDefault(m.group(1), "")));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    // Separa por espaços, mantendo juntos os trechos entre aspas
+    private static List<String> separar(String linha) {
+        List<String> partes = new ArrayList<>();
+        StringBuilder atual = new StringBuilder();
+        boolean entreAspas = false;
+        boolean temParte = false;
+        for (int i = 0; i < linha.length(); i++) {
+            char c = linha.charAt(i);
+            if (c == '"') {
+                entreAspas = !entreAspas;
+                temParte = true;
+            } else if (c == ' ' && !entreAspas) {
+                if (temParte) partes.add(atual.toString());
+                atual.setLength(0);
+                temParte = false;
+            } else {
+                atual.append(c);
+                temParte = true;
+            }
+        }
+        if (temParte) partes.add(atual.toString());
+        return partes;
+    }
+}
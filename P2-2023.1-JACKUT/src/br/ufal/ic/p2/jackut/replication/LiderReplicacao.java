@@ -0,0 +1,335 @@
+package br.ufal.ic.p2.jackut.replication;
+
+import br.ufal.ic.p2.jackut.events.ConsumidorEventos;
+import br.ufal.ic.p2.jackut.events.Evento;
+import br.ufal.ic.p2.jackut.models.Facade;
+import br.ufal.ic.p2.jackut.persistence.ArmazenamentoMemoria;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Líder da replicação: numera as mutações da Facade em um diário e as envia aos seguidores.
+ *
+ * O diário é alimentado pelo barramento de eventos da Facade (ver {@link Facade#aplicarEvento(Evento)}
+ * para como os seguidores o reaplicam). As últimas entradas ficam em memória; um seguidor que volta
+ * dentro dessa janela continua de onde parou, e os demais recebem antes um instantâneo do estado.
+ * Cada seguidor tem uma conexão TCP (só na interface local) e uma thread de envio.
+ *
+ * Para o instantâneo corresponder a uma posição exata do diário, as escritas na Facade precisam passar
+ * por {@link #executar(Function)}, que as serializa. Conexões que caem por erro são informadas ao
+ * {@link OuvinteReplicacao} configurado.
+ */
+public class LiderReplicacao implements ConsumidorEventos, Closeable {
+    public static final int RETENCAO_PADRAO = 100_000;
+    private static final long INTERVALO_BATIMENTO_MILLIS = 200;
+    private static final int TAMANHO_LOTE = 512;
+
+    private final Facade facade;
+    private final long historico;
+    private final int retencao;
+    private final ServerSocket servidor;
+    private final List<Conexao> conexoes = new CopyOnWriteArrayList<>();
+
+    // Entradas primeira .. ultima; diario.get(0) tem a sequência primeira
+    private final ArrayList<Evento> diario = new ArrayList<>();
+    private long primeira;
+    private long ultima;
+    private volatile boolean fechado;
+    private volatile OuvinteReplicacao ouvinte = descricao -> { };
+
+    /**
+     * Começa um histórico novo: os seguidores que já existirem recebem um instantâneo ao se conectar.
+     * @param facade Facade cujas mutações serão replicadas
+     * @param porta Porta local, ou 0 para uma porta livre (ver {@link #getPorta()})
+     */
+    public LiderReplicacao(Facade facade, int porta) throws IOException {
+        this(facade, porta, new SecureRandom().nextLong(), 0, RETENCAO_PADRAO);
+    }
+
+    /**
+     * @param historico Identificador do histórico; um seguidor promovido continua o do líder antigo
+     * @param ultimaAplicada Sequência da última entrada já refletida na Facade
+     * @param retencao Quantas entradas ficam em memória para seguidores que reconectam
+     */
+    LiderReplicacao(Facade facade, int porta, long historico, long ultimaAplicada, int retencao) throws IOException {
+        if (retencao <= 0) {
+            throw new IllegalArgumentException("Retenção deve ser positiva.");
+        }
+        this.facade = facade;
+        this.historico = historico;
+        this.retencao = retencao;
+        this.primeira = ultimaAplicada + 1;
+        this.ultima = ultimaAplicada;
+        this.servidor = new ServerSocket(porta, 50, InetAddress.getLoopbackAddress());
+        // O seguidor precisa da senha para recriar os usuários
+        facade.getEventos().assinarComDadosPrivados(this, erro -> { });
+
+        Thread aceitadora = new Thread(this::aceitar, "jackut-lider-" + getPorta());
+        aceitadora.setDaemon(true);
+        aceitadora.start();
+    }
+
+    /**
+     * Executa uma operação na Facade do líder. Todas as chamadas (leituras e escritas) devem passar por aqui.
+     * @return o resultado da operação
+     */
+    public <T> T executar(Function<Facade, T> operacao) {
+        synchronized (facade) {
+            return operacao.apply(facade);
+        }
+    }
+
+    /**
+     * @param ouvinte Recebe as falhas de conexão com os seguidores
+     */
+    public void setOuvinte(OuvinteReplicacao ouvinte) {
+        this.ouvinte = ouvinte;
+    }
+
+    public int getPorta() {
+        return servidor.getLocalPort();
+    }
+
+    /**
+     * @return sequência da última entrada do diário
+     */
+    public long getUltimaSequencia() {
+        synchronized (diario) {
+            return ultima;
+        }
+    }
+
+    /**
+     * Um lote que o diário não conseguiu registrar deixa os seguidores para trás sem que eles percebam.
+     * @return quantos lotes de eventos da Facade não entraram no diário
+     */
+    public long getFalhasDiario() {
+        return facade.getEventos().getFalhas(this);
+    }
+
+    /**
+     * Atraso de envio de cada seguidor conectado: quantas entradas do diário ainda não foram enviadas a ele.
+     * @return mapa (endereço do seguidor -> entradas pendentes)
+     */
+    public Map<String, Long> getAtrasos() {
+        long topo = getUltimaSequencia();
+        Map<String, Long> atrasos = new LinkedHashMap<>();
+        for (Conexao conexao : conexoes) {
+            atrasos.put(conexao.endereco, Math.max(0, topo - conexao.enviada));
+        }
+        return atrasos;
+    }
+
+    @Override
+    public void consumir(List<Evento> lote) {
+        synchronized (diario) {
+            for (Evento evento : lote) {
+                ultima++;
+                diario.add(new Evento(ultima, evento.getInstante(), evento.getTipo(), evento.getLogin(),
+                        evento.getAlvo(), evento.getConteudo(), evento.getPrivado()));
+            }
+            // Descarta em blocos, para não deslocar a lista a cada entrada
+            if (diario.size() > retencao + retencao / 4) {
+                int excedente = diario.size() - retencao;
+                diario.subList(0, excedente).clear();
+                primeira += excedente;
+            }
+            diario.notifyAll();
+        }
+    }
+
+    /**
+     * Para de aceitar seguidores e fecha as conexões. A Facade continua utilizável.
+     */
+    @Override
+    public void close() {
+        fechado = true;
+        facade.getEventos().cancelarAssinatura(this);
+        try {
+            servidor.close();
+        } catch (IOException ignorada) {
+        }
+        for (Conexao conexao : conexoes) {
+            conexao.fechar();
+        }
+        synchronized (diario) {
+            diario.notifyAll();
+        }
+    }
+
+    private void aceitar() {
+        while (!fechado) {
+            try {
+                Socket socket = servidor.accept();
+                socket.setTcpNoDelay(true);
+                Conexao conexao = new Conexao(socket);
+                conexoes.add(conexao);
+                Thread thread = new Thread(conexao, "jackut-lider-envio-" + conexao.endereco);
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!fechado) {
+                    ouvinte.ocorrencia("Falha ao aceitar seguidor: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copia o estado e as configurações da Facade e a sequência do diário que eles refletem.
+     * Com a Facade bloqueada, espera o barramento entregar o que já foi publicado; assim nenhuma
+     * mutação fica de fora do diário nem é contada duas vezes.
+     */
+    private Instantaneo capturarInstantaneo() {
+        synchronized (facade) {
+            facade.getEventos().aguardarEntrega();
+            ArmazenamentoMemoria estado = new ArmazenamentoMemoria();
+            facade.salvarEm(estado);
+            return new Instantaneo(getUltimaSequencia(), estado, facade.eventosConfiguracao());
+        }
+    }
+
+    private static final class Instantaneo {
+        private final long sequencia;
+        private final ArmazenamentoMemoria estado;
+        private final List<Evento> configuracao;
+
+        private Instantaneo(long sequencia, ArmazenamentoMemoria estado, List<Evento> configuracao) {
+            this.sequencia = sequencia;
+            this.estado = estado;
+            this.configuracao = configuracao;
+        }
+    }
+
+    private final class Conexao implements Runnable {
+        private final Socket socket;
+        private final String endereco;
+        private volatile long enviada;
+
+        private Conexao(Socket socket) {
+            this.socket = socket;
+            this.endereco = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                if (in.readInt() != ProtocoloReplicacao.MAGICO) {
+                    throw new IOException("Protocolo inválido");
+                }
+                long historicoSeguidor = in.readLong();
+                enviada = in.readLong();
+                if (historicoSeguidor != historico || !noDiario(enviada)) {
+                    enviarInstantaneo(out);
+                }
+                while (!fechado) {
+                    enviarPendentes(out);
+                }
+            } catch (SocketException | EOFException e) {
+                // Seguidor desconectou
+            } catch (IOException e) {
+                if (!fechado) {
+                    ouvinte.ocorrencia("Replicação para " + endereco + " interrompida: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                conexoes.remove(this);
+            }
+        }
+
+        // O seguidor pode continuar se a próxima entrada de que precisa ainda está no diário
+        private boolean noDiario(long aplicada) {
+            synchronized (diario) {
+                return aplicada >= primeira - 1 && aplicada <= ultima;
+            }
+        }
+
+        private void enviarInstantaneo(DataOutputStream out) throws IOException {
+            Instantaneo instantaneo = capturarInstantaneo();
+            out.writeByte(ProtocoloReplicacao.INSTANTANEO);
+            out.writeLong(historico);
+            out.writeLong(instantaneo.sequencia);
+            instantaneo.estado.escrever(out);
+            ProtocoloReplicacao.escreverConfiguracao(out, instantaneo.configuracao);
+            out.flush();
+            enviada = instantaneo.sequencia;
+        }
+
+        private void enviarPendentes(DataOutputStream out) throws IOException, InterruptedException {
+            List<Evento> lote;
+            long topo;
+            synchronized (diario) {
+                if (enviada == ultima && !fechado) {
+                    diario.wait(INTERVALO_BATIMENTO_MILLIS);
+                }
+                if (enviada < primeira - 1) {
+                    lote = null;
+                } else {
+                    int inicio = (int) (enviada + 1 - primeira);
+                    int fim = Math.min(diario.size(), inicio + TAMANHO_LOTE);
+                    lote = new ArrayList<>(diario.subList(inicio, fim));
+                }
+                topo = ultima;
+            }
+
+            if (lote == null) {
+                // Ficou para trás da janela do diário
+                enviarInstantaneo(out);
+                return;
+            }
+            if (lote.isEmpty()) {
+                out.writeByte(ProtocoloReplicacao.BATIMENTO);
+                out.writeLong(topo);
+            } else {
+                for (Evento evento : lote) {
+                    ProtocoloReplicacao.escreverEntrada(out, evento);
+                }
+            }
+            out.flush();
+            if (!lote.isEmpty()) {
+                enviada = lote.get(lote.size() - 1).getSequencia();
+            }
+        }
+
+        private void fechar() {
+            try {
+                socket.close();
+            } catch (IOException ignorada) {
+            }
+        }
+    }
+
+    /**
+     * Roda um líder em um processo próprio, lendo comandos da entrada padrão (ver {@link ConsoleReplicacao}).
+     * Uso: {@code java br.ufal.ic.p2.jackut.replication.LiderReplicacao porta [memoria|tmpfs|diretorio]}
+     */
+    public static void main(String[] args) throws IOException {
+        int porta = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        Facade facade = new Facade(ConsoleReplicacao.configuracao(args.length > 1 ? args[1] : "memoria"));
+        LiderReplicacao lider = new LiderReplicacao(facade, porta);
+        System.out.println("lider na porta " + lider.getPorta());
+        ConsoleReplicacao console = new ConsoleReplicacao(lider);
+        console.executar(System.in, System.out);
+        console.encerrar();
+    }
+}
@@ -0,0 +1,11 @@
+package br.ufal.ic.p2.jackut.replication;
+
+/**
+ * Recebe os problemas que o líder ou o seguidor contornam sozinhos (conexões perdidas, entradas que
+ * não puderam ser reaplicadas), para que quem os opera possa vê-los. É chamado pelas threads da
+ * replicação: precisa ser rápido e não deve lançar exceções.
+ */
+@FunctionalInterface
+public interface OuvinteReplicacao {
+    void ocorrencia(String descricao);
+}
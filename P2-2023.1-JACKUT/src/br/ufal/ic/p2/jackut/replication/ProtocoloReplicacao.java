@@ -0,0 +1,94 @@
+package br.ufal.ic.p2.jackut.replication;
+
+import br.ufal.ic.p2.jackut.events.Evento;
+import br.ufal.ic.p2.jackut.events.TipoEvento;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Formato das mensagens trocadas entre líder e seguidores.
+ *
+ * O seguidor abre a conexão e envia MAGICO, o histórico que está seguindo e a última entrada aplicada.
+ * Daí em diante só o líder escreve: entradas do diário, batimentos (quando não há o que enviar) e,
+ * se o seguidor não puder continuar de onde parou, um instantâneo completo do estado seguido das
+ * configurações da Facade (ver {@link br.ufal.ic.p2.jackut.models.Facade#eventosConfiguracao()}),
+ * que vão como entradas sem sequência. Um seguidor que pede a entrada -1 quer um instantâneo.
+ */
+final class ProtocoloReplicacao {
+    static final int MAGICO = 0x4A4B5202;
+
+    static final byte ENTRADA = 1;
+    static final byte BATIMENTO = 2;
+    static final byte INSTANTANEO = 3;
+
+    private ProtocoloReplicacao() {
+    }
+
+    static void escreverEntrada(DataOutput out, Evento evento) throws IOException {
+        out.writeByte(ENTRADA);
+        out.writeLong(evento.getSequencia());
+        out.writeLong(evento.getInstante());
+        out.writeByte(evento.getTipo().ordinal());
+        escreverTexto(out, evento.getLogin());
+        escreverTexto(out, evento.getAlvo());
+        escreverTexto(out, evento.getConteudo());
+        escreverTexto(out, evento.getPrivado());
+    }
+
+    /**
+     * Lê uma entrada cujo marcador (ENTRADA) já foi consumido.
+     */
+    static Evento lerEntrada(DataInput in) throws IOException {
+        long sequencia = in.readLong();
+        long instante = in.readLong();
+        int tipo = in.readUnsignedByte();
+        if (tipo >= TipoEvento.values().length) {
+            throw new IOException("Tipo de evento desconhecido: " + tipo);
+        }
+        return new Evento(sequencia, instante, TipoEvento.values()[tipo],
+                lerTexto(in), lerTexto(in), lerTexto(in), lerTexto(in));
+    }
+
+    static void escreverConfiguracao(DataOutput out, List<Evento> configuracao) throws IOException {
+        out.writeInt(configuracao.size());
+        for (Evento evento : configuracao) {
+            escreverEntrada(out, evento);
+        }
+    }
+
+    static List<Evento> lerConfiguracao(DataInput in) throws IOException {
+        int quantidade = in.readInt();
+        List<Evento> configuracao = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            if (in.readByte() != ENTRADA) {
+                throw new IOException("Configuração do instantâneo inválida");
+            }
+            configuracao.add(lerEntrada(in));
+        }
+        return configuracao;
+    }
+
+    // writeUTF não aceita textos acima de 64 KB, e recados não têm limite
+    private static void escreverTexto(DataOutput out, String texto) throws IOException {
+        if (texto == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String lerTexto(DataInput in) throws IOException {
+        int tamanho = in.readInt();
+        if (tamanho < 0) return null;
+        byte[] bytes = new byte[tamanho];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,344 @@
+package br.ufal.ic.p2.jackut.replication;
+
+import br.ufal.ic.p2.jackut.events.Evento;
+import br.ufal.ic.p2.jackut.models.Comunidade;
+import br.ufal.ic.p2.jackut.models.Facade;
+import br.ufal.ic.p2.jackut.models.Usuario;
+import br.ufal.ic.p2.jackut.persistence.Armazenamento;
+import br.ufal.ic.p2.jackut.persistence.ArmazenamentoMemoria;
+import br.ufal.ic.p2.jackut.persistence.ConfiguracaoArmazenamento;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Seguidor da replicação: mantém uma cópia da Facade do líder e responde consultas somente leitura.
+ *
+ * Uma thread recebe o diário do líder e reaplica cada entrada na Facade local (ver
+ * {@link Facade#aplicarEvento(Evento)}). Ao conectar pela primeira vez, ou se ficou para trás da
+ * janela do líder, o seguidor recebe um instantâneo, que é gravado no armazenamento configurado e
+ * passa a ser a Facade local. Se a conexão cai, a thread reconecta e continua de onde parou.
+ *
+ * Uma entrada que não pode ser reaplicada significa que a cópia divergiu do líder: o seguidor para de
+ * aplicar, deixa de responder consultas e pede um instantâneo novo. Falhas de conexão e divergências
+ * são informadas ao {@link OuvinteReplicacao} configurado.
+ *
+ * Só as consultas abaixo estão expostas; escritas só existem no líder. Com {@link #promover(int)}
+ * o seguidor para de seguir e sua Facade passa a ser a de um novo líder, que continua o mesmo histórico.
+ */
+public class SeguidorReplicacao implements Closeable {
+    private static final long ESPERA_RECONEXAO_MILLIS = 500;
+
+    private final ConfiguracaoArmazenamento configuracao;
+    private final String host;
+    private final int porta;
+    private final Thread receptora;
+
+    private volatile Facade facade;
+    private volatile long historico;
+    private volatile long aplicada;
+    private volatile long topoLider;
+    private volatile long instanteContato;
+    private volatile long falhas;
+    // Uma entrada falhou: a Facade local não reflete mais o líder até o próximo instantâneo
+    private volatile boolean divergiu;
+    private volatile boolean ativo = true;
+    private volatile OuvinteReplicacao ouvinte = descricao -> { };
+    private Socket socket;
+
+    /**
+     * @param configuracao Onde guardar a cópia local dos dados
+     * @param host Endereço do líder
+     * @param porta Porta do líder
+     */
+    public SeguidorReplicacao(ConfiguracaoArmazenamento configuracao, String host, int porta) {
+        this.configuracao = configuracao;
+        this.host = host;
+        this.porta = porta;
+        this.receptora = new Thread(this::seguir, "jackut-seguidor-" + porta);
+        receptora.setDaemon(true);
+        receptora.start();
+    }
+
+    /**
+     * @param ouvinte Recebe as falhas de conexão com o líder e as entradas que não puderam ser reaplicadas
+     */
+    public void setOuvinte(OuvinteReplicacao ouvinte) {
+        this.ouvinte = ouvinte;
+    }
+
+    public String getAmigos(String login) {
+        return consultar(f -> f.getAmigos(login));
+    }
+
+    public String getFas(String login) {
+        return consultar(f -> f.getFas(login));
+    }
+
+    public String getAtributoUsuario(String login, String chave) {
+        return consultar(f -> f.getAtributoUsuario(login, chave));
+    }
+
+    public String getMembrosComunidade(String nome) {
+        return consultar(f -> f.getMembrosComunidade(nome));
+    }
+
+    public boolean ehAmigo(String login, String amigo) {
+        return consultar(f -> f.ehAmigo(login, amigo));
+    }
+
+    /**
+     * @return true depois que o primeiro instantâneo foi recebido, se a cópia não divergiu desde o último
+     */
+    public boolean estaPronto() {
+        return facade != null && !divergiu;
+    }
+
+    /**
+     * @return true entre uma entrada que não pôde ser reaplicada e o instantâneo que corrige a cópia
+     */
+    public boolean divergiu() {
+        return divergiu;
+    }
+
+    /**
+     * @return sequência da última entrada do diário aplicada aqui
+     */
+    public long getAplicada() {
+        return aplicada;
+    }
+
+    /**
+     * Atraso de replicação em entradas: quanto o líder já tinha no diário na última notícia dele
+     * e ainda não foi aplicado aqui.
+     */
+    public long getAtraso() {
+        return Math.max(0, topoLider - aplicada);
+    }
+
+    /**
+     * @return milissegundos desde a última mensagem do líder, ou -1 se ainda não houve contato.
+     *         O líder envia batimentos a cada 200 ms, então valores altos indicam que ele caiu.
+     */
+    public long getMillisSemContato() {
+        long instante = instanteContato;
+        return instante == 0 ? -1 : System.currentTimeMillis() - instante;
+    }
+
+    /**
+     * @return entradas que não puderam ser reaplicadas; cada uma fez o seguidor pedir um instantâneo
+     */
+    public long getFalhas() {
+        return falhas;
+    }
+
+    /**
+     * Para de seguir e transforma a cópia local em líder, continuando o histórico do líder antigo:
+     * seguidores que estavam no mesmo ponto continuam sem precisar de um instantâneo.
+     * @param portaNova Porta em que o novo líder vai escutar, ou 0 para uma porta livre
+     * @return o novo líder; a partir daqui, use-o para acessar a Facade
+     * @throws IllegalStateException se o seguidor ainda não recebeu nenhum estado, ou se divergiu do líder
+     */
+    public LiderReplicacao promover(int portaNova) throws IOException {
+        pararDeSeguir();
+        Facade local = facade;
+        if (local == null) {
+            throw new IllegalStateException("Seguidor ainda não recebeu o estado do líder.");
+        }
+        if (divergiu) {
+            throw new IllegalStateException("Seguidor divergiu do líder e não recebeu um instantâneo novo.");
+        }
+        return new LiderReplicacao(local, portaNova, historico, aplicada, LiderReplicacao.RETENCAO_PADRAO);
+    }
+
+    /**
+     * Para de seguir e salva a cópia local.
+     */
+    @Override
+    public void close() {
+        pararDeSeguir();
+        Facade local = facade;
+        if (local != null) {
+            synchronized (local) {
+                local.encerrarSistema();
+                local.sincronizar();
+            }
+        }
+    }
+
+    private <T> T consultar(Function<Facade, T> consulta) {
+        Facade local = facade;
+        if (local == null) {
+            throw new IllegalStateException("Seguidor ainda não recebeu o estado do líder.");
+        }
+        if (divergiu) {
+            throw new IllegalStateException("Seguidor divergiu do líder; aguardando um instantâneo.");
+        }
+        synchronized (local) {
+            return consulta.apply(local);
+        }
+    }
+
+    private void pararDeSeguir() {
+        ativo = false;
+        synchronized (this) {
+            fecharSocket();
+        }
+        try {
+            receptora.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void seguir() {
+        while (ativo) {
+            try {
+                Socket s = new Socket(host, porta);
+                synchronized (this) {
+                    if (!ativo) {
+                        s.close();
+                        return;
+                    }
+                    socket = s;
+                }
+                s.setTcpNoDelay(true);
+                receber(s);
+            } catch (ConnectException e) {
+                // Líder fora do ar: tenta de novo
+            } catch (IOException | RuntimeException e) {
+                if (ativo) {
+                    // EOFException (líder encerrado) não tem mensagem
+                    ouvinte.ocorrencia("Conexão com o líder perdida: "
+                            + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                }
+            } finally {
+                synchronized (this) {
+                    fecharSocket();
+                }
+            }
+            // Quem divergiu reconecta já, para pedir o instantâneo
+            if (ativo && !divergiu) {
+                try {
+                    Thread.sleep(ESPERA_RECONEXAO_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receber(Socket s) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeInt(ProtocoloReplicacao.MAGICO);
+        out.writeLong(historico);
+        out.writeLong(facade == null || divergiu ? -1 : aplicada);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        while (ativo) {
+            byte tipo = in.readByte();
+            instanteContato = System.currentTimeMillis();
+            switch (tipo) {
+                case ProtocoloReplicacao.ENTRADA:
+                    if (!aplicar(ProtocoloReplicacao.lerEntrada(in))) {
+                        return;
+                    }
+                    break;
+                case ProtocoloReplicacao.BATIMENTO:
+                    topoLider = Math.max(topoLider, in.readLong());
+                    break;
+                case ProtocoloReplicacao.INSTANTANEO:
+                    long historicoLider = in.readLong();
+                    long sequencia = in.readLong();
+                    ArmazenamentoMemoria estado = ArmazenamentoMemoria.ler(in);
+                    restaurar(estado, ProtocoloReplicacao.lerConfiguracao(in));
+                    historico = historicoLider;
+                    aplicada = sequencia;
+                    divergiu = false;
+                    topoLider = Math.max(topoLider, sequencia);
+                    break;
+                default:
+                    throw new IOException("Mensagem desconhecida: " + tipo);
+            }
+        }
+    }
+
+    /**
+     * @return false se a entrada não pôde ser aplicada; a partir daí o seguidor espera um instantâneo
+     */
+    private boolean aplicar(Evento entrada) {
+        Facade local = facade;
+        synchronized (local) {
+            try {
+                local.aplicarEvento(entrada);
+            } catch (RuntimeException e) {
+                falhas++;
+                divergiu = true;
+                ouvinte.ocorrencia("Entrada " + entrada.getSequencia() + " não aplicada (" + e.getMessage()
+                        + "); pedindo um instantâneo ao líder");
+                return false;
+            }
+            aplicada = entrada.getSequencia();
+        }
+        topoLider = Math.max(topoLider, aplicada);
+        return true;
+    }
+
+    // Grava o instantâneo no armazenamento local, carrega uma Facade nova a partir dele com as
+    // configurações do líder e fecha a anterior
+    private void restaurar(ArmazenamentoMemoria estado, List<Evento> configuracaoLider) {
+        Map<String, Usuario> usuarios = new HashMap<>();
+        Map<String, Comunidade> comunidades = new HashMap<>();
+        estado.carregar(usuarios, comunidades);
+        Armazenamento armazenamento = configuracao.criar();
+        armazenamento.salvar(usuarios.values(), comunidades.values());
+        armazenamento.sincronizar();
+        usuarios.values().forEach(Usuario::liberarTextos);
+        Facade nova = new Facade(armazenamento);
+        configuracaoLider.forEach(nova::aplicarEvento);
+
+        Facade anterior = facade;
+        facade = nova;
+        if (anterior != null) {
+            synchronized (anterior) {
+                anterior.fechar();
+            }
+        }
+    }
+
+    private void fecharSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignorada) {
+            }
+            socket = null;
+        }
+    }
+
+    /**
+     * Roda um seguidor em um processo próprio, lendo consultas da entrada padrão (ver {@link ConsoleReplicacao}).
+     * Uso: {@code java br.ufal.ic.p2.jackut.replication.SeguidorReplicacao portaLider [memoria|tmpfs|diretorio]}
+     */
+    public static void main(String[] args) throws IOException {
+        int portaLider = Integer.parseInt(args[0]);
+        SeguidorReplicacao seguidor = new SeguidorReplicacao(ConsoleReplicacao.configuracao(args.length > 1 ? args[1] : "memoria"),
+                InetAddress.getLoopbackAddress().getHostAddress(), portaLider);
+        System.out.println("seguindo a porta " + portaLider);
+        ConsoleReplicacao console = new ConsoleReplicacao(seguidor);
+        console.executar(System.in, System.out);
+        console.encerrar();
+    }
+}
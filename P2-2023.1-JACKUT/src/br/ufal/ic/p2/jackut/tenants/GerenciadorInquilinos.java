@@ -0,0 +1,368 @@
+package br.ufal.ic.p2.jackut.tenants;
+
+import br.ufal.ic.p2.jackut.models.Facade;
+import br.ufal.ic.p2.jackut.persistence.Armazenamento;
+import br.ufal.ic.p2.jackut.persistence.ConfiguracaoArmazenamento;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Hospeda várias redes Jackut independentes (inquilinos) no mesmo processo.
+ *
+ * Cada inquilino tem a sua própria Facade e o seu próprio diretório de dados, {@code raiz/<id>}.
+ * A Facade só é carregada do disco no primeiro uso; depois fica em memória até ser despejada.
+ * O despejo salva os dados e fecha a Facade, e acontece quando:
+ * <ul>
+ *   <li>há mais inquilinos carregados do que o limite;</li>
+ *   <li>a soma das estimativas de memória (ver {@link Facade#estimarMemoria()}) passa do orçamento.
+ *       A estimativa percorre a rede inteira, então é refeita só na carga e a cada
+ *       {@link #INTERVALO_ESTIMATIVA} chamadas; entre uma e outra o orçamento pode ser ultrapassado
+ *       pelo que essas chamadas acrescentarem;</li>
+ *   <li>o inquilino fica ocioso por mais tempo que o pedido em {@link #descarregarOciosos(long)}.</li>
+ * </ul>
+ * Os menos usados recentemente saem primeiro, e um inquilino com chamadas em andamento nunca é despejado.
+ * Se o salvamento falhar, a exceção chega a quem provocou o despejo e o inquilino continua carregado,
+ * com os dados que não foram salvos.
+ *
+ * A Facade não é thread-safe, então as chamadas a um mesmo inquilino são serializadas; inquilinos
+ * diferentes podem ser usados em paralelo.
+ */
+public class GerenciadorInquilinos implements Closeable {
+    public static final int INTERVALO_ESTIMATIVA = 64;
+    private static final Pattern ID_VALIDO = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Path raiz;
+    private final ConfiguracaoArmazenamento.Formato formato;
+    private final int maximoCarregados;
+    private final long orcamentoMemoria;
+    // Em ordem de acesso: o primeiro é o usado há mais tempo
+    private final LinkedHashMap<String, Inquilino> carregados = new LinkedHashMap<>(16, 0.75f, true);
+    // Despejados que ainda estão salvando; uma nova carga do mesmo id espera por eles
+    private final Map<String, Inquilino> salvando = new HashMap<>();
+    private long memoriaEstimada;
+    private boolean fechado;
+
+    /**
+     * @param raiz Diretório onde ficam os diretórios dos inquilinos
+     * @param formato Formato dos arquivos de cada inquilino
+     * @param maximoCarregados Quantos inquilinos podem ficar em memória ao mesmo tempo
+     * @param orcamentoMemoria Bytes estimados que os inquilinos carregados podem ocupar juntos
+     */
+    public GerenciadorInquilinos(Path raiz, ConfiguracaoArmazenamento.Formato formato, int maximoCarregados, long orcamentoMemoria) {
+        if (maximoCarregados <= 0 || orcamentoMemoria <= 0) {
+            throw new IllegalArgumentException("Limites devem ser positivos.");
+        }
+        this.raiz = raiz;
+        this.formato = formato;
+        this.maximoCarregados = maximoCarregados;
+        this.orcamentoMemoria = orcamentoMemoria;
+    }
+
+    /**
+     * Executa uma operação na Facade de um inquilino, carregando-a se preciso.
+     * A memória estimada do inquilino é recalculada ao final da primeira chamada e depois a cada
+     * {@link #INTERVALO_ESTIMATIVA} chamadas; em seguida, outros inquilinos podem ser despejados.
+     * @param id Identificador do inquilino (letras, dígitos, '_' e '-')
+     * @param operacao Operação sobre a Facade
+     * @return o resultado da operação
+     * @throws IllegalArgumentException se o identificador for inválido
+     * @throws IllegalStateException se o gerenciador já tiver sido fechado
+     */
+    public <T> T executar(String id, Function<Facade, T> operacao) {
+        Inquilino inquilino = reservar(id);
+        try {
+            synchronized (inquilino) {
+                inquilino.carregar();
+                Facade facade = inquilino.facade;
+                try {
+                    return operacao.apply(facade);
+                } finally {
+                    inquilino.ultimoUso = System.nanoTime();
+                    if (inquilino.chamadas++ % INTERVALO_ESTIMATIVA == 0) {
+                        atualizarEstimativa(inquilino, facade.estimarMemoria());
+                    }
+                }
+            }
+        } finally {
+            liberar(inquilino);
+        }
+    }
+
+    /**
+     * Salva e descarrega um inquilino, se estiver carregado e sem chamadas em andamento.
+     * @return true se o inquilino foi descarregado
+     */
+    public boolean descarregar(String id) {
+        Inquilino inquilino;
+        synchronized (this) {
+            inquilino = carregados.get(id);
+            if (inquilino == null || inquilino.emUso > 0) {
+                return false;
+            }
+            remover(inquilino);
+        }
+        concluirDespejo(inquilino);
+        return true;
+    }
+
+    /**
+     * Descarrega os inquilinos sem uso há mais de {@code ociosoNanos}.
+     * @return quantos foram descarregados
+     */
+    public int descarregarOciosos(long ociosoNanos) {
+        long limite = System.nanoTime() - ociosoNanos;
+        List<Inquilino> despejados = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Inquilino> it = carregados.values().iterator();
+            while (it.hasNext()) {
+                Inquilino inquilino = it.next();
+                if (inquilino.emUso == 0 && inquilino.ultimoUso - limite < 0) {
+                    it.remove();
+                    memoriaEstimada -= inquilino.memoria;
+                    salvando.put(inquilino.id, inquilino);
+                    despejados.add(inquilino);
+                }
+            }
+        }
+        concluirDespejos(despejados);
+        return despejados.size();
+    }
+
+    /**
+     * @return identificadores dos inquilinos em memória, do usado há mais tempo ao mais recente
+     */
+    public synchronized List<String> getCarregados() {
+        return new ArrayList<>(carregados.keySet());
+    }
+
+    /**
+     * @return bytes estimados do inquilino na última vez em que foi usado, ou 0 se não estiver carregado
+     */
+    public synchronized long getMemoriaEstimada(String id) {
+        Inquilino inquilino = carregados.get(id);
+        return inquilino == null ? 0 : inquilino.memoria;
+    }
+
+    /**
+     * @return soma das estimativas de todos os inquilinos carregados
+     */
+    public synchronized long getMemoriaEstimada() {
+        return memoriaEstimada;
+    }
+
+    public Path getDiretorio(String id) {
+        validar(id);
+        return raiz.resolve(id);
+    }
+
+    /**
+     * Salva e descarrega todos os inquilinos. Chamadas posteriores a {@link #executar} falham.
+     * @throws RuntimeException com a primeira falha de salvamento, depois de tentar todos os inquilinos
+     */
+    @Override
+    public void close() {
+        List<Inquilino> todos;
+        synchronized (this) {
+            fechado = true;
+            todos = new ArrayList<>(carregados.values());
+            carregados.clear();
+            memoriaEstimada = 0;
+        }
+        concluirDespejos(todos);
+    }
+
+    private synchronized Inquilino reservar(String id) {
+        if (fechado) {
+            throw new IllegalStateException("Gerenciador de inquilinos fechado.");
+        }
+        Inquilino inquilino = carregados.get(id);
+        if (inquilino == null) {
+            inquilino = new Inquilino(id, ConfiguracaoArmazenamento.diretorio(getDiretorio(id)).comFormato(formato), salvando.get(id));
+            carregados.put(id, inquilino);
+        }
+        inquilino.emUso++;
+        return inquilino;
+    }
+
+    private void liberar(Inquilino inquilino) {
+        List<Inquilino> despejados;
+        synchronized (this) {
+            inquilino.emUso--;
+            despejados = escolherDespejos();
+        }
+        concluirDespejos(despejados);
+    }
+
+    private synchronized void atualizarEstimativa(Inquilino inquilino, long memoria) {
+        if (carregados.get(inquilino.id) == inquilino) {
+            memoriaEstimada += memoria - inquilino.memoria;
+        }
+        inquilino.memoria = memoria;
+    }
+
+    /**
+     * Tira do mapa, na ordem LRU, os inquilinos livres necessários para voltar aos limites.
+     * O descarregamento (I/O) fica com quem chamou, fora do lock do gerenciador.
+     */
+    private List<Inquilino> escolherDespejos() {
+        List<Inquilino> despejados = new ArrayList<>();
+        Iterator<Inquilino> it = carregados.values().iterator();
+        while ((carregados.size() > maximoCarregados || memoriaEstimada > orcamentoMemoria) && it.hasNext()) {
+            Inquilino inquilino = it.next();
+            if (inquilino.emUso == 0) {
+                it.remove();
+                memoriaEstimada -= inquilino.memoria;
+                salvando.put(inquilino.id, inquilino);
+                despejados.add(inquilino);
+            }
+        }
+        return despejados;
+    }
+
+    private void remover(Inquilino inquilino) {
+        carregados.remove(inquilino.id);
+        memoriaEstimada -= inquilino.memoria;
+        salvando.put(inquilino.id, inquilino);
+    }
+
+    /**
+     * Conclui todos os despejos, mesmo que algum falhe; a primeira falha é propagada no final.
+     */
+    private void concluirDespejos(List<Inquilino> despejados) {
+        RuntimeException falha = null;
+        for (Inquilino inquilino : despejados) {
+            try {
+                concluirDespejo(inquilino);
+            } catch (RuntimeException e) {
+                if (falha == null) falha = e;
+                else falha.addSuppressed(e);
+            }
+        }
+        if (falha != null) {
+            throw falha;
+        }
+    }
+
+    private void concluirDespejo(Inquilino inquilino) {
+        try {
+            inquilino.descarregar();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                // Volta a ficar carregado, a menos que uma nova carga do mesmo id já o tenha assumido (ver carregar)
+                if (!fechado && !carregados.containsKey(inquilino.id) && inquilino.readmitir()) {
+                    carregados.put(inquilino.id, inquilino);
+                    memoriaEstimada += inquilino.memoria;
+                }
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                salvando.remove(inquilino.id, inquilino);
+            }
+        }
+    }
+
+    private static void validar(String id) {
+        if (id == null || !ID_VALIDO.matcher(id).matches()) {
+            throw new IllegalArgumentException("Identificador de inquilino inválido: " + id);
+        }
+    }
+
+    /**
+     * Um inquilino e a sua Facade, quando carregada. Os campos emUso e memoria são protegidos pelo
+     * gerenciador; facade, armazenamento e despejado, pelo próprio inquilino.
+     */
+    private static final class Inquilino {
+        private final String id;
+        private final ConfiguracaoArmazenamento configuracao;
+        private Armazenamento armazenamento;
+        private Facade facade;
+        private int emUso;
+        private long memoria;
+        private volatile long ultimoUso = System.nanoTime();
+        // Instância anterior do mesmo id, despejada mas possivelmente ainda gravando
+        private Inquilino anterior;
+        // Chamadas desde a criação; a estimativa de memória é refeita na primeira e a cada INTERVALO_ESTIMATIVA
+        private int chamadas;
+        // O despejo terminou: a Facade foi salva e fechada, ou o salvamento falhou e ela continua aqui
+        private boolean despejado;
+
+        private Inquilino(String id, ConfiguracaoArmazenamento configuracao, Inquilino anterior) {
+            this.id = id;
+            this.configuracao = configuracao;
+            this.anterior = anterior;
+        }
+
+        private void carregar() {
+            if (facade != null) return;
+            if (anterior != null) {
+                Inquilino despejado = anterior;
+                anterior = null;
+                if (despejado.transferirPara(this)) return;
+            }
+            armazenamento = configuracao.criar();
+            facade = new Facade(armazenamento);
+        }
+
+        /**
+         * Salva e fecha a Facade. Se o salvamento falhar, a Facade continua carregada e a exceção é propagada.
+         */
+        private synchronized void descarregar() {
+            try {
+                if (facade == null) return;
+                facade.encerrarSistema();
+                armazenamento.sincronizar();
+                facade.fechar();
+                facade = null;
+                armazenamento = null;
+            } finally {
+                despejado = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Prepara para voltar ao mapa de carregados depois de um salvamento que falhou.
+         * @return false se uma nova instância já assumiu a Facade
+         */
+        private synchronized boolean readmitir() {
+            if (facade == null) return false;
+            despejado = false;
+            return true;
+        }
+
+        /**
+         * Espera o despejo terminar. Se o salvamento tiver falhado, passa a Facade, que tem os dados mais
+         * recentes, para a nova instância do mesmo id.
+         * @return true se a Facade foi transferida
+         */
+        private synchronized boolean transferirPara(Inquilino novo) {
+            boolean interrompido = false;
+            while (!despejado) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrompido = true;
+                }
+            }
+            if (interrompido) {
+                Thread.currentThread().interrupt();
+            }
+            if (facade == null) return false;
+            novo.facade = facade;
+            novo.armazenamento = armazenamento;
+            facade = null;
+            armazenamento = null;
+            return true;
+        }
+    }
+}